@@ -10,5 +10,79 @@ repositories {
 }
 
 dependencies {
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// The vectorized tokenizer uses the incubating Vector API and is only built with -Pvector, see
+// com.github.wildtooth.lang.lex.Tokenizer. Such builds use it when run with --add-modules jdk.incubator.vector.
+val vector = project.hasProperty("vector")
+if (vector) {
+    sourceSets.main {
+        java.srcDir("src/vector/java")
+    }
+    tasks.compileJava {
+        options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+    }
+}
+
+// Serializes dictionary.txt into the compact index loaded by DictionaryChecker
+val generateDictionaryIndex by tasks.registering(JavaExec::class) {
+    val dictionary = layout.projectDirectory.file("src/main/resources/dictionary.txt")
+    val outputDir = layout.buildDirectory.dir("generated/resources/dictionary")
+
+    classpath = sourceSets.main.get().output.classesDirs
+    mainClass.set("com.github.wildtooth.lang.interpreter.DictionaryIndexWriter")
+    inputs.file(dictionary)
+    outputs.dir(outputDir)
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(dictionary.asFile.path, outputDir.get().file("dictionary.idx").asFile.path)
+    })
+}
+
+sourceSets.main {
+    output.dir(mapOf("builtBy" to generateDictionaryIndex), layout.buildDirectory.dir("generated/resources/dictionary"))
+}
 
-}
\ No newline at end of file
+// Runnable with java -jar, which class-data sharing needs, see StartupTrainer
+tasks.jar {
+    manifest {
+        attributes("Main-Class" to "com.github.wildtooth.lang.Main")
+    }
+}
+
+// JMH benchmarks live in src/jmh/java, run them with: gradle jmh [-Pjmh.args="<JMH options>"]
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // Forks inherit the module, so both tokenizers can be compared
+    if (vector) {
+        jvmArgs("--add-modules", "jdk.incubator.vector")
+    }
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json")
+    doFirst { resultFile.get().asFile.parentFile.mkdirs() }
+    argumentProviders.add(CommandLineArgumentProvider {
+        val extra = (project.findProperty("jmh.args") as String?)?.split(" ")?.filter { it.isNotBlank() }
+        extra ?: listOf("-prof", "gc", "-rf", "json", "-rff", resultFile.get().asFile.path)
+    })
+}
+
+tasks.named("check") {
+    dependsOn(jmh.classesTaskName)
+}
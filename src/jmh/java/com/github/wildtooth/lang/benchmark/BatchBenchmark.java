@@ -0,0 +1,75 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.interpreter.BatchExecutor;
+import com.github.wildtooth.lang.interpreter.ExecutionContext;
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.io.NullSink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of running one compiled program many times concurrently. Compare the score against the number of
+ * available cores to see how close batch execution comes to linear scaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+  private static final int RUNS = 256;
+
+  @Param({"pool", "virtual"})
+  public String executor;
+
+  private CompiledProgram program;
+  private List<ExecutionContext> contexts;
+  private BatchExecutor batchExecutor;
+
+  @Setup
+  public void setup() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.loadInstructions(Programs.nestedLoop(20, 25));
+    program = interpreter.getProgram();
+    contexts = new ArrayList<>(RUNS);
+    for (int i = 0; i < RUNS; i++) {
+      contexts.add(new ExecutionContext(new ByteArrayMemory(), new NullSink()));
+    }
+    batchExecutor = executor.equals("virtual") ? BatchExecutor.withVirtualThreads() : new BatchExecutor();
+  }
+
+  @TearDown
+  public void tearDown() {
+    batchExecutor.close();
+  }
+
+  /**
+   * One operation is a batch of {@value #RUNS} runs
+   */
+  @Benchmark
+  public List<ExecutionContext> executeAll() throws InterruptedException, ExecutionException {
+    for (ExecutionContext context : contexts) {
+      context.reset();
+    }
+    batchExecutor.executeAll(program, contexts);
+    return contexts;
+  }
+}
@@ -0,0 +1,70 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.interpreter.DictionaryChecker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of dictionary lookups for words that are and are not in the dictionary
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+  private static final int WORDS = 1024;
+
+  private DictionaryChecker dictionaryChecker;
+  private String[] hits;
+  private String[] misses;
+
+  @Setup
+  public void setup() {
+    dictionaryChecker = new DictionaryChecker();
+    dictionaryChecker.loadDictionary();
+    Random random = new Random(42);
+    hits = Programs.sampleWords(WORDS, random);
+    misses = new String[WORDS];
+    for (int i = 0; i < WORDS; i++) {
+      misses[i] = hits[i] + "qx";
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORDS)
+  public int isValidWordHit() {
+    int valid = 0;
+    for (String word : hits) {
+      if (dictionaryChecker.isValidWord(word)) {
+        valid++;
+      }
+    }
+    return valid;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORDS)
+  public int isValidWordMiss() {
+    int valid = 0;
+    for (String word : misses) {
+      if (dictionaryChecker.isValidWord(word)) {
+        valid++;
+      }
+    }
+    return valid;
+  }
+}
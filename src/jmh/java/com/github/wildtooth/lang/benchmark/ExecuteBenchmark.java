@@ -0,0 +1,125 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.interpreter.ExecutionContext;
+import com.github.wildtooth.lang.interpreter.ExecutionContextPool;
+import com.github.wildtooth.lang.interpreter.ExecutionLimits;
+import com.github.wildtooth.lang.interpreter.ExecutionProfile;
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.interpreter.JitProgram;
+import com.github.wildtooth.lang.interpreter.ProgramExecutor;
+import com.github.wildtooth.lang.interpreter.ProgramProfiler;
+import com.github.wildtooth.lang.io.NullSink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to execute an already loaded program, with output discarded
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark {
+
+  private static final long CHECKPOINT_INTERVAL = 1 << 16;
+
+  @Param({"hello", "loop", "generated-100000"})
+  public String program;
+
+  private Interpreter interpreter;
+  private CompiledProgram compiledProgram;
+  private ExecutionContextPool pool;
+  private JitProgram jitProgram;
+
+  @Setup
+  public void setup() {
+    String programText;
+    switch (program) {
+      case "hello":
+        programText = Programs.helloWorld();
+        break;
+      case "loop":
+        programText = Programs.nestedLoop(200, 250);
+        break;
+      default:
+        programText = Programs.generated(Integer.parseInt(program.substring("generated-".length())), new Random(42));
+    }
+    interpreter = new Interpreter();
+    interpreter.setOutputSink(new NullSink());
+    interpreter.loadInstructions(programText);
+    compiledProgram = interpreter.getProgram();
+    pool = new ExecutionContextPool(1, () -> new ExecutionContext(new ByteArrayMemory(), new NullSink()));
+    jitProgram = JitProgram.compile(compiledProgram);
+  }
+
+  @Benchmark
+  public Interpreter execute() {
+    interpreter.execute();
+    return interpreter;
+  }
+
+  @Benchmark
+  public ExecutionContext pooledRun() {
+    ExecutionContext context = pool.acquire();
+    ProgramExecutor.execute(compiledProgram, context);
+    pool.release(context);
+    return context;
+  }
+
+  /**
+   * Same as {@link #pooledRun()} with profiling, to keep an eye on the profiler's overhead
+   */
+  @Benchmark
+  public ExecutionProfile profiledRun() {
+    ExecutionContext context = pool.acquire();
+    ExecutionProfile profile = ProgramProfiler.profile(compiledProgram, context, ExecutionLimits.none());
+    pool.release(context);
+    return profile;
+  }
+
+  /**
+   * Same as {@link #pooledRun()} taking a snapshot every {@value #CHECKPOINT_INTERVAL} steps, to keep an eye on the
+   * cost of checkpoints
+   */
+  @Benchmark
+  public ExecutionContext checkpointedRun(Blackhole blackhole) {
+    ExecutionContext context = pool.acquire();
+    ProgramExecutor.execute(compiledProgram, context,
+        ExecutionLimits.none().withCheckpoints(CHECKPOINT_INTERVAL, blackhole::consume));
+    pool.release(context);
+    return context;
+  }
+
+  /**
+   * Same as {@link #pooledRun()} with the program compiled to bytecode, falling back to interpreting programs too
+   * large to compile
+   */
+  @Benchmark
+  public ExecutionContext jitRun() {
+    ExecutionContext context = pool.acquire();
+    if (jitProgram != null) {
+      jitProgram.execute(context);
+    } else {
+      ProgramExecutor.execute(compiledProgram, context);
+    }
+    pool.release(context);
+    return context;
+  }
+}
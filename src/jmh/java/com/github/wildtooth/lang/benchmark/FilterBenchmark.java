@@ -0,0 +1,95 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.interpreter.ExecutionContext;
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.interpreter.JitProgram;
+import com.github.wildtooth.lang.interpreter.ProgramExecutor;
+import com.github.wildtooth.lang.io.NullSink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to push input through a filter program copying it to the output, against copying the channel directly
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+  @Param({"1048576"})
+  public int size;
+
+  private byte[] input;
+  private CompiledProgram compiledProgram;
+  private JitProgram jitProgram;
+  private ExecutionContext context;
+  private final ByteBuffer copyBuffer = ByteBuffer.allocate(64 * 1024);
+
+  @Setup
+  public void setup() {
+    input = new byte[size];
+    new Random(42).nextBytes(input);
+    Interpreter interpreter = new Interpreter();
+    interpreter.loadInstructions(Programs.copyInput());
+    compiledProgram = interpreter.getProgram();
+    jitProgram = JitProgram.compile(compiledProgram);
+    context = new ExecutionContext(new ByteArrayMemory(), new NullSink());
+  }
+
+  private ReadableByteChannel inputChannel() {
+    return Channels.newChannel(new ByteArrayInputStream(input));
+  }
+
+  @Benchmark
+  public ExecutionContext interpreted() {
+    context.reset();
+    context.setInput(inputChannel());
+    ProgramExecutor.execute(compiledProgram, context);
+    return context;
+  }
+
+  @Benchmark
+  public ExecutionContext jit() {
+    context.reset();
+    context.setInput(inputChannel());
+    jitProgram.execute(context);
+    return context;
+  }
+
+  /**
+   * The same bytes read into a buffer and handed to the sink, the floor for any filter
+   */
+  @Benchmark
+  public NullSink channelCopy() throws IOException {
+    ReadableByteChannel channel = inputChannel();
+    NullSink sink = new NullSink();
+    copyBuffer.clear();
+    while (channel.read(copyBuffer) >= 0) {
+      sink.write(copyBuffer.array(), 0, copyBuffer.position());
+      copyBuffer.clear();
+    }
+    return sink;
+  }
+}
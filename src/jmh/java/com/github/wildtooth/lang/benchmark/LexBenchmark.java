@@ -0,0 +1,57 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.lex.LexCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of lex value calculation over dictionary words
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexBenchmark {
+  private static final int WORDS = 1024;
+
+  private String[] words;
+
+  @Setup
+  public void setup() {
+    words = Programs.sampleWords(WORDS, new Random(42));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORDS)
+  public int calculateLexValue() {
+    int sum = 0;
+    for (String word : words) {
+      sum += LexCalculator.calculateLexValue(word);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORDS)
+  public int calculateLexValueRange() {
+    int sum = 0;
+    for (String word : words) {
+      sum += LexCalculator.calculateLexValue(word, 0, word.length());
+    }
+    return sum;
+  }
+}
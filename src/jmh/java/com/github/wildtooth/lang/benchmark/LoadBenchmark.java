@@ -0,0 +1,112 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.interpreter.ProgramEditor;
+import com.github.wildtooth.lang.interpreter.ProgramCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to tokenize, validate and compile a program into a fresh interpreter, or to find it in a cache
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+  @Param({"hello", "generated-10000", "generated-100000", "generated-300000"})
+  public String program;
+
+  private String programText;
+  private Path programFile;
+  private ProgramCache programCache;
+  private Interpreter editedInterpreter;
+  private ProgramEditor editor;
+  private String[] editedLine;
+  private int edits;
+
+  @Setup
+  public void setup() throws IOException {
+    if (program.equals("hello")) {
+      programText = Programs.helloWorld();
+    } else {
+      programText = Programs.generated(Integer.parseInt(program.substring("generated-".length())), new Random(42));
+    }
+    programFile = Files.createTempFile("load-benchmark", ".ord");
+    Files.write(programFile, programText.getBytes(StandardCharsets.ISO_8859_1));
+    programCache = new ProgramCache(Files.createTempDirectory("load-benchmark-cache"));
+    loadCachedFile();
+
+    editedInterpreter = new Interpreter();
+    editor = editedInterpreter.getEditor();
+    editor.load(programText);
+    editedLine = new String[]{"add one", "subtract one two"};
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(programFile);
+    try (Stream<Path> files = Files.walk(programCache.getDirectory())) {
+      for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Benchmark
+  public Interpreter loadInstructions() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.loadInstructions(programText);
+    return interpreter;
+  }
+
+  @Benchmark
+  public Interpreter loadFile() throws IOException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.loadInstructions(programFile);
+    return interpreter;
+  }
+
+  /**
+   * Same as {@link #loadFile()} with the compiled program found in a {@link ProgramCache}
+   */
+  @Benchmark
+  public Interpreter loadCachedFile() throws IOException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setProgramCache(programCache);
+    interpreter.loadInstructions(programFile);
+    return interpreter;
+  }
+
+  /**
+   * Replace the middle line of an already loaded program and compile the result, to compare with a full load
+   */
+  @Benchmark
+  public CompiledProgram replaceLine() {
+    editor.replaceLine(editor.getLineCount() / 2, editedLine[edits++ & 1]);
+    return editedInterpreter.getProgram();
+  }
+}
@@ -0,0 +1,174 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.lex.LexCalculator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Builds ord programs for the benchmarks out of real dictionary words
+ */
+public final class Programs {
+  private static final List<String> WORDS = loadWords();
+  private static final Map<Character, Map<Integer, String>> BY_LETTER_AND_VALUE = indexWords();
+  private static final Map<Integer, String> EVEN_BY_VALUE = indexByParity(0);
+  private static final Map<Integer, String> ODD_BY_VALUE = indexByParity(1);
+
+  private Programs() {
+  }
+
+  private static List<String> loadWords() {
+    InputStream inputStream = Objects.requireNonNull(Programs.class.getResourceAsStream("/dictionary.txt"));
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+      List<String> words = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        words.add(line.trim());
+      }
+      return words;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Map<Character, Map<Integer, String>> indexWords() {
+    Map<Character, Map<Integer, String>> index = new HashMap<>();
+    for (String word : WORDS) {
+      index.computeIfAbsent(word.charAt(0), c -> new HashMap<>())
+          .merge(LexCalculator.calculateLexValue(word), word, (a, b) -> a.length() <= b.length() ? a : b);
+    }
+    return index;
+  }
+
+  private static Map<Integer, String> indexByParity(int parity) {
+    Map<Integer, String> index = new HashMap<>();
+    for (String word : WORDS) {
+      if (word.length() % 2 == parity) {
+        index.merge(LexCalculator.calculateLexValue(word), word, (a, b) -> a.length() <= b.length() ? a : b);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Get a sample of dictionary words
+   *
+   * @param count  Number of words
+   * @param random Source of randomness
+   * @return The words
+   */
+  public static String[] sampleWords(int count, Random random) {
+    String[] sample = new String[count];
+    for (int i = 0; i < count; i++) {
+      sample[i] = WORDS.get(random.nextInt(WORDS.size()));
+    }
+    return sample;
+  }
+
+  /**
+   * Build a line for an instruction letter whose operand is exactly the given value
+   *
+   * @param letter The instruction letter
+   * @param value  The operand value
+   * @return The line
+   */
+  public static String line(char letter, int value) {
+    Map<Integer, String> candidates = BY_LETTER_AND_VALUE.get(letter);
+    String exact = candidates.get(value);
+    if (exact != null) {
+      return exact;
+    }
+    for (Map.Entry<Integer, String> first : candidates.entrySet()) {
+      int delta = value - first.getKey();
+      String adjust = delta > 0 ? EVEN_BY_VALUE.get(delta) : ODD_BY_VALUE.get(-delta);
+      if (adjust != null) {
+        return first.getValue() + " " + adjust;
+      }
+    }
+    throw new IllegalArgumentException("No line for " + letter + " = " + value);
+  }
+
+  /**
+   * A nested counting loop running roughly {@code outer * inner * 2} lines before printing a zero
+   *
+   * @param outer Iterations of the outer loop, 1-255
+   * @param inner Iterations of the inner loop, 1-255
+   * @return The program text
+   */
+  public static String nestedLoop(int outer, int inner) {
+    int length = 9;
+    return String.join("\n",
+        line('c', outer),            // 0: outer counter in cell 0
+        "forward",                   // 1: move to cell 1
+        line('c', inner),            // 2: inner counter in cell 1
+        line('a', 255),              // 3: decrement cell 1
+        line('l', 3 + length),       // 4: loop to 3 while cell 1 is non-zero
+        "go",                        // 5: back to cell 0
+        line('a', 255),              // 6: decrement cell 0
+        line('l', 1 + length),       // 7: loop to 1 while cell 0 is non-zero
+        "show");                     // 8: print cell 0
+  }
+
+  /**
+   * A long straight-line program of memory, pointer and output operations, with a comment every 16 lines
+   *
+   * @param lines  Number of lines
+   * @param random Source of randomness
+   * @return The program text
+   */
+  public static String generated(int lines, Random random) {
+    char[] letters = {'a', 'b', 'c', 'f', 'g', 'e', 'r', 's'};
+    StringBuilder program = new StringBuilder(lines * 12);
+    for (int i = 0; i < lines; i++) {
+      if (i % 16 == 15) {
+        program.append("# comment line ").append(i);
+      } else {
+        String first = candidate(letters[random.nextInt(letters.length)], random);
+        program.append(first);
+        if (random.nextInt(4) == 0) {
+          program.append(' ').append(WORDS.get(random.nextInt(WORDS.size())));
+        }
+      }
+      program.append('\n');
+    }
+    return program.toString();
+  }
+
+  private static String candidate(char letter, Random random) {
+    List<String> words = new ArrayList<>(BY_LETTER_AND_VALUE.get(letter).values());
+    return words.get(random.nextInt(words.size()));
+  }
+
+  /**
+   * The bundled example program
+   *
+   * @return The program text
+   */
+  public static String helloWorld() {
+    InputStream inputStream = Objects.requireNonNull(Programs.class.getResourceAsStream("/HelloWorld.ord"));
+    try (InputStream in = inputStream) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * A filter copying its input to its output byte by byte, the example of the documentation
+   *
+   * @return The program text
+   */
+  public static String copyInput() {
+    return "in\nforward\nto\nlot\ngo\nof\njing\ngo\n";
+  }
+}
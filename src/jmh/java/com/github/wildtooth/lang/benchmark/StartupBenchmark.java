@@ -0,0 +1,51 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.io.NullSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start cost: one run of a program in a fresh JVM, including dictionary loading and class loading.
+ * Runs with and without tiered compilation show what compiling hot loops costs and gains before anything is warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+  @Param({"true", "false"})
+  public boolean tiered;
+
+  @Benchmark
+  public Interpreter coldHelloWorld() {
+    return run(Programs.helloWorld());
+  }
+
+  @Benchmark
+  public Interpreter coldNestedLoop() {
+    return run(Programs.nestedLoop(255, 255));
+  }
+
+  private Interpreter run(String program) {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setTieredCompilation(tiered);
+    interpreter.setOutputSink(new NullSink());
+    interpreter.loadInstructions(program);
+    interpreter.execute();
+    return interpreter;
+  }
+}
@@ -0,0 +1,82 @@
+package com.github.wildtooth.lang.benchmark;
+
+import com.github.wildtooth.lang.lex.LexCalculator;
+import com.github.wildtooth.lang.lex.Tokenizer;
+import com.github.wildtooth.lang.lex.Tokens;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to split a large generated program into words and sum up their lex values, with either tokenizer and with
+ * the per line {@link String#split} it replaces
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+  @Param({"1048576"})
+  public int lines;
+
+  private String text;
+  private byte[] bytes;
+  private final Tokens tokens = new Tokens();
+
+  @Setup
+  public void setup() {
+    text = Programs.generated(lines, new Random(42));
+    bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @Benchmark
+  public int scalar() {
+    return tokenize(Tokenizer.scalar());
+  }
+
+  /**
+   * Needs the tokenizer built and the JVM started with the Vector API module, which {@code gradle -Pvector jmh} does
+   */
+  @Benchmark
+  public int vector() {
+    return tokenize(Tokenizer.vector());
+  }
+
+  @Benchmark
+  public int split() {
+    int sum = 0;
+    int start = 0;
+    int end;
+    while ((end = text.indexOf('\n', start)) >= 0) {
+      for (String word : text.substring(start, end).split(" ")) {
+        sum += LexCalculator.calculateLexValue(word);
+      }
+      start = end + 1;
+    }
+    return sum;
+  }
+
+  private int tokenize(Tokenizer tokenizer) {
+    tokenizer.tokenize(bytes, 0, bytes.length, tokens);
+    int sum = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      sum += tokens.value(i);
+    }
+    return sum;
+  }
+}
@@ -1,28 +1,138 @@
 package com.github.wildtooth.lang;
 
+import com.github.wildtooth.lang.interpreter.CheckpointLog;
+import com.github.wildtooth.lang.interpreter.ExecutionLimits;
+import com.github.wildtooth.lang.interpreter.ExecutionProfile;
+import com.github.wildtooth.lang.interpreter.ExecutionResult;
+import com.github.wildtooth.lang.interpreter.ExecutionSnapshot;
 import com.github.wildtooth.lang.interpreter.Interpreter;
-import com.github.wildtooth.lang.io.FileHandler;
-
-import java.util.Objects;
+import com.github.wildtooth.lang.interpreter.ProgramCache;
+import com.github.wildtooth.lang.io.ChannelSink;
+import com.github.wildtooth.lang.memory.CellWidth;
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.memory.MemoryType;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+import com.github.wildtooth.lang.server.InterpreterClient;
+import com.github.wildtooth.lang.server.InterpreterServer;
+import com.github.wildtooth.lang.server.RunRequest;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * Main entry point for the ord-interpreter
  */
 public class Main {
+  private static final String EXAMPLE_PROGRAM = "HelloWorld.ord";
 
   public static void main(String[] args) {
-    String filePath = Objects.requireNonNull(Main.class.getClassLoader().getResource("HelloWorld.ord")).getPath();;
+    String filePath = null; // null for the bundled example, which has no path of its own inside the jar
 
     if (args.length == 0) {
-      System.out.println("Usage: java -jar ord-interpreter.jar [--debug|-d] [--file|-f <file_path>] [file_path]");
+      System.out.println("Usage: java -jar ord-interpreter.jar [--debug|-d] [--file|-f <file_path>]"
+          + " [--memory-size <cells>] [--cell-bits 8|16|32] [--memory-type array|off_heap|paged]"
+          + " [--max-steps <steps>] [--timeout <millis>] [--profile] [--profile-json <file>] [--jmx] [--jit]"
+          + " [--no-tiered] [--no-cache] [--checkpoint <file>] [--checkpoint-interval <steps>] [--resume <file>]"
+          + " [--cfg <file>] [--serve <socket>|-] [--client <socket>] [--train <archive>] [file_path]");
       System.out.println("Using default example program...");
     }
 
     boolean debugMode = false;
+    int memorySize = Memory.DEFAULT_SIZE;
+    CellWidth cellWidth = CellWidth.BITS_8;
+    MemoryType memoryType = MemoryType.ARRAY;
+    ExecutionLimits limits = ExecutionLimits.none();
+    boolean profile = false;
+    String profileJsonPath = null;
+    boolean jmx = false;
+    boolean jit = false;
+    boolean tiered = true;
+    boolean cache = true;
+    String checkpointPath = null;
+    long checkpointInterval = ExecutionLimits.DEFAULT_CHECKPOINT_INTERVAL;
+    String resumePath = null;
+    String cfgPath = null;
+    String servePath = null;
+    String clientPath = null;
+    String trainPath = null;
 
     for (int i = 0; i < args.length; i++) {
       if (args[i].equals("--debug") || args[i].equals("-d")) {
         debugMode = true;
+      } else if (args[i].equals("--profile")) {
+        profile = true;
+      } else if (args[i].equals("--jmx")) {
+        jmx = true;
+      } else if (args[i].equals("--jit")) {
+        jit = true;
+      } else if (args[i].equals("--no-tiered")) {
+        tiered = false;
+      } else if (args[i].equals("--no-cache")) {
+        cache = false;
+      } else if (args[i].equals("--profile-json") || args[i].equals("--checkpoint") || args[i].equals("--resume")
+          || args[i].equals("--cfg") || args[i].equals("--serve") || args[i].equals("--client")
+          || args[i].equals("--train")) {
+        if (i + 1 >= args.length) {
+          System.err.println("Missing value for " + args[i]);
+          return;
+        }
+        if (args[i].equals("--checkpoint")) {
+          checkpointPath = args[++i];
+        } else if (args[i].equals("--resume")) {
+          resumePath = args[++i];
+        } else if (args[i].equals("--cfg")) {
+          cfgPath = args[++i];
+        } else if (args[i].equals("--serve")) {
+          servePath = args[++i];
+        } else if (args[i].equals("--client")) {
+          clientPath = args[++i];
+        } else if (args[i].equals("--train")) {
+          trainPath = args[++i];
+        } else {
+          profile = true;
+          profileJsonPath = args[++i];
+        }
+      } else if (args[i].equals("--memory-size") || args[i].equals("--cell-bits") || args[i].equals("--memory-type")
+          || args[i].equals("--max-steps") || args[i].equals("--timeout") || args[i].equals("--checkpoint-interval")) {
+        if (i + 1 >= args.length) {
+          System.err.println("Missing value for " + args[i]);
+          return;
+        }
+        String option = args[i];
+        String value = args[++i];
+        try {
+          if (option.equals("--memory-size")) {
+            memorySize = Integer.parseInt(value);
+          } else if (option.equals("--cell-bits")) {
+            cellWidth = CellWidth.ofBits(Integer.parseInt(value));
+          } else if (option.equals("--max-steps")) {
+            limits = limits.withMaxSteps(Long.parseLong(value));
+          } else if (option.equals("--timeout")) {
+            limits = limits.withTimeout(Duration.ofMillis(Long.parseLong(value)));
+          } else if (option.equals("--checkpoint-interval")) {
+            checkpointInterval = Long.parseLong(value);
+            if (checkpointInterval <= 0) {
+              throw new IllegalArgumentException("Checkpoint interval must be positive");
+            }
+          } else {
+            memoryType = MemoryType.valueOf(value.toUpperCase());
+          }
+        } catch (IllegalArgumentException e) {
+          System.err.println("Invalid value for " + option + ": " + value);
+          return;
+        }
       } else if (args[i].equals("--file") || args[i].equals("-f")) {
         if (i + 1 < args.length) {
           filePath = args[++i];
@@ -32,34 +142,212 @@ public class Main {
       }
     }
 
+    String programName = filePath != null ? filePath : EXAMPLE_PROGRAM;
+
+    if (trainPath != null) {
+      try {
+        Path archive = Paths.get(trainPath);
+        if (StartupTrainer.train(archive, filePath)) {
+          System.err.println("Wrote class-data sharing archive, launch with -XX:SharedArchiveFile="
+              + archive.toAbsolutePath() + " to use it");
+        }
+      } catch (InvalidPathException e) {
+        System.err.println("Invalid archive file: " + trainPath);
+      }
+      return;
+    }
+    if (servePath != null) {
+      serve(servePath);
+      return;
+    }
+    if (clientPath != null) {
+      RunRequest request;
+      try {
+        request = RunRequest.of(filePath != null ? Files.readString(Paths.get(filePath)) : readExample())
+            .withMemory(memoryType, memorySize, cellWidth)
+            .withMaxSteps(limits.getMaxSteps())
+            .withCompilation(jit, tiered);
+      } catch (IOException | InvalidPathException e) {
+        System.err.println("File not found: " + programName);
+        System.err.println("Failed to read program file.");
+        return;
+      }
+      if (limits.getTimeout() != null) {
+        request = request.withTimeout(limits.getTimeout());
+      }
+      runOnServer(clientPath, request);
+      return;
+    }
+
     if (debugMode) {
       System.out.println("Debug mode: ON");
-      System.out.println("Loading file: " + filePath);
+      System.out.println("Loading file: " + programName);
     }
 
-    String fileContents = FileHandler.readFileContents(filePath);
-    if (fileContents == null) {
-      System.err.println("Failed to read program file.");
+    Memory memory;
+    try {
+      memory = Memory.create(memoryType, memorySize, cellWidth);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid memory configuration: " + e.getMessage());
       return;
     }
 
-    Interpreter interpreter = new Interpreter();
+    if (jmx) {
+      InterpreterMetrics.registerMBean();
+    }
+
+    List<ExecutionSnapshot> snapshots = null;
+    if (resumePath != null) {
+      try {
+        snapshots = CheckpointLog.read(Paths.get(resumePath));
+      } catch (IOException | IllegalArgumentException e) {
+        System.err.println("Failed to read checkpoint file " + resumePath + ": " + e.getMessage());
+        return;
+      }
+    }
+    if (checkpointPath != null) {
+      try {
+        limits = limits.withCheckpoints(checkpointInterval, new CheckpointLog(Paths.get(checkpointPath)));
+      } catch (InvalidPathException e) {
+        System.err.println("Invalid checkpoint file: " + checkpointPath);
+        return;
+      }
+    }
+
+    Interpreter interpreter = new Interpreter(memory);
     interpreter.setDebugMode(debugMode);
+    interpreter.setExecutionLimits(limits);
+    interpreter.setJitEnabled(jit);
+    interpreter.setTieredCompilation(tiered);
+    if (cache) {
+      interpreter.setProgramCache(ProgramCache.defaultCache());
+    }
 
     if (debugMode) {
       System.out.println("Loading program...");
     }
 
-    interpreter.loadInstructions(fileContents);
+    try {
+      if (filePath != null) {
+        interpreter.loadInstructions(Paths.get(filePath));
+      } else {
+        try (Reader reader = new InputStreamReader(openExample(), StandardCharsets.UTF_8)) {
+          interpreter.loadInstructions(reader);
+        }
+      }
+    } catch (IOException | InvalidPathException e) {
+      System.err.println("File not found: " + programName);
+      System.err.println("Failed to read program file.");
+      return;
+    }
+
+    if (cfgPath != null) {
+      try {
+        Files.write(Paths.get(cfgPath), interpreter.getControlFlowGraph().toDot().getBytes(StandardCharsets.UTF_8));
+      } catch (IOException | InvalidPathException e) {
+        System.err.println("Failed to write control-flow graph: " + cfgPath);
+      }
+    }
 
     if (debugMode) {
       System.out.println("Executing program...");
     }
 
-    interpreter.execute();
+    ExecutionResult result;
+    ExecutionProfile executionProfile = null;
+    if (snapshots != null) {
+      try {
+        result = interpreter.resume(snapshots);
+      } catch (IllegalArgumentException e) {
+        System.err.println("Cannot resume from " + resumePath + ": " + e.getMessage());
+        return;
+      }
+    } else if (profile) {
+      executionProfile = interpreter.profile();
+      result = executionProfile.getResult();
+    } else {
+      result = interpreter.execute();
+    }
+    if (!result.isCompleted()) {
+      System.err.println("Program stopped: " + result);
+    }
+
+    if (executionProfile != null) {
+      System.err.print(executionProfile.toText(10));
+      if (profileJsonPath != null) {
+        try {
+          Files.write(Paths.get(profileJsonPath), executionProfile.toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | InvalidPathException e) {
+          System.err.println("Failed to write profile: " + profileJsonPath);
+        }
+      }
+    }
 
     if (debugMode) {
       System.out.println("Program execution completed.");
     }
   }
+
+  /**
+   * Open the bundled example program
+   *
+   * @return The program source
+   * @throws IOException if the example is missing from the class path
+   */
+  private static InputStream openExample() throws IOException {
+    InputStream in = Main.class.getClassLoader().getResourceAsStream(EXAMPLE_PROGRAM);
+    if (in == null) {
+      throw new FileNotFoundException(EXAMPLE_PROGRAM);
+    }
+    return in;
+  }
+
+  private static String readExample() throws IOException {
+    try (InputStream in = openExample()) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Run the interpreter server until the process is stopped
+   *
+   * @param socketPath Socket file to listen on, or - to serve a single client over standard input and output
+   */
+  private static void serve(String socketPath) {
+    InterpreterServer server = new InterpreterServer();
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    server.warmUp();
+    try {
+      if (socketPath.equals("-")) {
+        server.serve(new FileInputStream(FileDescriptor.in).getChannel(),
+            new FileOutputStream(FileDescriptor.out).getChannel());
+      } else {
+        System.err.println("Listening on " + socketPath);
+        server.serve(Paths.get(socketPath));
+      }
+    } catch (IOException | InvalidPathException e) {
+      System.err.println("Server failed: " + e.getMessage());
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+   * Run a program on an interpreter server, streaming its output to standard output
+   *
+   * @param socketPath Socket file of the server
+   * @param request    The program and its settings
+   */
+  private static void runOnServer(String socketPath, RunRequest request) {
+    try (InterpreterClient client = InterpreterClient.connect(Paths.get(socketPath))) {
+      ExecutionResult result = client.run(request, ChannelSink.stdout());
+      if (!result.isCompleted()) {
+        System.err.println("Program stopped: " + result);
+      }
+    } catch (IOException | InvalidPathException e) {
+      System.err.println("Failed to reach server at " + socketPath + ": " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      System.err.println("Server could not run the program: " + e.getMessage());
+    }
+  }
 }
@@ -0,0 +1,127 @@
+package com.github.wildtooth.lang;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes an application class-data sharing archive of the classes a launch of the interpreter loads, so later
+ * launches map them from the archive instead of loading and verifying them from the jar.
+ * <p>
+ * The JVM only dumps an archive at exit of a JVM started for it, so training runs a second JVM with
+ * {@code -XX:ArchiveClassesAtExit}, which runs a program through {@link Main} in the common modes, see
+ * {@link #main}. Class-data sharing needs the interpreter on the class path as a jar. The dictionary index needs no
+ * archiving, it is memory mapped already, and training extracts it from the jar so later launches map it directly.
+ */
+public final class StartupTrainer {
+  private static final String[][] MODES = {
+      {},
+      {"--jit"},
+      {"--no-tiered"},
+      {"--no-cache"},
+      {"--profile"},
+      {"--memory-type", "off_heap"},
+      {"--memory-type", "paged"},
+      {"--cell-bits", "16"},
+      {"--cell-bits", "32"},
+  };
+
+  private StartupTrainer() {
+  }
+
+  /**
+   * Train on a program and write the archive
+   *
+   * @param archive Path of the archive to write
+   * @param program Path of the program to run, or null for the bundled example, which is also used if no such file
+   *                exists
+   * @return true if the archive was written
+   */
+  public static boolean train(Path archive, String program) {
+    String classPath = System.getProperty("java.class.path");
+    for (String entry : classPath.split(File.pathSeparator)) {
+      if (!Files.isRegularFile(Paths.get(entry))) {
+        System.err.println("Class-data sharing needs the interpreter to run from a jar, not " + entry);
+        return false;
+      }
+    }
+
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath());
+    System.getProperties().stringPropertyNames().stream()
+        .filter(name -> name.startsWith("ord."))
+        .forEach(name -> command.add("-D" + name + "=" + System.getProperty(name)));
+    command.add("-cp");
+    command.add(classPath);
+    command.add(StartupTrainer.class.getName());
+
+    Path example = null;
+    try {
+      if (program == null || !Files.isRegularFile(Paths.get(program))) {
+        // The bundled example has no path of its own when it is packaged in the jar
+        example = Files.createTempFile("ord-train", ".ord");
+        try (InputStream in = StartupTrainer.class.getResourceAsStream("/HelloWorld.ord")) {
+          Files.copy(Objects.requireNonNull(in), example, StandardCopyOption.REPLACE_EXISTING);
+        }
+        program = example.toString();
+      }
+      command.add(program);
+
+      Files.deleteIfExists(archive);
+      Process process = new ProcessBuilder(command)
+          .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+          .redirectError(ProcessBuilder.Redirect.DISCARD)
+          .start();
+      // Programs reading input see its end
+      process.getOutputStream().close();
+      int exitCode = process.waitFor();
+      if (exitCode != 0 || !Files.isRegularFile(archive)) {
+        System.err.println("Training run failed with exit code " + exitCode);
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      System.err.println("Failed to start training run: " + e.getMessage());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      if (example != null) {
+        try {
+          Files.deleteIfExists(example);
+        } catch (IOException e) {
+          System.err.println("Failed to delete " + example);
+        }
+      }
+    }
+  }
+
+  /**
+   * Run a program once in every mode of {@link #MODES}, bounded so programs that never end still let the archive
+   * be written
+   *
+   * @param args The program to run
+   */
+  public static void main(String[] args) {
+    for (String[] mode : MODES) {
+      String[] mainArgs = new String[mode.length + 6];
+      System.arraycopy(mode, 0, mainArgs, 0, mode.length);
+      mainArgs[mode.length] = "--max-steps";
+      mainArgs[mode.length + 1] = "100000000";
+      mainArgs[mode.length + 2] = "--timeout";
+      mainArgs[mode.length + 3] = "10000";
+      mainArgs[mode.length + 4] = "--file";
+      mainArgs[mode.length + 5] = args[0];
+      Main.main(mainArgs);
+    }
+  }
+}
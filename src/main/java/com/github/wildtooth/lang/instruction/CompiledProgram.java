@@ -0,0 +1,214 @@
+package com.github.wildtooth.lang.instruction;
+
+import java.util.Arrays;
+
+/**
+ * A program resolved into flat primitive arrays.
+ * Every line is stored as one opcode and one precomputed signed operand, so executing a line never
+ * re-parses or re-lexes its words.
+ * <p>
+ * Fused instructions produced by the {@link PeepholeOptimizer} also carry a span: the number of consecutive lines
+ * they stand for. Fusing never removes lines, so line numbers and therefore jump targets stay the same; only
+ * {@link ControlFlowGraph#stripUnreachable()} removes lines, renumbering the lines after them. Counting loops
+ * found by the {@link LoopIdiomRecognizer} span their lines the same way and are described in a table of
+ * {@link CountingLoop}s. What each line does on its own is kept as well, see {@link #lineOpcodes()}, for runs that
+ * have to stop before the last line of a span.
+ * <p>
+ * Jump operands are stored as written and wrapped around the program length to find the target. Since neither
+ * changes once a program is compiled, the target of every jump is resolved once, on first use, see
+ * {@link #jumpTargets()}, and executors look it up instead of wrapping the operand on every taken jump.
+ */
+public final class CompiledProgram {
+  /**
+   * Target of a line that does not jump, see {@link #jumpTarget(int)}
+   */
+  public static final int NO_JUMP = Integer.MIN_VALUE;
+
+  private final byte[] opcodes;
+  private final int[] operands;
+  private final int[] spans;
+  private final CountingLoop[] countingLoops;
+  private final byte[] lineOpcodes;
+  private final int[] lineOperands;
+  private volatile int[] jumpTargets;
+
+  /**
+   * Creates a compiled program without fused instructions
+   *
+   * @param opcodes  Opcode per line, see {@link Opcode}
+   * @param operands Operand per line
+   */
+  public CompiledProgram(byte[] opcodes, int[] operands) {
+    this(opcodes, operands, singleLineSpans(opcodes.length));
+  }
+
+  /**
+   * Creates a compiled program
+   *
+   * @param opcodes  Opcode per line, see {@link Opcode}
+   * @param operands Operand per line
+   * @param spans    Number of lines covered by the instruction on each line
+   */
+  public CompiledProgram(byte[] opcodes, int[] operands, int[] spans) {
+    this(opcodes, operands, spans, new CountingLoop[0]);
+  }
+
+  /**
+   * Creates a compiled program with counting loops
+   *
+   * @param opcodes       Opcode per line, see {@link Opcode}
+   * @param operands      Operand per line
+   * @param spans         Number of lines covered by the instruction on each line
+   * @param countingLoops The loops {@link Opcode#COUNTING_LOOP} lines refer to by their operand
+   */
+  public CompiledProgram(byte[] opcodes, int[] operands, int[] spans, CountingLoop[] countingLoops) {
+    this(opcodes, operands, spans, countingLoops, opcodes, operands);
+  }
+
+  /**
+   * Creates a compiled program with counting loops, keeping what each line does on its own
+   *
+   * @param opcodes       Opcode per line, see {@link Opcode}
+   * @param operands      Operand per line
+   * @param spans         Number of lines covered by the instruction on each line
+   * @param countingLoops The loops {@link Opcode#COUNTING_LOOP} lines refer to by their operand
+   * @param lineOpcodes   Opcode of each line on its own, see {@link #lineOpcodes()}
+   * @param lineOperands  Operand of each line on its own
+   */
+  public CompiledProgram(byte[] opcodes, int[] operands, int[] spans, CountingLoop[] countingLoops,
+                         byte[] lineOpcodes, int[] lineOperands) {
+    if (opcodes.length != operands.length || opcodes.length != spans.length
+        || opcodes.length != lineOpcodes.length || opcodes.length != lineOperands.length) {
+      throw new IllegalArgumentException("Opcode, operand, span and line counts differ: " + opcodes.length + ", "
+          + operands.length + ", " + spans.length + ", " + lineOpcodes.length + ", " + lineOperands.length);
+    }
+    this.opcodes = opcodes;
+    this.operands = operands;
+    this.spans = spans;
+    this.countingLoops = countingLoops;
+    this.lineOpcodes = lineOpcodes;
+    this.lineOperands = lineOperands;
+  }
+
+  private static int[] singleLineSpans(int length) {
+    int[] spans = new int[length];
+    Arrays.fill(spans, 1);
+    return spans;
+  }
+
+  /**
+   * Get the number of lines in the program
+   *
+   * @return The number of lines
+   */
+  public int size() {
+    return opcodes.length;
+  }
+
+  /**
+   * Get the opcode array backing this program.
+   * The array is shared, callers must not modify it.
+   *
+   * @return The opcodes, one per line
+   */
+  public byte[] opcodes() {
+    return opcodes;
+  }
+
+  /**
+   * Get the operand array backing this program.
+   * The array is shared, callers must not modify it.
+   *
+   * @return The operands, one per line
+   */
+  public int[] operands() {
+    return operands;
+  }
+
+  /**
+   * Get the span array backing this program.
+   * The array is shared, callers must not modify it.
+   *
+   * @return The number of lines covered by the instruction on each line
+   */
+  public int[] spans() {
+    return spans;
+  }
+
+  /**
+   * Get the counting loops of the program, see {@link LoopIdiomRecognizer}. The array is shared, callers must not
+   * modify it.
+   *
+   * @return The loops, indexed by the operand of their {@link Opcode#COUNTING_LOOP} line
+   */
+  public CountingLoop[] countingLoops() {
+    return countingLoops;
+  }
+
+  /**
+   * Get the opcode of every line on its own, as it was before instructions were fused and counting loops replaced.
+   * It differs from {@link #opcodes()} on lines spanning more than one line only. A run that has to stop before the
+   * last line of a span, at a step limit, runs the first line of the span on its own instead. The array is shared,
+   * callers must not modify it.
+   *
+   * @return The opcodes of the lines on their own
+   */
+  public byte[] lineOpcodes() {
+    return lineOpcodes;
+  }
+
+  /**
+   * Get the operand of every line on its own, see {@link #lineOpcodes()}. The array is shared, callers must not
+   * modify it.
+   *
+   * @return The operands of the lines on their own
+   */
+  public int[] lineOperands() {
+    return lineOperands;
+  }
+
+  /**
+   * Get the line the jump on a line goes to. The target only depends on the line and its operand.
+   *
+   * @param line The line holding the jump
+   * @return The target line, which may lie outside the program, or {@link #NO_JUMP} if the line does not jump.
+   * A target past the last line ends the program, a negative one fails the run.
+   */
+  public int jumpTarget(int line) {
+    int length = opcodes.length;
+    int operand = operands[line];
+    switch (opcodes[line]) {
+      case Opcode.JUMP_TO_INSTRUCTION:
+      case Opcode.JUMP_IF_ZERO:
+      case Opcode.JUMP_IF_NOT_ZERO:
+        int jumpTo = operand % length;
+        return jumpTo < 0 ? jumpTo + length : jumpTo;
+      case Opcode.JUMP_BACK:
+        int jumpBack = line - operand;
+        return jumpBack < 0 ? jumpBack + length : jumpBack;
+      case Opcode.JUMP_FORWARD:
+        int jumpForward = line + operand;
+        return jumpForward >= length ? jumpForward - length : jumpForward;
+      default:
+        return NO_JUMP;
+    }
+  }
+
+  /**
+   * Get the target of every line, see {@link #jumpTarget(int)}. The targets are resolved on the first call.
+   * The array is shared, callers must not modify it.
+   *
+   * @return The target per line
+   */
+  public int[] jumpTargets() {
+    int[] targets = jumpTargets;
+    if (targets == null) {
+      targets = new int[opcodes.length];
+      for (int line = 0; line < targets.length; line++) {
+        targets[line] = jumpTarget(line);
+      }
+      jumpTargets = targets;
+    }
+    return targets;
+  }
+}
@@ -0,0 +1,549 @@
+package com.github.wildtooth.lang.instruction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Control-flow graph of a compiled program: its basic blocks, the loops among them and the lines that can never run.
+ * <p>
+ * A basic block is a run of lines that always executes from its first line on: it starts at line 0, at a jump target,
+ * after a jump or after a fused instruction, and ends with a jump or before the next such line. Fused instructions
+ * cover the lines of their run, see {@link PeepholeOptimizer}, so a block may end with one that skips past the block's
+ * last line to the first line of the next block. Every jump is resolved to its target line, see
+ * {@link CompiledProgram#jumpTarget(int)}. Targets outside the program, which end or fail the run, are exits.
+ * <p>
+ * Loops are found from the back edges of a depth-first search from line 0, an edge to a block still on the search
+ * stack. The loop of a back edge holds every block that reaches the edge's source without passing its header; back
+ * edges to the same header form one loop. In irreducible flow, a cycle that can be entered at several blocks is
+ * reported once, with the header the search entered it through.
+ * <p>
+ * Graphs are immutable and built in time linear in the size of the program.
+ */
+public final class ControlFlowGraph {
+  private final CompiledProgram program;
+  private final BasicBlock[] blocks;
+  private final int[] blockOfLine;
+  private final BitSet liveLines;
+  private final List<Loop> loops;
+
+  private ControlFlowGraph(CompiledProgram program, BasicBlock[] blocks, int[] blockOfLine, BitSet liveLines,
+                           List<Loop> loops) {
+    this.program = program;
+    this.blocks = blocks;
+    this.blockOfLine = blockOfLine;
+    this.liveLines = liveLines;
+    this.loops = loops;
+  }
+
+  /**
+   * Build the graph of a program
+   *
+   * @param program The program, with or without fused instructions
+   * @return The graph
+   */
+  public static ControlFlowGraph build(CompiledProgram program) {
+    byte[] opcodes = program.opcodes();
+    int[] spans = program.spans();
+    int[] targets = program.jumpTargets();
+    int length = program.size();
+
+    BitSet leaders = new BitSet(length);
+    if (length > 0) {
+      leaders.set(0);
+    }
+    for (int line = 0; line < length; line++) {
+      int target = targets[line];
+      if (target != CompiledProgram.NO_JUMP) {
+        if (target >= 0 && target < length) {
+          leaders.set(target);
+        }
+        if (line + 1 < length) {
+          leaders.set(line + 1);
+        }
+      } else if (spans[line] > 1 && line + spans[line] < length) {
+        leaders.set(line + spans[line]);
+      }
+    }
+
+    int[] blockOfLine = new int[length];
+    int blockCount = leaders.cardinality();
+    int[] starts = new int[blockCount + 1];
+    int block = 0;
+    for (int line = leaders.nextSetBit(0); line >= 0; line = leaders.nextSetBit(line + 1)) {
+      starts[block++] = line;
+    }
+    starts[blockCount] = length;
+    for (int i = 0; i < blockCount; i++) {
+      Arrays.fill(blockOfLine, starts[i], starts[i + 1], i);
+    }
+
+    // Successors, with -1 standing for leaving the program
+    int[][] successors = new int[blockCount][];
+    int[] lastLines = new int[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      int line = starts[i];
+      int last = line;
+      while (line < starts[i + 1]) {
+        last = line;
+        if (targets[line] != CompiledProgram.NO_JUMP) {
+          line = last + 1;
+          break;
+        }
+        line += spans[line];
+      }
+      lastLines[i] = last;
+
+      int target = targets[last];
+      int next = line < length ? blockOfLine[line] : -1;
+      if (target == CompiledProgram.NO_JUMP) {
+        successors[i] = new int[]{next};
+      } else {
+        int taken = target >= 0 && target < length ? blockOfLine[target] : -1;
+        boolean conditional = opcodes[last] == Opcode.JUMP_IF_ZERO || opcodes[last] == Opcode.JUMP_IF_NOT_ZERO;
+        successors[i] = conditional && taken != next ? new int[]{taken, next} : new int[]{taken};
+      }
+    }
+
+    // Reachability from line 0
+    boolean[] reachable = new boolean[blockCount];
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    if (blockCount > 0) {
+      reachable[0] = true;
+      queue.add(0);
+    }
+    while (!queue.isEmpty()) {
+      for (int successor : successors[queue.poll()]) {
+        if (successor >= 0 && !reachable[successor]) {
+          reachable[successor] = true;
+          queue.add(successor);
+        }
+      }
+    }
+
+    // Lines that run, including lines covered by fused instructions of reachable blocks
+    BitSet liveLines = new BitSet(length);
+    for (int i = 0; i < blockCount; i++) {
+      if (!reachable[i]) {
+        continue;
+      }
+      for (int line = starts[i]; line <= lastLines[i]; line += spans[line]) {
+        liveLines.set(line, Math.min(line + spans[line], length));
+      }
+    }
+
+    int[][] predecessors = predecessors(successors);
+    BasicBlock[] blocks = new BasicBlock[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      blocks[i] = new BasicBlock(i, starts[i], starts[i + 1], lastLines[i], successors[i], predecessors[i],
+          reachable[i]);
+    }
+    return new ControlFlowGraph(program, blocks, blockOfLine, liveLines, findLoops(successors, predecessors));
+  }
+
+  private static int[][] predecessors(int[][] successors) {
+    int[] counts = new int[successors.length];
+    for (int[] edges : successors) {
+      for (int successor : edges) {
+        if (successor >= 0) {
+          counts[successor]++;
+        }
+      }
+    }
+    int[][] predecessors = new int[successors.length][];
+    for (int i = 0; i < successors.length; i++) {
+      predecessors[i] = new int[counts[i]];
+      counts[i] = 0;
+    }
+    for (int i = 0; i < successors.length; i++) {
+      for (int successor : successors[i]) {
+        if (successor >= 0) {
+          predecessors[successor][counts[successor]++] = i;
+        }
+      }
+    }
+    return predecessors;
+  }
+
+  /**
+   * Find the natural loops of the back edges of an iterative depth-first search from block 0
+   */
+  private static List<Loop> findLoops(int[][] successors, int[][] predecessors) {
+    int blockCount = successors.length;
+    if (blockCount == 0) {
+      return Collections.emptyList();
+    }
+    byte[] state = new byte[blockCount]; // 0 unvisited, 1 on the stack, 2 done
+    int[] stack = new int[blockCount];
+    int[] nextEdge = new int[blockCount];
+    List<List<Integer>> latches = new ArrayList<>(Collections.nCopies(blockCount, null));
+    int depth = 0;
+    stack[depth++] = 0;
+    state[0] = 1;
+    while (depth > 0) {
+      int block = stack[depth - 1];
+      if (nextEdge[block] == successors[block].length) {
+        state[block] = 2;
+        depth--;
+        continue;
+      }
+      int successor = successors[block][nextEdge[block]++];
+      if (successor < 0) {
+        continue;
+      }
+      if (state[successor] == 0) {
+        state[successor] = 1;
+        stack[depth++] = successor;
+      } else if (state[successor] == 1) {
+        if (latches.get(successor) == null) {
+          latches.set(successor, new ArrayList<>());
+        }
+        latches.get(successor).add(block);
+      }
+    }
+
+    List<Loop> loops = new ArrayList<>();
+    for (int header = 0; header < blockCount; header++) {
+      List<Integer> headerLatches = latches.get(header);
+      if (headerLatches == null) {
+        continue;
+      }
+      BitSet body = new BitSet(blockCount);
+      body.set(header);
+      ArrayDeque<Integer> work = new ArrayDeque<>();
+      for (int latch : headerLatches) {
+        if (!body.get(latch)) {
+          body.set(latch);
+          work.add(latch);
+        }
+      }
+      while (!work.isEmpty()) {
+        for (int predecessor : predecessors[work.poll()]) {
+          if (!body.get(predecessor)) {
+            body.set(predecessor);
+            work.add(predecessor);
+          }
+        }
+      }
+      loops.add(new Loop(header, body, headerLatches.stream().mapToInt(Integer::intValue).toArray()));
+    }
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Get the program this graph was built from
+   *
+   * @return The program
+   */
+  public CompiledProgram getProgram() {
+    return program;
+  }
+
+  /**
+   * Get the basic blocks, ordered by their first line
+   *
+   * @return The blocks
+   */
+  public List<BasicBlock> getBlocks() {
+    return Collections.unmodifiableList(Arrays.asList(blocks));
+  }
+
+  /**
+   * Get the basic block a line belongs to
+   *
+   * @param line The line
+   * @return The block
+   */
+  public BasicBlock blockOf(int line) {
+    return blocks[blockOfLine[line]];
+  }
+
+  /**
+   * Get the loops, ordered by the first line of their header
+   *
+   * @return The loops
+   */
+  public List<Loop> getLoops() {
+    return loops;
+  }
+
+  /**
+   * Check whether a line can run. A line runs if its block is reachable from line 0, or if a fused instruction of a
+   * reachable block covers it.
+   *
+   * @param line The line
+   * @return true if the line can run
+   */
+  public boolean isReachable(int line) {
+    return liveLines.get(line);
+  }
+
+  /**
+   * Get the number of lines that can never run
+   *
+   * @return The number of unreachable lines
+   */
+  public int getUnreachableLineCount() {
+    return program.size() - liveLines.cardinality();
+  }
+
+  /**
+   * Remove every line that can never run. Jumps are rewritten to go to the same lines in the smaller program, and
+   * jumps that end or fail the run still do. Every run of the result executes the same instructions, with the same
+   * output and the same number of steps, but stops at renumbered lines.
+   * <p>
+   * Fused instructions are kept intact, but stripping before the {@link PeepholeOptimizer} lets it fuse the lines
+   * around removed ones.
+   *
+   * @return The program without unreachable lines, or the program itself if every line can run
+   */
+  public CompiledProgram stripUnreachable() {
+    int length = program.size();
+    int newLength = liveLines.cardinality();
+    if (newLength == length) {
+      return program;
+    }
+    int[] newLine = new int[length];
+    int next = 0;
+    for (int line = 0; line < length; line++) {
+      newLine[line] = next;
+      if (liveLines.get(line)) {
+        next++;
+      }
+    }
+
+    byte[] opcodes = new byte[newLength];
+    int[] operands = new int[newLength];
+    int[] spans = new int[newLength];
+    byte[] lineOpcodes = new byte[newLength];
+    int[] lineOperands = new int[newLength];
+    int[] targets = program.jumpTargets();
+    for (int line = liveLines.nextSetBit(0); line >= 0; line = liveLines.nextSetBit(line + 1)) {
+      int index = newLine[line];
+      opcodes[index] = program.opcodes()[line];
+      operands[index] = program.operands()[line];
+      spans[index] = program.spans()[line];
+      lineOpcodes[index] = program.lineOpcodes()[line];
+      lineOperands[index] = program.lineOperands()[line];
+      int target = targets[line];
+      if (target != CompiledProgram.NO_JUMP) {
+        // Past the end still ends the run, before the start still fails it
+        int newTarget = target >= length ? newLength : target < 0 ? -1 : newLine[target];
+        operands[index] = jumpOperand(opcodes[index], index, newTarget, newLength);
+        lineOperands[index] = operands[index];
+      }
+    }
+    return new CompiledProgram(opcodes, operands, spans, program.countingLoops(), lineOpcodes, lineOperands);
+  }
+
+  /**
+   * Encode a jump to a target line, which may be -1 or the program length, as the operand of a jump instruction
+   */
+  private static int jumpOperand(byte opcode, int line, int target, int length) {
+    switch (opcode) {
+      case Opcode.JUMP_BACK:
+        // The target is line - operand, wrapped once if negative
+        return target < 0 ? line + length + 1 : line - target;
+      case Opcode.JUMP_FORWARD:
+        // The target is line + operand, wrapped once if at least the length
+        return target >= length ? 2 * length - line : target - line;
+      default:
+        return target;
+    }
+  }
+
+  /**
+   * Export the graph in the DOT language of Graphviz. Every block lists its instructions, unreachable blocks are
+   * dashed and loop headers are drawn bold.
+   *
+   * @return The DOT source
+   */
+  public String toDot() {
+    StringBuilder dot = new StringBuilder("digraph program {\n");
+    dot.append("  node [shape=box, fontname=\"monospace\"];\n");
+    dot.append("  exit [shape=doublecircle, label=\"exit\"];\n");
+    BitSet headers = new BitSet(blocks.length);
+    for (Loop loop : loops) {
+      headers.set(loop.getHeader());
+    }
+    for (BasicBlock block : blocks) {
+      dot.append("  b").append(block.getIndex()).append(" [label=\"");
+      for (int line = block.getStart(); line <= block.getLastLine(); line += program.spans()[line]) {
+        dot.append(line).append(": ").append(Opcode.name(program.opcodes()[line])).append(' ')
+            .append(program.operands()[line]).append("\\l");
+      }
+      dot.append('"');
+      if (!block.isReachable()) {
+        dot.append(", style=dashed, color=gray");
+      } else if (headers.get(block.getIndex())) {
+        dot.append(", style=bold");
+      }
+      dot.append("];\n");
+    }
+    for (BasicBlock block : blocks) {
+      int[] successors = block.getSuccessors();
+      for (int i = 0; i < successors.length; i++) {
+        dot.append("  b").append(block.getIndex()).append(" -> ")
+            .append(successors[i] >= 0 ? "b" + successors[i] : "exit");
+        if (successors.length == 2) {
+          dot.append(i == 0 ? " [label=\"taken\"]" : " [label=\"not taken\", style=dotted]");
+        }
+        dot.append(";\n");
+      }
+    }
+    return dot.append("}\n").toString();
+  }
+
+  /**
+   * A run of lines that always executes from its first line on
+   */
+  public static final class BasicBlock {
+    private final int index;
+    private final int start;
+    private final int end;
+    private final int lastLine;
+    private final int[] successors;
+    private final int[] predecessors;
+    private final boolean reachable;
+
+    BasicBlock(int index, int start, int end, int lastLine, int[] successors, int[] predecessors,
+               boolean reachable) {
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.lastLine = lastLine;
+      this.successors = successors;
+      this.predecessors = predecessors;
+      this.reachable = reachable;
+    }
+
+    /**
+     * Get the index of the block in {@link #getBlocks()}
+     *
+     * @return The index
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Get the first line of the block
+     *
+     * @return The line
+     */
+    public int getStart() {
+      return start;
+    }
+
+    /**
+     * Get the line after the block, the first line of the next block or the program length
+     *
+     * @return The line
+     */
+    public int getEnd() {
+      return end;
+    }
+
+    /**
+     * Get the line of the last instruction that runs in the block, a jump or the instruction leaving the block
+     *
+     * @return The line
+     */
+    public int getLastLine() {
+      return lastLine;
+    }
+
+    /**
+     * Get the blocks control can continue in. For a conditional jump, the block jumped to comes first, then the
+     * block after it. -1 stands for leaving the program, by running past its last line or jumping outside of it.
+     *
+     * @return The indexes of the successors, shared
+     */
+    public int[] getSuccessors() {
+      return successors;
+    }
+
+    /**
+     * Get the blocks that can continue in this one
+     *
+     * @return The indexes of the predecessors, shared
+     */
+    public int[] getPredecessors() {
+      return predecessors;
+    }
+
+    /**
+     * Check whether the block can run
+     *
+     * @return true if the block is reachable from line 0
+     */
+    public boolean isReachable() {
+      return reachable;
+    }
+
+    @Override
+    public String toString() {
+      return "Block " + index + " (lines " + start + "-" + (end - 1) + ")";
+    }
+  }
+
+  /**
+   * A loop: a header block and the blocks that can get back to it without leaving the loop
+   */
+  public static final class Loop {
+    private final int header;
+    private final BitSet blocks;
+    private final int[] latches;
+
+    Loop(int header, BitSet blocks, int[] latches) {
+      this.header = header;
+      this.blocks = blocks;
+      this.latches = latches;
+    }
+
+    /**
+     * Get the block the loop is entered at
+     *
+     * @return The index of the header
+     */
+    public int getHeader() {
+      return header;
+    }
+
+    /**
+     * Get the blocks of the loop, including the header
+     *
+     * @return The indexes of the blocks
+     */
+    public BitSet getBlocks() {
+      return (BitSet) blocks.clone();
+    }
+
+    /**
+     * Get the blocks jumping back to the header
+     *
+     * @return The indexes of the latches, shared
+     */
+    public int[] getLatches() {
+      return latches;
+    }
+
+    /**
+     * Check whether a block belongs to the loop
+     *
+     * @param block The index of the block
+     * @return true if the block is part of the loop
+     */
+    public boolean contains(int block) {
+      return blocks.get(block);
+    }
+
+    @Override
+    public String toString() {
+      return "Loop at block " + header + " over " + blocks.cardinality() + " blocks";
+    }
+  }
+}
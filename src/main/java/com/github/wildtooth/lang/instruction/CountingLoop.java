@@ -0,0 +1,221 @@
+package com.github.wildtooth.lang.instruction;
+
+import com.github.wildtooth.lang.memory.Memory;
+
+/**
+ * A loop that counts a cell down to zero, recognized by the {@link LoopIdiomRecognizer}: a run of lines ending with
+ * an {@code l} back to its first line, where the lines only add to, subtract from and set cells around the pointer
+ * and leave the pointer where it was.
+ * <p>
+ * Each iteration adds the same amount to the cell at the pointer, the counter, and to the other cells or sets them.
+ * Since cells wrap around at their width, the number of iterations is the smallest {@code k >= 1} with
+ * {@code counter + k * delta = 0} modulo {@code 2^bits}, a linear congruence solved in a few multiplications, see
+ * {@link #iterations(int, int, int)}. The loop is then run in one go: the counter becomes zero, every added cell gets
+ * {@code k} times its amount and every set cell its final value.
+ * <p>
+ * A loop that never ends, or that would cross a step limit or checkpoint of its run, is run line by line instead, so
+ * runs stop where and as they would without the rewrite.
+ */
+public final class CountingLoop {
+  private final int length;
+  private final int counterDelta;
+  private final int headDelta;
+  private final int headMove;
+  private final int[] offsets;
+  private final boolean[] sets;
+  private final int[] values;
+  private final int reach;
+
+  /**
+   * Creates a counting loop
+   *
+   * @param length       Number of lines of the loop, including the jump back
+   * @param counterDelta Amount added to the counter per iteration
+   * @param headDelta    Amount the first line of the loop adds to the counter
+   * @param headMove     Distance the first line of the loop moves the pointer
+   * @param offsets      Distance from the counter of each other cell the loop changes
+   * @param sets         Whether the loop sets each cell rather than adding to it
+   * @param values       Amount added to each cell per iteration, or the value it is set to
+   */
+  CountingLoop(int length, int counterDelta, int headDelta, int headMove, int[] offsets, boolean[] sets,
+               int[] values) {
+    this.length = length;
+    this.counterDelta = counterDelta;
+    this.headDelta = headDelta;
+    this.headMove = headMove;
+    this.offsets = offsets;
+    this.sets = sets;
+    this.values = values;
+    int min = 0;
+    int max = 0;
+    for (int offset : offsets) {
+      min = Math.min(min, offset);
+      max = Math.max(max, offset);
+    }
+    this.reach = max - min;
+  }
+
+  /**
+   * Count the iterations of a loop adding a delta to a counter per iteration until it is zero. The loop always
+   * runs once, so a counter of zero takes a full cycle through all values the delta reaches.
+   *
+   * @param counter The counter before the loop
+   * @param delta   Amount added to the counter per iteration
+   * @param bits    Width of the counter
+   * @return The number of iterations, at most {@code 2^bits}, or 0 if the counter never becomes zero
+   */
+  public static long iterations(int counter, int delta, int bits) {
+    long mask = bits >= Integer.SIZE ? 0xFFFFFFFFL : (1L << bits) - 1;
+    long step = delta & mask;
+    long target = -(long) counter & mask;
+    if (step == 0) {
+      return target == 0 ? 1 : 0;
+    }
+    // step * k = target has a solution iff the power of two dividing the step also divides the target
+    int shift = Long.numberOfTrailingZeros(step);
+    if ((target & ((1L << shift) - 1)) != 0) {
+      return 0;
+    }
+    long odd = step >>> shift;
+    long inverse = odd; // correct to 3 bits, every Newton step doubles that
+    for (int i = 0; i < 5; i++) {
+      inverse *= 2 - odd * inverse;
+    }
+    long cycle = mask >>> shift;
+    long k = (target >>> shift) * inverse & cycle;
+    return k == 0 ? cycle + 1 : k;
+  }
+
+  /**
+   * Check whether running a loop in one go skips no checkpoint. The checkpoint is checked at every taken jump, that
+   * is at every iteration but the last.
+   *
+   * @param iterations Number of iterations of the loop
+   * @param length     Number of lines of the loop
+   * @param budget     Steps from the first jump back of the loop to the checkpoint
+   * @return true if no jump back of the loop reaches the checkpoint
+   */
+  public static boolean fits(long iterations, int length, long budget) {
+    return iterations == 1 || budget > 0 && iterations - 2 <= (budget - 1) / length;
+  }
+
+  /**
+   * Run the whole loop from its first line, if it ends and fits the budget
+   *
+   * @param memory The memory, with the pointer at the counter
+   * @param budget Steps from the first jump back of the loop to the checkpoint, see {@link #fits}
+   * @return The number of iterations run, or 0 if the loop has to be run line by line
+   */
+  public long run(Memory memory, long budget) {
+    int size = memory.size();
+    if (reach >= size) {
+      // Cells would overlap
+      return 0;
+    }
+    long iterations = iterations(memory.getCurrentCell(), counterDelta, memory.cellWidth().bits());
+    if (iterations == 0 || !fits(iterations, length, budget)) {
+      return 0;
+    }
+    int pointer = memory.getPointer();
+    for (int i = 0; i < offsets.length; i++) {
+      int address = Math.floorMod((long) pointer + offsets[i], size);
+      memory.setCell(address, sets[i] ? values[i] : memory.getCell(address) + (int) (values[i] * iterations));
+    }
+    memory.setCurrentCell(0);
+    return iterations;
+  }
+
+  /**
+   * Run the first line of the loop only, to go on line by line
+   *
+   * @param memory The memory
+   */
+  public void runHead(Memory memory) {
+    if (headMove != 0) {
+      memory.movePointer(headMove);
+    } else if (headDelta != 0) {
+      memory.setCurrentCell(memory.getCurrentCell() + headDelta);
+    }
+  }
+
+  /**
+   * Get the number of lines of the loop, including the jump back
+   *
+   * @return The length
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Get the amount added to the counter per iteration
+   *
+   * @return The delta
+   */
+  public int getCounterDelta() {
+    return counterDelta;
+  }
+
+  /**
+   * Get the amount the first line of the loop adds to the counter
+   *
+   * @return The delta
+   */
+  public int getHeadDelta() {
+    return headDelta;
+  }
+
+  /**
+   * Get the distance the first line of the loop moves the pointer
+   *
+   * @return The distance
+   */
+  public int getHeadMove() {
+    return headMove;
+  }
+
+  /**
+   * Get the distance from the counter of each other cell the loop changes
+   *
+   * @return The offsets, shared
+   */
+  public int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * Check whether the loop sets a cell rather than adding to it
+   *
+   * @param index Index of the cell in {@link #getOffsets()}
+   * @return true if the cell is set
+   */
+  public boolean sets(int index) {
+    return sets[index];
+  }
+
+  /**
+   * Get the amount added to a cell per iteration, or the value it is set to
+   *
+   * @param index Index of the cell in {@link #getOffsets()}
+   * @return The value
+   */
+  public int getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * Get the distance between the lowest and the highest cell the loop touches. The loop is only run in one go on
+   * memories with more cells, where no two of its cells are the same.
+   *
+   * @return The reach
+   */
+  public int getReach() {
+    return reach;
+  }
+
+  @Override
+  public String toString() {
+    return "Counting loop of " + length + " lines, counter " + (counterDelta >= 0 ? "+" : "") + counterDelta
+        + ", " + offsets.length + " other cells";
+  }
+}
@@ -1,5 +1,7 @@
 package com.github.wildtooth.lang.instruction;
 
+import java.util.Arrays;
+
 /**
  * Enumeration of all supported language instructions
  */
@@ -26,10 +28,27 @@ public enum Instruction {
   PRINT_VALUE('s', "Print numeric value at current memory address"),
   PRINT_ASCII_MEM_TABLE('v', "Print all memory as ASCII characters"),
   PRINT_VALUE_MEM_TABLE('w', "Print all memory as numeric values"),
+  PRINT_BYTE('o', "Write current memory cell as a raw byte"),
+
+  // Input operations. Lines starting with i, o or t did nothing before these letters were assigned, see
+  // documentation.md for upgrading older programs.
+  READ_BYTE('i', "Read a byte of input into current memory cell, 0 at end of input"),
+  TEST_END_OF_INPUT('t', "Set current memory cell to 1 if input has ended, 0 otherwise"),
 
   // Special - No Operation - Might as well be a comment
   UNSPECIFIED('\0', "Unspecified instruction");
 
+  private static final Instruction[] BY_LETTER = new Instruction['z' - 'a' + 1];
+
+  static {
+    Arrays.fill(BY_LETTER, UNSPECIFIED);
+    for (Instruction instruction : values()) {
+      if (instruction != UNSPECIFIED) {
+        BY_LETTER[instruction.letter - 'a'] = instruction;
+      }
+    }
+  }
+
   private final char letter;
   private final String description;
 
@@ -55,11 +74,9 @@ public enum Instruction {
    */
   public static Instruction fromLetter(char letter) {
     char lowerCase = Character.toLowerCase(letter);
-    for (Instruction instruction : values()) {
-      if (instruction.letter == lowerCase) {
-        return instruction;
-      }
+    if (lowerCase < 'a' || lowerCase > 'z') {
+      return UNSPECIFIED;
     }
-    return UNSPECIFIED;
+    return BY_LETTER[lowerCase - 'a'];
   }
 }
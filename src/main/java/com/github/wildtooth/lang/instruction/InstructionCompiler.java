@@ -0,0 +1,66 @@
+package com.github.wildtooth.lang.instruction;
+
+import com.github.wildtooth.lang.lex.LexCalculator;
+
+import java.util.ArrayList;
+
+/**
+ * Resolves the words of a line into an opcode and an operand.
+ * The first word of a line decides the opcode and always contributes a positive value, every following word
+ * contributes a negative value if its length is odd.
+ */
+public final class InstructionCompiler {
+
+  private InstructionCompiler() {
+  }
+
+  /**
+   * Determine the opcode of a line from its first word
+   *
+   * @param firstWord The first word of the line
+   * @return The opcode
+   */
+  public static byte compileOpcode(String firstWord) {
+    if (firstWord.isEmpty()) {
+      return Opcode.NOP;
+    }
+    return compileOpcode(firstWord.charAt(0));
+  }
+
+  /**
+   * Determine the opcode of a line from the first character of its first word
+   *
+   * @param firstChar The first character of the line
+   * @return The opcode
+   */
+  public static byte compileOpcode(char firstChar) {
+    return Opcode.of(Instruction.fromLetter(firstChar));
+  }
+
+  /**
+   * Calculate the signed operand of a line
+   *
+   * @param words The words of the line
+   * @return The operand
+   */
+  public static int compileOperand(ArrayList<String> words) {
+    int operand = LexCalculator.calculateLexValue(words.get(0));
+    for (int i = 1; i < words.size(); i++) {
+      operand += signedWordValue(words.get(i), 0, words.get(i).length());
+    }
+    return operand;
+  }
+
+  /**
+   * Calculate the contribution of a word that is not the first on its line
+   *
+   * @param chars The characters to read from
+   * @param start Start of the word, inclusive
+   * @param end   End of the word, exclusive
+   * @return The lex value of the word, negated if the word has an odd length
+   */
+  public static int signedWordValue(CharSequence chars, int start, int end) {
+    int value = LexCalculator.calculateLexValue(chars, start, end);
+    return (end - start) % 2 == 0 ? value : -value;
+  }
+}
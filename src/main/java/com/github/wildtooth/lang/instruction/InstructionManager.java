@@ -1,17 +1,48 @@
 package com.github.wildtooth.lang.instruction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
- * Manages the program's instructions, providing storage and retrieval capabilities
+ * Manages the program's instructions, providing storage and retrieval capabilities.
+ * Instructions are stored in their compiled form, one opcode and one operand per line. The source words are only
+ * kept when requested, e.g. for debug tracing.
  */
 public final class InstructionManager {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private byte[] opcodes;
+  private int[] operands;
+  private int size;
   private final ArrayList<ArrayList<String>> instructions;
+  private boolean retainSource = false;
+  private int modificationCount = 0;
 
   public InstructionManager() {
+    this.opcodes = new byte[INITIAL_CAPACITY];
+    this.operands = new int[INITIAL_CAPACITY];
     this.instructions = new ArrayList<>();
   }
 
+  /**
+   * Set whether the source words of instructions added from now on should be kept
+   *
+   * @param retainSource true to keep source words, false otherwise
+   */
+  public void setRetainSource(boolean retainSource) {
+    this.retainSource = retainSource;
+  }
+
+  /**
+   * Check whether source words are kept for added instructions
+   *
+   * @return true if source words are kept, false otherwise
+   */
+  public boolean isRetainingSource() {
+    return retainSource;
+  }
+
   /**
    * Adds an instruction to the program
    *
@@ -19,25 +50,192 @@ public final class InstructionManager {
    */
   public void addInstruction(ArrayList<String> instruction) {
     if (instruction != null && !instruction.isEmpty()) {
-      instructions.add(instruction);
+      addInstruction(InstructionCompiler.compileOpcode(instruction.get(0)),
+          InstructionCompiler.compileOperand(instruction), instruction);
+    }
+  }
+
+  /**
+   * Adds an already compiled instruction to the program
+   *
+   * @param opcode  The opcode of the instruction, see {@link Opcode}
+   * @param operand The operand of the instruction
+   */
+  public void addInstruction(byte opcode, int operand) {
+    addInstruction(opcode, operand, null);
+  }
+
+  /**
+   * Adds an already compiled instruction to the program, together with the words it was compiled from
+   *
+   * @param opcode  The opcode of the instruction, see {@link Opcode}
+   * @param operand The operand of the instruction
+   * @param source  The source words, only stored if source words are retained
+   */
+  public void addInstruction(byte opcode, int operand, ArrayList<String> source) {
+    if (size == opcodes.length) {
+      grow(size + 1);
+    }
+    opcodes[size] = opcode;
+    operands[size] = operand;
+    size++;
+    modificationCount++;
+    if (retainSource) {
+      padSource(size - 1);
+      instructions.add(source != null ? source : new ArrayList<>());
     }
   }
 
+  /**
+   * Inserts an already compiled instruction, moving the instructions from that index on down by one
+   *
+   * @param index   Index the instruction will have, from 0 to {@link #size()}
+   * @param opcode  The opcode of the instruction, see {@link Opcode}
+   * @param operand The operand of the instruction
+   * @param source  The source words, only stored if source words are retained
+   */
+  public void insertInstruction(int index, byte opcode, int operand, ArrayList<String> source) {
+    Objects.checkIndex(index, size + 1);
+    if (size == opcodes.length) {
+      grow(size + 1);
+    }
+    System.arraycopy(opcodes, index, opcodes, index + 1, size - index);
+    System.arraycopy(operands, index, operands, index + 1, size - index);
+    opcodes[index] = opcode;
+    operands[index] = operand;
+    size++;
+    modificationCount++;
+    if (retainSource) {
+      padSource(index);
+    }
+    if (index <= instructions.size() && (retainSource || index < instructions.size())) {
+      instructions.add(index, source != null && retainSource ? source : new ArrayList<>());
+    }
+  }
+
+  /**
+   * Replaces an instruction with an already compiled one
+   *
+   * @param index   Index of the instruction to replace
+   * @param opcode  The opcode of the instruction, see {@link Opcode}
+   * @param operand The operand of the instruction
+   * @param source  The source words, only stored if source words are retained
+   */
+  public void setInstruction(int index, byte opcode, int operand, ArrayList<String> source) {
+    Objects.checkIndex(index, size);
+    opcodes[index] = opcode;
+    operands[index] = operand;
+    modificationCount++;
+    if (retainSource) {
+      padSource(index + 1);
+      instructions.set(index, source != null ? source : new ArrayList<>());
+    } else if (index < instructions.size()) {
+      instructions.set(index, new ArrayList<>());
+    }
+  }
+
+  /**
+   * Removes an instruction, moving the instructions after it up by one
+   *
+   * @param index Index of the instruction to remove
+   */
+  public void removeInstruction(int index) {
+    Objects.checkIndex(index, size);
+    System.arraycopy(opcodes, index + 1, opcodes, index, size - index - 1);
+    System.arraycopy(operands, index + 1, operands, index, size - index - 1);
+    size--;
+    modificationCount++;
+    if (index < instructions.size()) {
+      instructions.remove(index);
+    }
+  }
+
+  /**
+   * Pad lines that were added while source retention was off, so indices keep lining up
+   */
+  private void padSource(int length) {
+    while (instructions.size() < length) {
+      instructions.add(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Adds every line of an unoptimized program, without source words
+   *
+   * @param program The program to append
+   */
+  public void addInstructions(CompiledProgram program) {
+    int length = program.size();
+    if (size + length > opcodes.length) {
+      grow(size + length);
+    }
+    System.arraycopy(program.opcodes(), 0, opcodes, size, length);
+    System.arraycopy(program.operands(), 0, operands, size, length);
+    size += length;
+    modificationCount++;
+  }
+
+  private void grow(int minCapacity) {
+    int capacity = Math.max(opcodes.length * 2, minCapacity);
+    opcodes = Arrays.copyOf(opcodes, capacity);
+    operands = Arrays.copyOf(operands, capacity);
+  }
+
+  /**
+   * Remove all instructions, keeping the allocated storage
+   */
+  public void clear() {
+    size = 0;
+    modificationCount++;
+    instructions.clear();
+  }
+
+  /**
+   * Get a counter that changes whenever instructions are added, changed or removed, e.g. to tell whether a compiled
+   * program is still up to date
+   *
+   * @return The modification count
+   */
+  public int getModificationCount() {
+    return modificationCount;
+  }
+
   /**
    * Get the number of instructions in the program
    *
    * @return The number of instructions
    */
   public int size() {
-    return instructions.size();
+    return size;
   }
 
   /**
-   * Get all instructions
+   * Get the source words of all instructions.
+   * Lines are only available if source words were retained when they were added.
    *
-   * @return A defensive copy of all instructions
+   * @return A defensive copy of all retained instructions
    */
   public ArrayList<ArrayList<String>> getInstructions() {
     return new ArrayList<>(instructions);
   }
+
+  /**
+   * Compile the current instructions into an immutable program
+   *
+   * @return The compiled program
+   */
+  public CompiledProgram compile() {
+    return compile(0);
+  }
+
+  /**
+   * Compile the instructions from a line on into an immutable program, e.g. to capture what one load added
+   *
+   * @param fromLine The first line to include
+   * @return The compiled program
+   */
+  public CompiledProgram compile(int fromLine) {
+    return new CompiledProgram(Arrays.copyOfRange(opcodes, fromLine, size),
+        Arrays.copyOfRange(operands, fromLine, size));
+  }
 }
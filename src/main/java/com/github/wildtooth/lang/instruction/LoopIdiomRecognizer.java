@@ -0,0 +1,154 @@
+package com.github.wildtooth.lang.instruction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces loops that count a cell down to zero with a single {@link Opcode#COUNTING_LOOP}, see
+ * {@link CountingLoop}.
+ * <p>
+ * A loop qualifies if it ends with an {@code l} back to its first line, its other lines are {@code a}, {@code b},
+ * {@code c}, {@code f}, {@code g} or do nothing, the pointer is back where it started at the {@code l}, and the cell
+ * there, the counter, is only added to. That covers clearing a cell, counting it down by any step and moving or
+ * copying it into other cells, multiplied by a constant. Its first line must add to the counter, move the pointer or do
+ * nothing, so it can still be run on its own.
+ * <p>
+ * As with the {@link PeepholeOptimizer}, no line is removed: the first line of the loop is replaced and spans the
+ * whole loop, while the lines after it stay as they are, for jumps into the loop and for running it line by line.
+ */
+public final class LoopIdiomRecognizer {
+  /**
+   * Largest distance from the counter a loop may reach, so offsets never overflow
+   */
+  private static final int MAX_REACH = 1 << 20;
+
+  private LoopIdiomRecognizer() {
+  }
+
+  /**
+   * Replace every counting loop of a program
+   *
+   * @param program The program, with or without fused instructions
+   * @return The program with counting loops, or the same program if none was found
+   */
+  public static CompiledProgram rewrite(CompiledProgram program) {
+    byte[] sourceOpcodes = program.opcodes();
+    int[] targets = program.jumpTargets();
+    int length = program.size();
+
+    byte[] opcodes = null;
+    int[] operands = null;
+    int[] spans = null;
+    List<CountingLoop> loops = new ArrayList<>(Arrays.asList(program.countingLoops()));
+    for (int last = 0; last < length; last++) {
+      int head = targets[last];
+      if (sourceOpcodes[last] != Opcode.JUMP_IF_NOT_ZERO || head >= last) {
+        continue;
+      }
+      // The lines of a counting loop hold no jump, so no two loops found here overlap
+      CountingLoop loop = recognize(program, head, last);
+      if (loop == null) {
+        continue;
+      }
+      if (opcodes == null) {
+        opcodes = sourceOpcodes.clone();
+        operands = program.operands().clone();
+        spans = program.spans().clone();
+      }
+      opcodes[head] = Opcode.COUNTING_LOOP;
+      operands[head] = loops.size();
+      spans[head] = last - head + 1;
+      loops.add(loop);
+    }
+    return opcodes != null ? new CompiledProgram(opcodes, operands, spans, loops.toArray(new CountingLoop[0]),
+        program.lineOpcodes(), program.lineOperands()) : program;
+  }
+
+  /**
+   * Describe the loop from a line up to the {@code l} jumping back to it, if it is a counting loop
+   *
+   * @return The loop, or null if it is not a counting loop
+   */
+  private static CountingLoop recognize(CompiledProgram program, int head, int last) {
+    byte[] opcodes = program.opcodes();
+    int[] operands = program.operands();
+    int[] spans = program.spans();
+
+    int headDelta = 0;
+    int headMove = 0;
+    switch (opcodes[head]) {
+      case Opcode.ADD:
+        headDelta = operands[head];
+        break;
+      case Opcode.SUBTRACT:
+        headDelta = -operands[head];
+        break;
+      case Opcode.MOVE_POINTER_FORWARD:
+        headMove = 1;
+        break;
+      case Opcode.MOVE_POINTER_BACK:
+        headMove = -1;
+        break;
+      case Opcode.NOP:
+        break;
+      default:
+        return null;
+    }
+
+    // Per offset from the counter: whether the cell is set, and the amount added or the value set
+    Map<Integer, int[]> cells = new LinkedHashMap<>();
+    long offset = 0;
+    int line = head;
+    while (line < last) {
+      int operand = operands[line];
+      switch (opcodes[line]) {
+        case Opcode.ADD:
+        case Opcode.FUSED_ADD:
+          cells.computeIfAbsent((int) offset, key -> new int[2])[1] += operand;
+          break;
+        case Opcode.SUBTRACT:
+          cells.computeIfAbsent((int) offset, key -> new int[2])[1] -= operand;
+          break;
+        case Opcode.SET:
+        case Opcode.FUSED_SET:
+          cells.put((int) offset, new int[]{1, operand});
+          break;
+        case Opcode.MOVE_POINTER_FORWARD:
+          offset++;
+          break;
+        case Opcode.MOVE_POINTER_BACK:
+          offset--;
+          break;
+        case Opcode.MOVE_POINTER_BY:
+          offset += operand;
+          break;
+        case Opcode.NOP:
+          break;
+        default:
+          return null;
+      }
+      if (Math.abs(offset) > MAX_REACH) {
+        return null;
+      }
+      line += spans[line];
+    }
+    int[] counter = cells.remove(0);
+    if (line != last || offset != 0 || counter == null || counter[0] != 0) {
+      return null;
+    }
+
+    int[] offsets = new int[cells.size()];
+    boolean[] sets = new boolean[cells.size()];
+    int[] values = new int[cells.size()];
+    int i = 0;
+    for (Map.Entry<Integer, int[]> cell : cells.entrySet()) {
+      offsets[i] = cell.getKey();
+      sets[i] = cell.getValue()[0] != 0;
+      values[i++] = cell.getValue()[1];
+    }
+    return new CountingLoop(last - head + 1, counter[1], headDelta, headMove, offsets, sets, values);
+  }
+}
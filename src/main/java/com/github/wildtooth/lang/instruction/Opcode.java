@@ -0,0 +1,145 @@
+package com.github.wildtooth.lang.instruction;
+
+import java.util.Arrays;
+
+/**
+ * Numeric opcodes used by compiled programs.
+ * Each opcode corresponds to one {@link Instruction}, so the execution loop can dispatch over a plain byte array.
+ */
+public final class Opcode {
+  public static final byte NOP = 0;
+  public static final byte ADD = 1;
+  public static final byte SUBTRACT = 2;
+  public static final byte SET = 3;
+  public static final byte MOVE_POINTER_TO = 4;
+  public static final byte MOVE_POINTER_FORWARD = 5;
+  public static final byte MOVE_POINTER_BACK = 6;
+  public static final byte JUMP_TO_INSTRUCTION = 7;
+  public static final byte JUMP_IF_ZERO = 8;
+  public static final byte JUMP_IF_NOT_ZERO = 9;
+  public static final byte JUMP_BACK = 10;
+  public static final byte JUMP_FORWARD = 11;
+  public static final byte PRINT_ASCII_AT = 12;
+  public static final byte PRINT_VALUE_AT = 13;
+  public static final byte PRINT_ASCII = 14;
+  public static final byte PRINT_VALUE = 15;
+  public static final byte PRINT_ASCII_MEM_TABLE = 16;
+  public static final byte PRINT_VALUE_MEM_TABLE = 17;
+
+  // Fused instructions, only produced by the PeepholeOptimizer. They cover the number of lines given by their span.
+  public static final byte MOVE_POINTER_BY = 18;
+  public static final byte FUSED_ADD = 19;
+  public static final byte FUSED_SET = 20;
+
+  // Counting loop, only produced by the LoopIdiomRecognizer. Its operand indexes CompiledProgram#countingLoops().
+  public static final byte COUNTING_LOOP = 21;
+
+  // Input and raw output, numbered after the fused instructions so the opcodes of existing programs stay the same
+  public static final byte PRINT_BYTE = 22;
+  public static final byte READ_BYTE = 23;
+  public static final byte TEST_END_OF_INPUT = 24;
+
+  /**
+   * Number of distinct opcodes, every opcode is below this value
+   */
+  public static final int COUNT = TEST_END_OF_INPUT + 1;
+
+  private static final Instruction[] INSTRUCTIONS = new Instruction[COUNT];
+
+  static {
+    Arrays.fill(INSTRUCTIONS, Instruction.UNSPECIFIED);
+    for (Instruction instruction : Instruction.values()) {
+      INSTRUCTIONS[of(instruction)] = instruction;
+    }
+  }
+
+  private Opcode() {
+  }
+
+  /**
+   * Get the instruction an opcode was compiled from
+   *
+   * @param opcode The opcode to decode
+   * @return The matching instruction, or UNSPECIFIED if the opcode has no direct instruction
+   */
+  public static Instruction toInstruction(byte opcode) {
+    if (opcode < 0 || opcode >= INSTRUCTIONS.length) {
+      return Instruction.UNSPECIFIED;
+    }
+    return INSTRUCTIONS[opcode];
+  }
+
+  /**
+   * Get a readable name for an opcode
+   *
+   * @param opcode The opcode to name
+   * @return The name of its instruction, or the name of the fused instruction
+   */
+  public static String name(byte opcode) {
+    switch (opcode) {
+      case MOVE_POINTER_BY:
+        return "MOVE_POINTER_BY";
+      case FUSED_ADD:
+        return "FUSED_ADD";
+      case FUSED_SET:
+        return "FUSED_SET";
+      case COUNTING_LOOP:
+        return "COUNTING_LOOP";
+      default:
+        return toInstruction(opcode).name();
+    }
+  }
+
+  /**
+   * Get the opcode for an instruction
+   *
+   * @param instruction The instruction to encode
+   * @return The matching opcode, or NOP for unspecified instructions
+   */
+  public static byte of(Instruction instruction) {
+    switch (instruction) {
+      case ADD:
+        return ADD;
+      case SUBTRACT:
+        return SUBTRACT;
+      case SET:
+        return SET;
+      case MOVE_POINTER_TO:
+        return MOVE_POINTER_TO;
+      case MOVE_POINTER_FORWARD:
+        return MOVE_POINTER_FORWARD;
+      case MOVE_POINTER_BACK:
+        return MOVE_POINTER_BACK;
+      case JUMP_TO_INSTRUCTION:
+        return JUMP_TO_INSTRUCTION;
+      case JUMP_IF_ZERO:
+        return JUMP_IF_ZERO;
+      case JUMP_IF_NOT_ZERO:
+        return JUMP_IF_NOT_ZERO;
+      case JUMP_BACK:
+        return JUMP_BACK;
+      case JUMP_FORWARD:
+        return JUMP_FORWARD;
+      case PRINT_ASCII_AT:
+        return PRINT_ASCII_AT;
+      case PRINT_VALUE_AT:
+        return PRINT_VALUE_AT;
+      case PRINT_ASCII:
+        return PRINT_ASCII;
+      case PRINT_VALUE:
+        return PRINT_VALUE;
+      case PRINT_ASCII_MEM_TABLE:
+        return PRINT_ASCII_MEM_TABLE;
+      case PRINT_VALUE_MEM_TABLE:
+        return PRINT_VALUE_MEM_TABLE;
+      case PRINT_BYTE:
+        return PRINT_BYTE;
+      case READ_BYTE:
+        return READ_BYTE;
+      case TEST_END_OF_INPUT:
+        return TEST_END_OF_INPUT;
+      default:
+        return NOP;
+    }
+  }
+}
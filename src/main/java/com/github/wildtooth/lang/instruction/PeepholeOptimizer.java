@@ -0,0 +1,134 @@
+package com.github.wildtooth.lang.instruction;
+
+/**
+ * Folds runs of simple instructions into fused instructions.
+ * <p>
+ * Supported runs:
+ * <ul>
+ *   <li>{@code f}/{@code g} lines become one {@link Opcode#MOVE_POINTER_BY} by the net distance</li>
+ *   <li>{@code a}/{@code b} lines become one {@link Opcode#FUSED_ADD} of the net amount</li>
+ *   <li>{@code a}/{@code b} lines after a {@code c} become one {@link Opcode#FUSED_SET} of the final value</li>
+ * </ul>
+ * Lines that do nothing are absorbed into the run around them.
+ * <p>
+ * Lines are never removed. The fused instruction is placed on the first line of a run and skips the rest of it,
+ * while every later line of the run holds the fused form of the run from that line on. A jump landing in the middle
+ * of a run therefore still executes exactly the remaining lines, and all line numbers stay the same. What each line
+ * did before is kept in {@link CompiledProgram#lineOpcodes()}, for runs whose step budget ends inside a run.
+ * <p>
+ * Loops counting a cell down to zero are replaced first, see {@link LoopIdiomRecognizer}, so their lines are fused
+ * for the iterations that are still run line by line.
+ */
+public final class PeepholeOptimizer {
+  private static final int NO_RUN = 0;
+  private static final int CELL_RUN = 1;
+  private static final int POINTER_RUN = 2;
+
+  private PeepholeOptimizer() {
+  }
+
+  /**
+   * Optimize a compiled program
+   *
+   * @param program The program to optimize
+   * @return The optimized program, or the same program if nothing could be fused
+   */
+  public static CompiledProgram optimize(CompiledProgram program) {
+    program = LoopIdiomRecognizer.rewrite(program);
+    byte[] sourceOpcodes = program.opcodes();
+    int[] sourceOperands = program.operands();
+    int length = program.size();
+
+    byte[] opcodes = sourceOpcodes.clone();
+    int[] operands = sourceOperands.clone();
+    int[] spans = program.spans().clone();
+    boolean changed = false;
+
+    // Walk backwards so every line can build on the already folded run that follows it
+    int runKind = NO_RUN;
+    boolean runSets = false; // whether the folded run from the next line on ends up setting the cell
+    int runValue = 0;        // net add, set value or pointer distance of the folded run from the next line on
+    int runSpan = 0;
+    boolean runHasWork = false;
+
+    for (int line = length - 1; line >= 0; line--) {
+      byte opcode = sourceOpcodes[line];
+      int operand = sourceOperands[line];
+      int kind = kindOf(opcode);
+
+      if (kind == NO_RUN) {
+        runKind = NO_RUN;
+        runSpan = 0;
+        runHasWork = false;
+        continue;
+      }
+      if (opcode == Opcode.NOP) {
+        if (runKind == NO_RUN) {
+          runSpan = 0;
+          runHasWork = false;
+          continue;
+        }
+      } else if (kind != runKind) {
+        // Start a new run of this kind
+        runKind = kind;
+        runSets = false;
+        runValue = 0;
+        runSpan = 0;
+        runHasWork = false;
+      }
+
+      switch (opcode) {
+        case Opcode.ADD:
+          if (!runSets) {
+            runValue += operand;
+          }
+          break;
+        case Opcode.SUBTRACT:
+          if (!runSets) {
+            runValue -= operand;
+          }
+          break;
+        case Opcode.SET:
+          runValue = runSets ? runValue : operand + runValue;
+          runSets = true;
+          break;
+        case Opcode.MOVE_POINTER_FORWARD:
+          runValue++;
+          break;
+        case Opcode.MOVE_POINTER_BACK:
+          runValue--;
+          break;
+        default:
+          break;
+      }
+      runSpan++;
+      runHasWork |= opcode != Opcode.NOP;
+
+      if (runSpan > 1 && runHasWork) {
+        opcodes[line] = runKind == POINTER_RUN ? Opcode.MOVE_POINTER_BY : runSets ? Opcode.FUSED_SET : Opcode.FUSED_ADD;
+        operands[line] = runValue;
+        spans[line] = runSpan;
+        changed = true;
+      }
+    }
+
+    return changed ? new CompiledProgram(opcodes, operands, spans, program.countingLoops(), program.lineOpcodes(),
+        program.lineOperands()) : program;
+  }
+
+  private static int kindOf(byte opcode) {
+    switch (opcode) {
+      case Opcode.ADD:
+      case Opcode.SUBTRACT:
+      case Opcode.SET:
+        return CELL_RUN;
+      case Opcode.MOVE_POINTER_FORWARD:
+      case Opcode.MOVE_POINTER_BACK:
+        return POINTER_RUN;
+      case Opcode.NOP:
+        return -1;
+      default:
+        return NO_RUN;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.io.MemorySink;
+import com.github.wildtooth.lang.memory.Memory;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Runs one compiled program many times concurrently, each run in its own {@link ExecutionContext}.
+ * <p>
+ * A {@link CompiledProgram} is immutable and the {@link ProgramExecutor} keeps no state, so runs share nothing but
+ * the program itself and scale with the number of cores. Contexts must not be shared between runs.
+ * <p>
+ * By default runs are spread over a work-stealing pool with one thread per core. {@link #withVirtualThreads()}
+ * uses one virtual thread per run instead when the JVM supports them.
+ */
+public final class BatchExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates a batch executor with one worker per available core
+     */
+    public BatchExecutor() {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * Creates a batch executor running on an existing executor service, which is not shut down on {@link #close()}
+     *
+     * @param executor The executor service to submit runs to
+     */
+    public BatchExecutor(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private BatchExecutor(ExecutorService executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates a batch executor starting a virtual thread per run.
+     * Virtual threads need Java 21, on older runtimes this falls back to a pool with one worker per core.
+     *
+     * @return The batch executor
+     */
+    public static BatchExecutor withVirtualThreads() {
+        try {
+            ExecutorService executor = (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return new BatchExecutor(executor, true);
+        } catch (ReflectiveOperationException e) {
+            return new BatchExecutor();
+        }
+    }
+
+    /**
+     * Runs a program once in every given context and waits for all runs to finish
+     *
+     * @param program  The program to run
+     * @param contexts One independent context per run
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if any run failed, carrying the first failure; all other runs still complete
+     */
+    public void executeAll(CompiledProgram program, List<ExecutionContext> contexts)
+            throws InterruptedException, ExecutionException {
+        executeAll(program, contexts, ExecutionLimits.none());
+    }
+
+    /**
+     * Runs a program once in every given context, each run bounded by the same limits, and waits for all runs
+     * to finish. A shared cancellation token stops the whole batch.
+     *
+     * @param program  The program to run
+     * @param contexts One independent context per run
+     * @param limits   Bounds on each run
+     * @return The result of each run, in context order
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if any run failed, carrying the first failure; all other runs still complete
+     */
+    public List<ExecutionResult> executeAll(CompiledProgram program, List<ExecutionContext> contexts,
+                                            ExecutionLimits limits) throws InterruptedException, ExecutionException {
+        List<Callable<ExecutionResult>> runs = new ArrayList<>(contexts.size());
+        for (ExecutionContext context : contexts) {
+            runs.add(() -> ProgramExecutor.execute(program, context, limits));
+        }
+        return awaitAll(executor.invokeAll(runs));
+    }
+
+    /**
+     * Runs a program a number of times, each run on fresh memory, and collects the output of every run. Runs get no
+     * input, programs reading it see the end of the input straight away.
+     *
+     * @param program       The program to run
+     * @param runs          Number of runs
+     * @param memoryFactory Creates the memory for each run
+     * @return The output of each run, in run order
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if any run failed, carrying the first failure
+     */
+    public List<byte[]> executeAll(CompiledProgram program, int runs, Supplier<Memory> memoryFactory)
+            throws InterruptedException, ExecutionException {
+        List<Callable<byte[]>> tasks = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            tasks.add(() -> {
+                MemorySink sink = new MemorySink();
+                ProgramExecutor.execute(program, new ExecutionContext(memoryFactory.get(), sink,
+                        Channels.newChannel(InputStream.nullInputStream())));
+                return sink.toByteArray();
+            });
+        }
+        return awaitAll(executor.invokeAll(tasks));
+    }
+
+    private static <T> List<T> awaitAll(List<Future<T>> futures) throws ExecutionException, InterruptedException {
+        List<T> results = new ArrayList<>(futures.size());
+        ExecutionException failure = null;
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                results.add(null);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Shut down the underlying executor if this batch executor created it
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
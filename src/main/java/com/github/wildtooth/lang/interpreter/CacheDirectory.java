@@ -0,0 +1,86 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Per-user directories for files the interpreter writes once and trusts when it reads them back, like the extracted
+ * dictionary index and cached programs.
+ * <p>
+ * Such files must not come from another user, so directories are created accessible to their owner only, and an
+ * existing directory is only used if it belongs to the current user and no one else can write to it.
+ */
+final class CacheDirectory {
+    private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ,
+            PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+    private CacheDirectory() {
+    }
+
+    /**
+     * Get the default cache directory of the current user: {@code ord-interpreter} in {@code $XDG_CACHE_HOME}, or in
+     * {@code ~/.cache} if that is not set
+     *
+     * @return The directory, which may not exist yet
+     */
+    static Path defaultRoot() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = cacheHome != null && !cacheHome.isEmpty() ? Paths.get(cacheHome)
+                : Paths.get(System.getProperty("user.home"), ".cache");
+        return base.resolve("ord-interpreter");
+    }
+
+    /**
+     * Create a directory only the current user can access, or check that an existing one is safe to use
+     *
+     * @param directory The directory
+     * @return The directory
+     * @throws IOException if the directory cannot be created, or is not owned by the current user, or can be written
+     *                     by other users
+     */
+    static Path secure(Path directory) throws IOException {
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return Files.createDirectories(directory);
+        }
+        if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            Path parent = directory.toAbsolutePath().getParent();
+            if (parent != null) {
+                // Missing parents, like the cache root above the programs directory, are private to the user as well
+                Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            }
+            try {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } catch (FileAlreadyExistsException e) {
+                // Created by another process in the meantime, checked like any existing directory
+            }
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!attributes.owner().equals(user)) {
+            throw new IOException(directory + " is owned by " + attributes.owner().getName() + ", not by "
+                    + user.getName());
+        }
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            throw new IOException(directory + " is writable by other users");
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,26 @@
+package com.github.wildtooth.lang.interpreter;
+
+/**
+ * Handle for cancelling running programs from another thread.
+ * Runs poll the token cooperatively, so a cancelled run stops within a few thousand steps rather than immediately.
+ * One token may be shared by any number of runs.
+ */
+public final class CancellationToken {
+    private volatile boolean cancelled;
+
+    /**
+     * Request every run watching this token to stop
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check whether cancellation was requested
+     *
+     * @return true if {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,94 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * File holding the snapshot chain of a run, written as a checkpoint listener, see
+ * {@link ExecutionLimits#withCheckpoints}.
+ * <p>
+ * A full snapshot replaces the file: it is written to a temporary file that is atomically moved into place, so the
+ * file always holds a complete chain. Incremental snapshots are appended. A process that dies while appending leaves
+ * a torn record at the end of the file, which {@link #read} ignores, so a run can always be resumed from the last
+ * snapshot that was written completely.
+ * <p>
+ * Failing to write a snapshot is reported and otherwise ignored, the run goes on. The next full snapshot starts a
+ * valid chain again.
+ */
+public final class CheckpointLog implements Consumer<ExecutionSnapshot> {
+    private final Path path;
+    private boolean broken = false;
+
+    /**
+     * Creates a log writing to a file. The file is replaced by the first snapshot.
+     *
+     * @param path The log file
+     */
+    public CheckpointLog(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Reads the snapshots from a log file
+     *
+     * @param path The log file
+     * @return The snapshots in the order they were written
+     * @throws IOException              if reading fails
+     * @throws IllegalArgumentException if the file is not a snapshot log
+     */
+    public static List<ExecutionSnapshot> read(Path path) throws IOException {
+        return ExecutionSnapshot.readAll(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    /**
+     * Get the log file
+     *
+     * @return The path of the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void accept(ExecutionSnapshot snapshot) {
+        if (!snapshot.isFull() && broken) {
+            return;
+        }
+        Path temp = null;
+        try {
+            if (snapshot.isFull()) {
+                Path directory = path.toAbsolutePath().getParent();
+                temp = Files.createTempFile(directory, "checkpoint", ".tmp");
+                try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                    snapshot.writeTo(outputStream);
+                }
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+                    snapshot.writeTo(outputStream);
+                }
+            }
+            broken = false;
+        } catch (IOException e) {
+            // Later incremental snapshots would not fit the chain in the file
+            broken = true;
+            System.err.println("Failed to write checkpoint to " + path + ": " + e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // The temporary file is left behind, nothing else depends on it
+                }
+            }
+        }
+    }
+}
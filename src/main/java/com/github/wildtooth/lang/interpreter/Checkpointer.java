@@ -0,0 +1,188 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.io.OutputHandler;
+import com.github.wildtooth.lang.memory.Memory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Takes {@link ExecutionSnapshot}s of a run and restores runs from them.
+ * <p>
+ * Snapshots are taken by the {@link LimitTracker} at taken jumps, where every executor has accounted for the steps
+ * up to the jump target and written its state back to the memory, so taking them costs the dispatch loops nothing.
+ * <p>
+ * Pages that changed since the previous snapshot are found by comparing the memory with a shadow copy of it, kept
+ * for pages that were ever non-zero. A write barrier would make every store of the run more expensive, while
+ * comparing pages costs a few microseconds per thousand cells once per snapshot. The first snapshot and every
+ * {@value #FULL_SNAPSHOT_INTERVAL}th one are full, which bounds the length of the chain needed to restore a run.
+ * <p>
+ * The program is identified by the checksum of its optimized form, so a run can be resumed whether or not its
+ * instructions were fused.
+ */
+final class Checkpointer {
+    /**
+     * Number of snapshots from one full snapshot to the next
+     */
+    static final int FULL_SNAPSHOT_INTERVAL = 64;
+
+    private static final int PAGE_SIZE = ExecutionSnapshot.PAGE_SIZE;
+
+    private final Memory memory;
+    private final OutputHandler outputHandler;
+    private final int programChecksum;
+    private final Consumer<ExecutionSnapshot> listener;
+    private final int[][] shadow;
+    private final int[] page = new int[PAGE_SIZE];
+    private long sequence = 0;
+
+    /**
+     * Creates a checkpointer for one run
+     *
+     * @param program  The program being run
+     * @param context  The memory and output of the run
+     * @param listener Receives every snapshot taken
+     */
+    Checkpointer(CompiledProgram program, ExecutionContext context, Consumer<ExecutionSnapshot> listener) {
+        this.memory = context.getMemory();
+        this.outputHandler = context.getOutputHandler();
+        this.programChecksum = programChecksum(program);
+        this.listener = listener;
+        this.shadow = new int[ExecutionSnapshot.pageCount(memory.size())][];
+    }
+
+    private static int programChecksum(CompiledProgram program) {
+        return ExecutionSnapshot.checksum(PeepholeOptimizer.optimize(program));
+    }
+
+    /**
+     * Check whether a snapshot was taken of a program, in any of its fused forms
+     *
+     * @param snapshot The snapshot
+     * @param program  The program
+     * @return true if the snapshot can be restored for the program
+     */
+    static boolean isTakenOf(ExecutionSnapshot snapshot, CompiledProgram program) {
+        return snapshot.getProgramChecksum() == programChecksum(program);
+    }
+
+    /**
+     * Take a snapshot and hand it to the listener
+     *
+     * @param line  The line the run continues at
+     * @param steps Number of lines run so far
+     */
+    void checkpoint(int line, long steps) {
+        listener.accept(capture(line, steps, outputHandler.getPendingOutput()));
+    }
+
+    /**
+     * Take the last snapshot of a run, whether it completed or was stopped by a limit. Resuming a completed run
+     * therefore does nothing. Pending output is flushed first, as the executor is about to flush it anyway, so
+     * resuming does not print it twice.
+     *
+     * @param line  The line the run ended at
+     * @param steps Number of lines run
+     */
+    void finish(int line, long steps) {
+        outputHandler.flush();
+        listener.accept(capture(line, steps, new byte[0]));
+    }
+
+    private ExecutionSnapshot capture(int line, long steps, byte[] pendingOutput) {
+        boolean full = sequence % FULL_SNAPSHOT_INTERVAL == 0;
+        int size = memory.size();
+        int[] indexes = new int[shadow.length];
+        int[][] pages = new int[shadow.length][];
+        int count = 0;
+        for (int index = 0; index < shadow.length; index++) {
+            int length = ExecutionSnapshot.pageLength(index, size);
+            memory.readCells(index * PAGE_SIZE, page, 0, length);
+            int[] previous = shadow[index];
+            boolean changed = previous == null ? !isZero(page, length)
+                    : !Arrays.equals(page, 0, length, previous, 0, length);
+            if (changed) {
+                if (previous == null) {
+                    previous = new int[length];
+                    shadow[index] = previous;
+                }
+                System.arraycopy(page, 0, previous, 0, length);
+            }
+            if (changed || full && previous != null && !isZero(previous, length)) {
+                indexes[count] = index;
+                pages[count++] = Arrays.copyOf(page, length);
+            }
+        }
+        return new ExecutionSnapshot(full, sequence++, programChecksum, line, steps, memory.getPointer(), size,
+                memory.cellWidth(), Arrays.copyOf(indexes, count), Arrays.copyOf(pages, count), pendingOutput);
+    }
+
+    private static boolean isZero(int[] cells, int length) {
+        for (int i = 0; i < length; i++) {
+            if (cells[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restore the state of a run from a chain of snapshots, starting at the last full snapshot in the list
+     *
+     * @param program   The program the snapshots were taken of
+     * @param context   The memory and output to restore into
+     * @param snapshots The snapshots in the order they were taken
+     * @return The last snapshot, holding the line and step count to continue at
+     * @throws IllegalArgumentException if the snapshots do not form a chain or do not match the program or memory
+     */
+    static ExecutionSnapshot restore(CompiledProgram program, ExecutionContext context,
+                                     List<ExecutionSnapshot> snapshots) {
+        int first = snapshots.size() - 1;
+        while (first >= 0 && !snapshots.get(first).isFull()) {
+            first--;
+        }
+        if (first < 0) {
+            throw new IllegalArgumentException("No full snapshot to resume from");
+        }
+
+        Memory memory = context.getMemory();
+        int programChecksum = programChecksum(program);
+        ExecutionSnapshot base = snapshots.get(first);
+        for (int i = first; i < snapshots.size(); i++) {
+            ExecutionSnapshot snapshot = snapshots.get(i);
+            if (snapshot.getProgramChecksum() != programChecksum) {
+                throw new IllegalArgumentException("Snapshot was taken of a different program");
+            }
+            if (snapshot.getMemorySize() != memory.size() || snapshot.getCellWidth() != memory.cellWidth()) {
+                throw new IllegalArgumentException("Snapshot was taken with a memory of " + snapshot.getMemorySize()
+                        + " cells of " + snapshot.getCellWidth().bits() + " bits, not " + memory.size() + " cells of "
+                        + memory.cellWidth().bits() + " bits");
+            }
+            if (snapshot.getSequence() != base.getSequence() + i - first) {
+                throw new IllegalArgumentException("Snapshot chain is broken at snapshot " + snapshot.getSequence());
+            }
+        }
+        ExecutionSnapshot last = snapshots.get(snapshots.size() - 1);
+        // Lines past the end are fine, a forward jump past the last line ends a program there
+        if (last.getLine() < 0 || last.getSteps() < 0
+                || last.getPointer() < 0 || last.getPointer() >= memory.size()) {
+            throw new IllegalArgumentException("Snapshot position is out of range: " + last);
+        }
+
+        memory.clear();
+        for (int i = first; i < snapshots.size(); i++) {
+            ExecutionSnapshot snapshot = snapshots.get(i);
+            int[] indexes = snapshot.pageIndexes();
+            int[][] pages = snapshot.pages();
+            for (int j = 0; j < pages.length; j++) {
+                memory.writeCells(indexes[j] * PAGE_SIZE, pages[j], 0, pages[j].length);
+            }
+        }
+        memory.setPointer(last.getPointer());
+        context.getOutputHandler().restorePendingOutput(last.pendingOutput());
+        return last;
+    }
+}
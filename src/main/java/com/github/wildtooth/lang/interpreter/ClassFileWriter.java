@@ -0,0 +1,426 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a class file holding a single static method, just enough for the {@link JitCompiler}.
+ * <p>
+ * Class files are written in version 49 (Java 5), the last version checked by the type-inferring verifier, so no
+ * stack map frames have to be computed. Branch offsets are 16 bits wide, which covers methods of up to 32 KiB.
+ */
+final class ClassFileWriter {
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ICONST_0 = 0x03;
+    static final int LCONST_0 = 0x09;
+    static final int LCONST_1 = 0x0a;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int LLOAD = 0x16;
+    static final int ALOAD = 0x19;
+    static final int BALOAD = 0x33;
+    static final int ISTORE = 0x36;
+    static final int LSTORE = 0x37;
+    static final int BASTORE = 0x54;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int IADD = 0x60;
+    static final int LADD = 0x61;
+    static final int ISUB = 0x64;
+    static final int LSUB = 0x65;
+    static final int LMUL = 0x69;
+    static final int IINC = 0x84;
+    static final int I2L = 0x85;
+    static final int L2I = 0x88;
+    static final int LCMP = 0x94;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IF_ICMPLT = 0xa1;
+    static final int GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ARRAYLENGTH = 0xbe;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * A position in the code that branches can refer to before it is known
+     */
+    static final class Label {
+        private int position = -1;
+    }
+
+    /**
+     * A branch offset to fill in once its label is placed
+     */
+    private static final class Fixup {
+        private final int instruction;
+        private final int offsetAt;
+        private final boolean wide;
+        private final Label label;
+
+        private Fixup(int instruction, int offsetAt, boolean wide, Label label) {
+            this.instruction = instruction;
+            this.offsetAt = offsetAt;
+            this.wide = wide;
+            this.label = label;
+        }
+    }
+
+    private final String className;
+    private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+    private final Map<String, Integer> constantIndex = new HashMap<>();
+    private int constantCount = 1;
+
+    private byte[] code = new byte[1024];
+    private int codeLength = 0;
+    private final List<Fixup> fixups = new ArrayList<>();
+
+    /**
+     * Creates a writer for a class
+     *
+     * @param className Internal name of the class, e.g. {@code com/example/Generated}
+     */
+    ClassFileWriter(String className) {
+        this.className = className;
+    }
+
+    /**
+     * Get the number of bytes of code written so far
+     *
+     * @return The code size
+     */
+    int codeSize() {
+        return codeLength;
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        String key = "C".concat(internalName);
+        Integer index = constantIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        constants.write(CONSTANT_CLASS);
+        writeShort(constants, name);
+        return add(key, 1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = (tag == CONSTANT_FIELDREF ? "F" : "M").concat(owner).concat(".").concat(name).concat(descriptor);
+        Integer index = constantIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        constants.write(CONSTANT_NAME_AND_TYPE);
+        writeShort(constants, nameIndex);
+        writeShort(constants, descriptorIndex);
+        int nameAndType = add(null, 1);
+        constants.write(tag);
+        writeShort(constants, ownerIndex);
+        writeShort(constants, nameAndType);
+        return add(key, 1);
+    }
+
+    private int utf8(String value) {
+        String key = "U".concat(value);
+        Integer index = constantIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        constants.write(CONSTANT_UTF8);
+        writeUtf8(constants, value);
+        return add(key, 1);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value >>> 16);
+        writeShort(out, value);
+    }
+
+    /**
+     * Write a string in the modified UTF-8 of class files, preceded by its length
+     */
+    private static void writeUtf8(ByteArrayOutputStream out, String value) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                encoded.write(c);
+            } else if (c <= 0x7FF) {
+                encoded.write(0xC0 | (c >> 6));
+                encoded.write(0x80 | (c & 0x3F));
+            } else {
+                encoded.write(0xE0 | (c >> 12));
+                encoded.write(0x80 | ((c >> 6) & 0x3F));
+                encoded.write(0x80 | (c & 0x3F));
+            }
+        }
+        writeShort(out, encoded.size());
+        out.write(encoded.toByteArray(), 0, encoded.size());
+    }
+
+    /**
+     * Register the constant just written
+     *
+     * @param key   Key to find it again by, or null if it is never looked up
+     * @param slots Number of constant pool slots it takes
+     * @return Its index
+     */
+    private int add(String key, int slots) {
+        int index = constantCount;
+        constantCount += slots;
+        if (key != null) {
+            constantIndex.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Emit an instruction without operands
+     */
+    void op(int opcode) {
+        ensureCapacity(1);
+        code[codeLength++] = (byte) opcode;
+    }
+
+    /**
+     * Emit an instruction with a one byte operand, such as a local variable access
+     */
+    void op(int opcode, int operand) {
+        ensureCapacity(2);
+        code[codeLength++] = (byte) opcode;
+        code[codeLength++] = (byte) operand;
+    }
+
+    /**
+     * Emit an instruction with a two byte operand, such as a constant pool reference
+     */
+    void opWide(int opcode, int operand) {
+        ensureCapacity(3);
+        code[codeLength++] = (byte) opcode;
+        code[codeLength++] = (byte) (operand >> 8);
+        code[codeLength++] = (byte) operand;
+    }
+
+    void iinc(int local, int delta) {
+        ensureCapacity(3);
+        code[codeLength++] = (byte) IINC;
+        code[codeLength++] = (byte) local;
+        code[codeLength++] = (byte) delta;
+    }
+
+    /**
+     * Push an int constant using the shortest encoding
+     */
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            opWide(SIPUSH, value);
+        } else {
+            String key = "I".concat(Integer.toString(value));
+            Integer index = constantIndex.get(key);
+            if (index == null) {
+                constants.write(CONSTANT_INTEGER);
+                writeInt(constants, value);
+                index = add(key, 1);
+            }
+            if (index < 256) {
+                op(LDC, index);
+            } else {
+                opWide(LDC_W, index);
+            }
+        }
+    }
+
+    /**
+     * Push a long constant
+     */
+    void pushLong(long value) {
+        if (value == 0 || value == 1) {
+            op(LCONST_0 + (int) value);
+            return;
+        }
+        String key = "J".concat(Long.toString(value));
+        Integer index = constantIndex.get(key);
+        if (index == null) {
+            constants.write(CONSTANT_LONG);
+            writeInt(constants, (int) (value >>> 32));
+            writeInt(constants, (int) value);
+            // Longs take two constant pool slots
+            index = add(key, 2);
+        }
+        opWide(LDC2_W, index);
+    }
+
+    /**
+     * Emit a branch to a label, which may be placed later
+     */
+    void jump(int opcode, Label label) {
+        int instruction = codeLength;
+        op(opcode);
+        fixups.add(new Fixup(instruction, codeLength, false, label));
+        ensureCapacity(2);
+        codeLength += 2;
+    }
+
+    /**
+     * Emit a table switch over the int on top of the stack
+     *
+     * @param low     The key of the first label
+     * @param dflt    Target for keys without a label
+     * @param targets Target per key, starting at {@code low}
+     */
+    void tableSwitch(int low, Label dflt, Label[] targets) {
+        int instruction = codeLength;
+        op(TABLESWITCH);
+        while (codeLength % 4 != 0) {
+            op(0);
+        }
+        wideOffset(instruction, dflt);
+        writeInt(low);
+        writeInt(low + targets.length - 1);
+        for (Label target : targets) {
+            wideOffset(instruction, target);
+        }
+    }
+
+    private void wideOffset(int instruction, Label label) {
+        fixups.add(new Fixup(instruction, codeLength, true, label));
+        writeInt(0);
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        code[codeLength++] = (byte) (value >> 24);
+        code[codeLength++] = (byte) (value >> 16);
+        code[codeLength++] = (byte) (value >> 8);
+        code[codeLength++] = (byte) value;
+    }
+
+    /**
+     * Place a label at the current end of the code
+     */
+    void place(Label label) {
+        label.position = codeLength;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (codeLength + bytes > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, codeLength + bytes));
+        }
+    }
+
+    /**
+     * Finish the class with the code written so far as the body of its only method
+     *
+     * @param methodName Name of the method
+     * @param descriptor Descriptor of the method
+     * @param maxStack   Maximum operand stack depth of the code
+     * @param maxLocals  Number of local variable slots, including the parameters
+     * @return The class file
+     * @throws IllegalStateException if the code is too large for 16 bit branch offsets or a label was never placed
+     */
+    byte[] toByteArray(String methodName, String descriptor, int maxStack, int maxLocals) {
+        for (Fixup fixup : fixups) {
+            if (fixup.label.position < 0) {
+                throw new IllegalStateException("Branch to a label that was never placed");
+            }
+            int offset = fixup.label.position - fixup.instruction;
+            if (fixup.wide) {
+                code[fixup.offsetAt] = (byte) (offset >> 24);
+                code[fixup.offsetAt + 1] = (byte) (offset >> 16);
+                code[fixup.offsetAt + 2] = (byte) (offset >> 8);
+                code[fixup.offsetAt + 3] = (byte) offset;
+            } else {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Branch offset out of range: " + offset);
+                }
+                code[fixup.offsetAt] = (byte) (offset >> 8);
+                code[fixup.offsetAt + 1] = (byte) offset;
+            }
+        }
+
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int name = utf8(methodName);
+        int type = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(codeLength + constants.size() + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(constantCount);
+            constants.writeTo(out);
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+            out.writeShort(ACC_STATIC);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1); // method attributes
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + codeLength);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(codeLength);
+            out.write(code, 0, codeLength);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+            out.writeShort(0); // class attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
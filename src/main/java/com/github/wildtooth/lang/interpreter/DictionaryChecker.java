@@ -1,39 +1,33 @@
 package com.github.wildtooth.lang.interpreter;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.Set;
-
 /**
- * Handles dictionary operations for validating words
+ * Handles dictionary operations for validating words.
+ * All checkers read the same process-wide {@link SharedDictionary}, so creating one is cheap.
  */
 public class DictionaryChecker {
-    private static final String DICTIONARY_FILE = "/dictionary.txt";
-    private final Set<String> dictionary = new HashSet<>();
+    private DictionaryIndex dictionary;
     private boolean isLoaded = false;
 
     /**
-     * Loads the dictionary from the resources file
+     * Loads the dictionary, or attaches to it if another checker in this process already loaded it
      */
     public void loadDictionary() {
         if (isLoaded) {
             return;
         }
 
-        try (InputStream inputStream = DictionaryChecker.class.getResourceAsStream(DICTIONARY_FILE);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+        dictionary = SharedDictionary.get();
+        isLoaded = dictionary != null;
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                dictionary.add(line.trim().toLowerCase());
-            }
-            isLoaded = true;
-        } catch (IOException | NullPointerException e) {
-            System.err.println("Error loading dictionary: " + e.getMessage());
-        }
+    /**
+     * Get the dictionary words are checked against, loading it if needed
+     *
+     * @return The dictionary, or null if it could not be loaded
+     */
+    public DictionaryIndex getDictionary() {
+        loadDictionary();
+        return dictionary;
     }
 
     /**
@@ -42,10 +36,25 @@ public class DictionaryChecker {
      * @param word The word to check
      * @return true if the word is in the dictionary, false otherwise
      */
-    public Boolean isValidWord(String word) {
+    public boolean isValidWord(CharSequence word) {
+        return isValidWord(word, 0, word.length());
+    }
+
+    /**
+     * Checks if a range of characters forms a word in the dictionary, without allocating
+     *
+     * @param chars The characters to read from
+     * @param start Start of the range, inclusive
+     * @param end   End of the range, exclusive
+     * @return true if the word is in the dictionary, false otherwise
+     */
+    public boolean isValidWord(CharSequence chars, int start, int end) {
         if (!isLoaded) {
             loadDictionary();
+            if (!isLoaded) {
+                return false;
+            }
         }
-        return dictionary.contains(word.trim().toLowerCase());
+        return dictionary.contains(chars, start, end);
     }
 }
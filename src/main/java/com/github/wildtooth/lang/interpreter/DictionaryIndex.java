@@ -0,0 +1,270 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact, immutable word index backing the {@link DictionaryChecker}.
+ * <p>
+ * Words are stored as length-prefixed ASCII bytes in one packed blob, and an open addressing table of blob offsets
+ * is used to find them. The whole index lives in a single {@link ByteBuffer}, so it can be loaded as one resource
+ * and lookups on {@code char} sequences never allocate.
+ * <p>
+ * Layout (big-endian): magic, version, word count, slot count, blob length, blob checksum, slot table, blob.
+ * The checksum is a CRC32C of the blob, so the header identifies the word list it was built from.
+ * <p>
+ * The index only ever reads its buffer through absolute accessors, so one instance can be shared by any number of
+ * threads.
+ */
+public final class DictionaryIndex {
+    public static final String RESOURCE_NAME = "/dictionary.idx";
+
+    private static final int MAGIC = 0x4F524444; // "ORDD"
+    private static final int VERSION = 2;
+    static final int HEADER_SIZE = 6 * Integer.BYTES;
+    private static final int MAX_WORD_LENGTH = 255;
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+    private final int slotMask;
+    private final int blobStart;
+
+    private DictionaryIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a dictionary index, or unsupported version");
+        }
+        this.wordCount = buffer.getInt(8);
+        int slotCount = buffer.getInt(12);
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Corrupt dictionary index, slot count is not a power of two: " + slotCount);
+        }
+        this.slotMask = slotCount - 1;
+        this.blobStart = HEADER_SIZE + slotCount * Integer.BYTES;
+        int blobLength = buffer.getInt(16);
+        if (buffer.limit() < blobStart + blobLength) {
+            throw new IllegalArgumentException("Corrupt dictionary index, expected " + (blobStart + blobLength)
+                    + " bytes but found " + buffer.limit());
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a serialized index. The buffer is used as is, not copied.
+     *
+     * @param buffer Buffer containing the index, starting at position 0
+     * @return The index
+     * @throws IllegalArgumentException if the buffer does not contain a valid index
+     */
+    public static DictionaryIndex wrap(ByteBuffer buffer) {
+        return new DictionaryIndex(buffer);
+    }
+
+    /**
+     * Calculates the full serialized size of an index from its header
+     *
+     * @param header Buffer holding at least the header of a serialized index
+     * @return The size in bytes, or -1 if the header is not a valid index header
+     */
+    static long serializedSize(ByteBuffer header) {
+        if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return -1;
+        }
+        return HEADER_SIZE + (long) header.getInt(12) * Integer.BYTES + header.getInt(16);
+    }
+
+    /**
+     * Builds an index from a collection of words. Words are trimmed and lowercased; blank words,
+     * words longer than 255 characters and words containing characters outside a-z are skipped.
+     *
+     * @param words The words to index
+     * @return The index
+     */
+    public static DictionaryIndex build(Collection<String> words) {
+        TreeSet<String> unique = new TreeSet<>();
+        int blobLength = 0;
+        for (String word : words) {
+            String normalized = word.trim().toLowerCase();
+            if (isIndexable(normalized) && unique.add(normalized)) {
+                blobLength += 1 + normalized.length();
+            }
+        }
+
+        // Keep the load factor at or below 0.75
+        int slotCount = Integer.highestOneBit(Math.max(1, unique.size() * 4 / 3)) << 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + slotCount * Integer.BYTES + blobLength);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(unique.size()).putInt(slotCount).putInt(blobLength)
+                .putInt(0);
+
+        int blobStart = HEADER_SIZE + slotCount * Integer.BYTES;
+        int offset = 0;
+        for (String word : unique) {
+            int slot = hash(word, 0, word.length()) & (slotCount - 1);
+            while (buffer.getInt(HEADER_SIZE + slot * Integer.BYTES) != 0) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            // Offsets are stored +1 so that 0 marks an empty slot
+            buffer.putInt(HEADER_SIZE + slot * Integer.BYTES, offset + 1);
+            buffer.put(blobStart + offset, (byte) word.length());
+            buffer.put(blobStart + offset + 1, word.getBytes(StandardCharsets.US_ASCII));
+            offset += 1 + word.length();
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(buffer.slice(blobStart, blobLength));
+        buffer.putInt(20, (int) checksum.getValue());
+        buffer.clear();
+        return new DictionaryIndex(buffer);
+    }
+
+    private static boolean isIndexable(String word) {
+        if (word.isEmpty() || word.length() > MAX_WORD_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a word exists in the index, ignoring surrounding whitespace and case
+     *
+     * @param word The word to check
+     * @return true if the word is in the index, false otherwise
+     */
+    public boolean contains(CharSequence word) {
+        return contains(word, 0, word.length());
+    }
+
+    /**
+     * Checks if a range of characters forms a word in the index, ignoring surrounding whitespace and case
+     *
+     * @param chars The characters to read from
+     * @param start Start of the range, inclusive
+     * @param end   End of the range, exclusive
+     * @return true if the word is in the index, false otherwise
+     */
+    public boolean contains(CharSequence chars, int start, int end) {
+        while (start < end && chars.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && chars.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int length = end - start;
+        if (length == 0 || length > MAX_WORD_LENGTH) {
+            return false;
+        }
+
+        int slot = hash(chars, start, end) & slotMask;
+        int entry;
+        while ((entry = buffer.getInt(HEADER_SIZE + slot * Integer.BYTES)) != 0) {
+            if (matches(entry - 1, chars, start, length)) {
+                return true;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return false;
+    }
+
+    private boolean matches(int offset, CharSequence chars, int start, int length) {
+        int position = blobStart + offset;
+        if ((buffer.get(position) & 0xFF) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + 1 + i) != toLowerCase(chars.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the lowercased characters, with a final avalanche so that the low bits are usable as a slot index
+     */
+    private static int hash(CharSequence chars, int start, int end) {
+        int hash = 0x811C9DC5;
+        for (int i = start; i < end; i++) {
+            hash ^= toLowerCase(chars.charAt(i));
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static char toLowerCase(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c < 0x80 ? c : Character.toLowerCase(c);
+    }
+
+    /**
+     * Get the number of words in the index
+     *
+     * @return The number of words
+     */
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * Get a copy of the serialized header. The header changes whenever the word list does, so it can serve as the
+     * version of the dictionary.
+     *
+     * @return The header bytes
+     */
+    public byte[] header() {
+        byte[] header = new byte[HEADER_SIZE];
+        buffer.get(0, header);
+        return header;
+    }
+
+    /**
+     * Check the words against the checksum in the header, e.g. before trusting an index read back from a file
+     *
+     * @return true if the checksum matches
+     */
+    public boolean isChecksumValid() {
+        CRC32C checksum = new CRC32C();
+        checksum.update(buffer.slice(blobStart, buffer.getInt(16)));
+        return (int) checksum.getValue() == buffer.getInt(20);
+    }
+
+    /**
+     * Get the serialized size of the index
+     *
+     * @return The size in bytes
+     */
+    public int byteSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Writes the serialized index to a stream
+     *
+     * @param outputStream The stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        byte[] chunk = new byte[8192];
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            outputStream.write(chunk, 0, length);
+        }
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Build-time tool that converts the plain text word list into a serialized {@link DictionaryIndex}
+ */
+public final class DictionaryIndexWriter {
+
+    private DictionaryIndexWriter() {
+    }
+
+    /**
+     * Usage: DictionaryIndexWriter &lt;dictionary.txt&gt; &lt;dictionary.idx&gt;
+     *
+     * @param args Input word list and output index paths
+     * @throws IOException if reading or writing fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DictionaryIndexWriter <dictionary.txt> <dictionary.idx>");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+
+        List<String> words = Files.readAllLines(input, StandardCharsets.UTF_8);
+        DictionaryIndex index = DictionaryIndex.build(words);
+
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (OutputStream outputStream = Files.newOutputStream(output)) {
+            index.writeTo(outputStream);
+        }
+        System.out.println("Wrote " + index.size() + " words (" + index.byteSize() + " bytes) to " + output);
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.io.ChannelSink;
+import com.github.wildtooth.lang.io.InputHandler;
+import com.github.wildtooth.lang.io.OutputHandler;
+import com.github.wildtooth.lang.io.OutputSink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import com.github.wildtooth.lang.memory.Memory;
+
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Everything a single program run changes: the memory tape with its pointer, the input and the output.
+ * Contexts are reusable, {@link #reset()} returns one to a clean state without allocating.
+ * A context must only be used by one run at a time.
+ */
+public final class ExecutionContext {
+    private final Memory memory;
+    private final OutputHandler outputHandler;
+    private final InputHandler inputHandler;
+
+    /**
+     * Creates a context with the default memory, reading standard input and writing to standard output
+     */
+    public ExecutionContext() {
+        this(new ByteArrayMemory());
+    }
+
+    /**
+     * Creates a context reading standard input and writing to standard output
+     *
+     * @param memory Memory the program operates on
+     */
+    public ExecutionContext(Memory memory) {
+        this(memory, ChannelSink.stdout());
+    }
+
+    /**
+     * Creates a context reading standard input
+     *
+     * @param memory Memory the program operates on
+     * @param sink   Sink receiving the output
+     */
+    public ExecutionContext(Memory memory, OutputSink sink) {
+        this(memory, sink, InputHandler.stdin());
+    }
+
+    /**
+     * Creates a context
+     *
+     * @param memory Memory the program operates on
+     * @param sink   Sink receiving the output
+     * @param input  Channel the input is read from
+     */
+    public ExecutionContext(Memory memory, OutputSink sink, ReadableByteChannel input) {
+        this.memory = memory;
+        this.outputHandler = new OutputHandler(memory, sink);
+        this.inputHandler = new InputHandler(memory, input);
+    }
+
+    /**
+     * Get the memory of this context
+     *
+     * @return The memory
+     */
+    public Memory getMemory() {
+        return memory;
+    }
+
+    /**
+     * Get the output handler of this context
+     *
+     * @return The output handler
+     */
+    public OutputHandler getOutputHandler() {
+        return outputHandler;
+    }
+
+    /**
+     * Get the input handler of this context
+     *
+     * @return The input handler
+     */
+    public InputHandler getInputHandler() {
+        return inputHandler;
+    }
+
+    /**
+     * Set the channel input is read from. Input buffered from the previous channel is dropped.
+     *
+     * @param input The channel to read from
+     */
+    public void setInput(ReadableByteChannel input) {
+        inputHandler.setChannel(input);
+    }
+
+    /**
+     * Set the sink receiving output. Pending output is flushed to the previous sink first.
+     *
+     * @param sink The sink to write to
+     */
+    public void setOutputSink(OutputSink sink) {
+        outputHandler.setSink(sink);
+    }
+
+    /**
+     * Set debug mode for the output of this context
+     *
+     * @param debugMode true to enable debug mode, false otherwise
+     */
+    public void setDebugMode(boolean debugMode) {
+        outputHandler.setDebugMode(debugMode);
+    }
+
+    /**
+     * Return to a clean state: memory is cleared, the pointer is moved to 0, unflushed output is discarded and
+     * buffered input is dropped along with the end-of-input flag. The output sink and the input channel are kept.
+     */
+    public void reset() {
+        memory.clear();
+        memory.setPointer(0);
+        outputHandler.discard();
+        inputHandler.reset();
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of reusable {@link ExecutionContext}s.
+ * <p>
+ * Contexts are reset when they are released, so a context taken from the pool is always clean. When the pool is
+ * empty a new context is created, and contexts released into a full pool are dropped, so the pool never blocks and
+ * never holds more than its capacity. The pool is thread-safe.
+ */
+public final class ExecutionContextPool {
+    private final ArrayBlockingQueue<ExecutionContext> idle;
+    private final Supplier<ExecutionContext> factory;
+
+    /**
+     * Creates a pool of contexts with the default memory
+     *
+     * @param capacity Maximum number of idle contexts kept
+     */
+    public ExecutionContextPool(int capacity) {
+        this(capacity, ExecutionContext::new);
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param capacity Maximum number of idle contexts kept
+     * @param factory  Creates a new context when the pool is empty
+     */
+    public ExecutionContextPool(int capacity, Supplier<ExecutionContext> factory) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+    }
+
+    /**
+     * Take a clean context from the pool, creating one if none is idle
+     *
+     * @return The context
+     */
+    public ExecutionContext acquire() {
+        ExecutionContext context = idle.poll();
+        return context != null ? context : factory.get();
+    }
+
+    /**
+     * Reset a context and return it to the pool
+     *
+     * @param context The context to return
+     */
+    public void release(ExecutionContext context) {
+        context.reset();
+        idle.offer(context);
+    }
+
+    /**
+     * Get the number of idle contexts in the pool
+     *
+     * @return The number of idle contexts
+     */
+    public int idleCount() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Bounds on a program run: a step budget, a wall-clock timeout and a cancellation token. Limits can also ask for
+ * periodic {@link ExecutionSnapshot}s of the run, see {@link #withCheckpoints}.
+ * <p>
+ * The executor does not check the limits on every line. Steps are counted at taken jumps and the clock and the token
+ * are only polled every {@value #CHECK_INTERVAL} steps, so a cycle is stopped within a few microseconds of passing
+ * its deadline or being cancelled. The step budget is exact, unless a fused instruction straddles it.
+ * <p>
+ * Instances are immutable, the {@code with} methods return a copy.
+ */
+public final class ExecutionLimits {
+    /**
+     * Maximum number of steps between two checks of the clock and the cancellation token
+     */
+    static final int CHECK_INTERVAL = 1 << 14;
+
+    /**
+     * Default number of steps between two snapshots
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1L << 28;
+
+    private static final ExecutionLimits NONE = new ExecutionLimits(Long.MAX_VALUE, null, null, 0, null);
+
+    private final long maxSteps;
+    private final Duration timeout;
+    private final CancellationToken cancellationToken;
+    private final long checkpointInterval;
+    private final Consumer<ExecutionSnapshot> checkpointListener;
+
+    private ExecutionLimits(long maxSteps, Duration timeout, CancellationToken cancellationToken,
+                            long checkpointInterval, Consumer<ExecutionSnapshot> checkpointListener) {
+        this.maxSteps = maxSteps;
+        this.timeout = timeout;
+        this.cancellationToken = cancellationToken;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointListener = checkpointListener;
+    }
+
+    /**
+     * Get limits that let a program run forever
+     *
+     * @return Limits without any bound
+     */
+    public static ExecutionLimits none() {
+        return NONE;
+    }
+
+    /**
+     * Limit the number of lines a run may execute
+     *
+     * @param maxSteps The step budget
+     * @return A copy of these limits with the step budget
+     */
+    public ExecutionLimits withMaxSteps(long maxSteps) {
+        if (maxSteps < 0) {
+            throw new IllegalArgumentException("Step budget must not be negative: " + maxSteps);
+        }
+        return new ExecutionLimits(maxSteps, timeout, cancellationToken, checkpointInterval, checkpointListener);
+    }
+
+    /**
+     * Limit the wall-clock time a run may take, measured from the start of the run
+     *
+     * @param timeout The timeout
+     * @return A copy of these limits with the timeout
+     */
+    public ExecutionLimits withTimeout(Duration timeout) {
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        return new ExecutionLimits(maxSteps, timeout, cancellationToken, checkpointInterval, checkpointListener);
+    }
+
+    /**
+     * Let a run be stopped through a cancellation token
+     *
+     * @param cancellationToken The token to watch
+     * @return A copy of these limits watching the token
+     */
+    public ExecutionLimits withCancellation(CancellationToken cancellationToken) {
+        return new ExecutionLimits(maxSteps, timeout, cancellationToken, checkpointInterval, checkpointListener);
+    }
+
+    /**
+     * Take a snapshot of the run every given number of steps, at the first taken jump after that many steps, and
+     * when the run ends. Snapshots are taken on the thread running the program, so the
+     * listener should hand them off quickly, and it must be thread-safe if these limits are shared by concurrent runs.
+     *
+     * @param interval Number of steps between two snapshots
+     * @param listener Receives the snapshots, or null to take none
+     * @return A copy of these limits taking snapshots
+     */
+    public ExecutionLimits withCheckpoints(long interval, Consumer<ExecutionSnapshot> listener) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        return new ExecutionLimits(maxSteps, timeout, cancellationToken, interval, listener);
+    }
+
+    /**
+     * Get the step budget
+     *
+     * @return The maximum number of steps, {@link Long#MAX_VALUE} if unbounded
+     */
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * Get the timeout
+     *
+     * @return The timeout, or null if unbounded
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Get the cancellation token
+     *
+     * @return The token, or null if runs cannot be cancelled
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Get the number of steps between two snapshots
+     *
+     * @return The interval, 0 if no snapshots are taken
+     */
+    public long getCheckpointInterval() {
+        return checkpointListener != null ? checkpointInterval : 0;
+    }
+
+    /**
+     * Get the listener receiving snapshots
+     *
+     * @return The listener, or null if no snapshots are taken
+     */
+    public Consumer<ExecutionSnapshot> getCheckpointListener() {
+        return checkpointListener;
+    }
+
+    /**
+     * Check whether these limits can stop a run at all
+     */
+    boolean isBounded() {
+        return maxSteps != Long.MAX_VALUE || timeout != null || cancellationToken != null;
+    }
+
+    /**
+     * Get the timeout in nanoseconds
+     *
+     * @return The timeout, {@link Long#MAX_VALUE} if unbounded
+     */
+    long timeoutNanos() {
+        if (timeout == null || timeout.compareTo(Duration.ofNanos(Long.MAX_VALUE)) >= 0) {
+            return Long.MAX_VALUE;
+        }
+        return timeout.toNanos();
+    }
+}
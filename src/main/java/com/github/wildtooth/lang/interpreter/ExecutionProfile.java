@@ -0,0 +1,392 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.Opcode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Statistics collected by {@link ProgramProfiler} during one run.
+ * <p>
+ * The profiler only keeps primitive counters: how often each line ran, how often the jump on each line was taken
+ * and a log2 histogram of the sampled time from a jump target to the next taken jump, per jumping line. For a loop
+ * that is the time of one iteration. Everything else is derived when asked for, since the opcode of a line and the
+ * target of its jump never change.
+ */
+public final class ExecutionProfile {
+    /**
+     * Number of histogram buckets. Bucket {@code i} holds samples below {@code 2^i} nanoseconds.
+     */
+    public static final int HISTOGRAM_BUCKETS = 64;
+
+    private final CompiledProgram program;
+    private final long[] lineCounts;
+    private final long[] jumpCounts;
+    private int lastRunStart = -1;
+    private int lastRunEnd = -1;
+    private long sampleStart = -1;
+    private final Map<Integer, long[]> histograms = new TreeMap<>(); // by jumping line
+    private final int sampleInterval;
+    private ExecutionResult result;
+    private long elapsedNanos;
+
+    ExecutionProfile(CompiledProgram program, int sampleInterval) {
+        this.program = program;
+        this.lineCounts = new long[program.size()];
+        this.jumpCounts = new long[program.size()];
+        this.sampleInterval = sampleInterval;
+    }
+
+    long[] jumpCounts() {
+        return jumpCounts;
+    }
+
+    /**
+     * Record the final straight run of lines, which did not end in a taken jump
+     *
+     * @param start The line the run started at
+     * @param end   The line after the last line that ran
+     */
+    void endLastRun(int start, int end) {
+        if (start >= 0 && start < lineCounts.length && end > start) {
+            lastRunStart = start;
+            lastRunEnd = Math.min(end, lineCounts.length) - 1;
+        }
+    }
+
+    /**
+     * Start timing at a jump, or finish timing the straight run that ends at the jump
+     *
+     * @param jumpLine The line holding the jump
+     * @param steps    Number of steps run so far
+     * @return The step count at which to call again
+     */
+    long sample(int jumpLine, long steps) {
+        long now = System.nanoTime();
+        if (sampleStart < 0) {
+            sampleStart = now;
+            return steps + 1; // the next jump
+        }
+        long[] histogram = histograms.computeIfAbsent(jumpLine, line -> new long[HISTOGRAM_BUCKETS]);
+        histogram[HISTOGRAM_BUCKETS - Long.numberOfLeadingZeros(Math.max(now - sampleStart, 0))]++;
+        sampleStart = -1;
+        return steps + sampleInterval;
+    }
+
+    void finish(ExecutionResult result, long elapsedNanos) {
+        // Straight runs start at line 0 and at every jump target, and end at every taken jump and at the last line run
+        long[] runStarts = lineCounts;
+        if (runStarts.length > 0) {
+            runStarts[0]++;
+        }
+        for (int line = 0; line < jumpCounts.length; line++) {
+            int target = program.jumpTarget(line);
+            if (jumpCounts[line] > 0 && target >= 0 && target < runStarts.length) {
+                runStarts[target] += jumpCounts[line];
+            }
+        }
+        if (lastRunStart < 0 && result.getLine() >= 0 && result.getLine() < runStarts.length) {
+            runStarts[result.getLine()]--; // The run stopped right at a jump target, before executing it
+        }
+        // A line runs once for every run that started on or before it and did not end before it
+        long running = 0;
+        for (int line = 0; line < lineCounts.length; line++) {
+            running += runStarts[line];
+            lineCounts[line] = running;
+            running -= jumpCounts[line] + (line == lastRunEnd ? 1 : 0);
+        }
+        this.result = result;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get the result of the profiled run
+     *
+     * @return The result
+     */
+    public ExecutionResult getResult() {
+        return result;
+    }
+
+    /**
+     * Get the wall-clock time of the profiled run
+     *
+     * @return The time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Get how often a line was executed
+     *
+     * @param line The line number
+     * @return The execution count
+     */
+    public long getLineCount(int line) {
+        return lineCounts[line];
+    }
+
+    /**
+     * Get how often the jump on a line was taken
+     *
+     * @param line The line number
+     * @return The number of taken jumps, 0 for lines that do not jump
+     */
+    public long getJumpCount(int line) {
+        return jumpCounts[line];
+    }
+
+    /**
+     * Get the number of dispatches per instruction, in opcode order. Instructions that never ran are left out.
+     *
+     * @return Dispatch count by instruction name
+     */
+    public Map<String, Long> getInstructionCounts() {
+        long[] counts = new long[Opcode.COUNT];
+        byte[] opcodes = program.opcodes();
+        for (int line = 0; line < opcodes.length; line++) {
+            counts[opcodes[line]] += lineCounts[line];
+        }
+        Map<String, Long> byName = new LinkedHashMap<>();
+        for (int opcode = 0; opcode < counts.length; opcode++) {
+            if (counts[opcode] > 0) {
+                byName.put(Opcode.name((byte) opcode), counts[opcode]);
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * Get the sampled times from a jump target to the jump on a line. For a loop closed by the line, that is the
+     * time of one iteration.
+     *
+     * @param line The line holding the jump
+     * @return Sample count per bucket, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getHistogram(int line) {
+        long[] histogram = histograms.get(line);
+        return histogram != null ? histogram.clone() : new long[HISTOGRAM_BUCKETS];
+    }
+
+    /**
+     * Get the number of steps between two timing samples
+     *
+     * @return The sample interval
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Find the loops that ran the most lines. A loop is a taken jump to its own or an earlier line, covering the
+     * lines from the jump target up to the jump.
+     *
+     * @param limit Maximum number of loops to return
+     * @return The hottest loops, hottest first
+     */
+    public List<Loop> getHottestLoops(int limit) {
+        long[] prefix = new long[jumpCounts.length + 1];
+        for (int line = 0; line < jumpCounts.length; line++) {
+            prefix[line + 1] = prefix[line] + lineCounts[line];
+        }
+        List<Loop> loops = new ArrayList<>();
+        for (int line = 0; line < jumpCounts.length; line++) {
+            int target = program.jumpTarget(line);
+            if (jumpCounts[line] > 0 && target >= 0 && target <= line) {
+                loops.add(new Loop(target, line, jumpCounts[line], prefix[line + 1] - prefix[target]));
+            }
+        }
+        loops.sort(Comparator.comparingLong(Loop::getSteps).reversed());
+        return loops.size() > limit ? new ArrayList<>(loops.subList(0, limit)) : loops;
+    }
+
+    /**
+     * Format the profile as a human readable report
+     *
+     * @param limit Number of lines and loops to list
+     * @return The report
+     */
+    public String toText(int limit) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "Profile: %s in %.3f ms%n", result, elapsedNanos / 1e6));
+
+        long total = result.getSteps();
+        text.append(String.format(Locale.ROOT, "%nInstructions:%n"));
+        for (Map.Entry<String, Long> entry : getInstructionCounts().entrySet()) {
+            text.append(String.format(Locale.ROOT, "  %-22s %14d  %5.1f%%%n", entry.getKey(), entry.getValue(),
+                    percent(entry.getValue(), total)));
+        }
+
+        text.append(String.format(Locale.ROOT, "%nHottest lines:%n"));
+        for (int line : hottestLines(limit)) {
+            text.append(String.format(Locale.ROOT, "  line %-8d %14d  %5.1f%%  %s%n", line, lineCounts[line],
+                    percent(lineCounts[line], total), Opcode.name(program.opcodes()[line])));
+        }
+
+        text.append(String.format(Locale.ROOT, "%nHottest loops:%n"));
+        for (Loop loop : getHottestLoops(limit)) {
+            text.append(String.format(Locale.ROOT, "  lines %d-%d: %d iterations, %d steps  %5.1f%%%n",
+                    loop.getStart(), loop.getEnd(), loop.getIterations(), loop.getSteps(),
+                    percent(loop.getSteps(), total)));
+            long[] histogram = histograms.get(loop.getEnd());
+            long samples = histogram != null ? LongStream.of(histogram).sum() : 0;
+            if (samples > 0) {
+                text.append(String.format(Locale.ROOT, "    iteration time (%d samples): p50 < %d ns, p99 < %d ns,"
+                                + " max < %d ns%n", samples, percentile(histogram, samples, 0.50),
+                        percentile(histogram, samples, 0.99), percentile(histogram, samples, 1.0)));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Format the profile as JSON, listing every line that ran
+     *
+     * @return The JSON document
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"status\":\"").append(result.getStatus()).append('"')
+                .append(",\"steps\":").append(result.getSteps())
+                .append(",\"stoppedAt\":").append(result.getLine())
+                .append(",\"elapsedNanos\":").append(elapsedNanos)
+                .append(",\"sampleInterval\":").append(sampleInterval);
+
+        json.append(",\"instructions\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> entry : getInstructionCounts().entrySet()) {
+            json.append(separator).append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            separator = ",";
+        }
+
+        json.append("},\"lines\":[");
+        separator = "";
+        for (int line = 0; line < jumpCounts.length; line++) {
+            if (lineCounts[line] == 0) {
+                continue;
+            }
+            json.append(separator).append("{\"line\":").append(line)
+                    .append(",\"instruction\":\"").append(Opcode.name(program.opcodes()[line])).append('"')
+                    .append(",\"count\":").append(lineCounts[line]);
+            if (jumpCounts[line] > 0) {
+                json.append(",\"jumpTarget\":").append(program.jumpTarget(line))
+                        .append(",\"jumpsTaken\":").append(jumpCounts[line]);
+            }
+            json.append('}');
+            separator = ",";
+        }
+
+        json.append("],\"loops\":[");
+        separator = "";
+        for (Loop loop : getHottestLoops(Integer.MAX_VALUE)) {
+            json.append(separator).append("{\"start\":").append(loop.getStart())
+                    .append(",\"end\":").append(loop.getEnd())
+                    .append(",\"iterations\":").append(loop.getIterations())
+                    .append(",\"steps\":").append(loop.getSteps()).append('}');
+            separator = ",";
+        }
+
+        json.append("],\"histograms\":{");
+        separator = "";
+        for (Map.Entry<Integer, long[]> entry : histograms.entrySet()) {
+            long[] histogram = entry.getValue();
+            int last = histogram.length - 1;
+            while (last >= 0 && histogram[last] == 0) {
+                last--;
+            }
+            if (last < 0) {
+                continue;
+            }
+            json.append(separator).append('"').append(entry.getKey()).append("\":[");
+            for (int bucket = 0; bucket <= last; bucket++) {
+                json.append(bucket > 0 ? "," : "").append(histogram[bucket]);
+            }
+            json.append(']');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private int[] hottestLines(int limit) {
+        return IntStream.range(0, jumpCounts.length)
+                .filter(line -> lineCounts[line] > 0)
+                .boxed()
+                .sorted((a, b) -> Long.compare(lineCounts[b], lineCounts[a]))
+                .limit(limit)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+
+    /**
+     * Get the upper bound of the bucket holding the given percentile
+     */
+    private static long percentile(long[] histogram, long samples, double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile));
+        long seen = 0;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= rank) {
+                return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * A loop formed by a backward jump
+     */
+    public static final class Loop {
+        private final int start;
+        private final int end;
+        private final long iterations;
+        private final long steps;
+
+        Loop(int start, int end, long iterations, long steps) {
+            this.start = start;
+            this.end = end;
+            this.iterations = iterations;
+            this.steps = steps;
+        }
+
+        /**
+         * @return The first line of the loop, the jump target
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return The last line of the loop, holding the backward jump
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return How often the backward jump was taken
+         */
+        public long getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return Number of lines executed inside the loop, including nested loops
+         */
+        public long getSteps() {
+            return steps;
+        }
+    }
+}
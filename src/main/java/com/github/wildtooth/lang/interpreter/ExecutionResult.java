@@ -0,0 +1,65 @@
+package com.github.wildtooth.lang.interpreter;
+
+/**
+ * Outcome of a program run
+ */
+public final class ExecutionResult {
+    private final ExecutionStatus status;
+    private final long steps;
+    private final int line;
+
+    /**
+     * Creates a result
+     *
+     * @param status How the run ended
+     * @param steps  Number of lines executed
+     * @param line   The line the run stopped at
+     */
+    public ExecutionResult(ExecutionStatus status, long steps, int line) {
+        this.status = status;
+        this.steps = steps;
+        this.line = line;
+    }
+
+    /**
+     * Get how the run ended
+     *
+     * @return The status
+     */
+    public ExecutionStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Check whether the program ran to its end
+     *
+     * @return true if the status is {@link ExecutionStatus#COMPLETED}
+     */
+    public boolean isCompleted() {
+        return status == ExecutionStatus.COMPLETED;
+    }
+
+    /**
+     * Get the number of lines executed. A fused instruction counts as every line it covers.
+     *
+     * @return The number of steps
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Get the line the run stopped at. For a stopped run this is the next line that would have been executed,
+     * for a completed run it is the number of lines in the program.
+     *
+     * @return The line number
+     */
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return status + " after " + steps + " steps at line " + line;
+    }
+}
@@ -0,0 +1,345 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.memory.CellWidth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * The state of a run at a line boundary, taken by a {@link Checkpointer}: the line to continue at, the steps run so
+ * far, the memory pointer, the memory contents and the output that was not flushed yet.
+ * <p>
+ * Memory is stored in pages of {@value #PAGE_SIZE} cells. A full snapshot holds every page that is not all zero, an
+ * incremental one only the pages that changed since the previous snapshot. A chain of snapshots, a full one followed
+ * by incremental ones, restores the state of its last snapshot. The program is identified by a checksum, so a
+ * snapshot is never applied to a different program.
+ * <p>
+ * Layout of a record (big-endian): magic, version, body length, body, CRC32C of the body. The body holds a flag
+ * telling full and incremental snapshots apart, the sequence number within the chain, the program checksum, line,
+ * steps, pointer, memory size and cell width, the page count, each page as its index followed by its cells at the
+ * width of a cell, and finally the pending output prefixed with its length. Records can be appended to each other to
+ * form a log, see {@link #readAll}.
+ */
+public final class ExecutionSnapshot {
+    /**
+     * Number of cells in a page
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    private static final int MAGIC = 0x4F524453; // "ORDS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    // Flag, sequence, checksum, line, steps, pointer, memory size, cell width, page count, pending output length
+    private static final int FIXED_BODY_SIZE = 1 + Long.BYTES + 2 * Integer.BYTES + Long.BYTES + 2 * Integer.BYTES + 1
+            + 2 * Integer.BYTES;
+
+    private final boolean full;
+    private final long sequence;
+    private final int programChecksum;
+    private final int line;
+    private final long steps;
+    private final int pointer;
+    private final int memorySize;
+    private final CellWidth cellWidth;
+    private final int[] pageIndexes;
+    private final int[][] pages;
+    private final byte[] pendingOutput;
+
+    ExecutionSnapshot(boolean full, long sequence, int programChecksum, int line, long steps, int pointer,
+                      int memorySize, CellWidth cellWidth, int[] pageIndexes, int[][] pages, byte[] pendingOutput) {
+        this.full = full;
+        this.sequence = sequence;
+        this.programChecksum = programChecksum;
+        this.line = line;
+        this.steps = steps;
+        this.pointer = pointer;
+        this.memorySize = memorySize;
+        this.cellWidth = cellWidth;
+        this.pageIndexes = pageIndexes;
+        this.pages = pages;
+        this.pendingOutput = pendingOutput;
+    }
+
+    /**
+     * Reads the snapshot starting at the buffer's position, advancing the position past it
+     *
+     * @param buffer Buffer containing the snapshot
+     * @return The snapshot
+     * @throws IllegalArgumentException if the buffer does not contain a complete, valid snapshot
+     */
+    public static ExecutionSnapshot read(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(buffer.position()) != MAGIC) {
+            throw new IllegalArgumentException("Not an execution snapshot");
+        }
+        int version = buffer.getInt(buffer.position() + 4);
+        int bodyLength = buffer.getInt(buffer.position() + 8);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+        }
+        if (bodyLength < FIXED_BODY_SIZE || buffer.remaining() - HEADER_SIZE - Integer.BYTES < bodyLength) {
+            throw new IllegalArgumentException("Truncated execution snapshot");
+        }
+
+        ByteBuffer body = buffer.slice(buffer.position() + HEADER_SIZE, bodyLength);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(buffer.position() + HEADER_SIZE + bodyLength)) {
+            throw new IllegalArgumentException("Corrupt execution snapshot, checksum mismatch");
+        }
+        buffer.position(buffer.position() + HEADER_SIZE + bodyLength + Integer.BYTES);
+
+        try {
+            boolean full = body.get() != 0;
+            long sequence = body.getLong();
+            int programChecksum = body.getInt();
+            int line = body.getInt();
+            long steps = body.getLong();
+            int pointer = body.getInt();
+            int memorySize = body.getInt();
+            CellWidth cellWidth = CellWidth.ofBits(body.get() * Byte.SIZE);
+            int pageCount = body.getInt();
+            if (memorySize <= 0 || pageCount < 0 || pageCount > pageCount(memorySize)) {
+                throw new IllegalArgumentException("Corrupt execution snapshot, invalid memory layout");
+            }
+            int[] pageIndexes = new int[pageCount];
+            int[][] pages = new int[pageCount][];
+            for (int i = 0; i < pageCount; i++) {
+                int index = body.getInt();
+                if (index < 0 || index >= pageCount(memorySize)) {
+                    throw new IllegalArgumentException("Corrupt execution snapshot, invalid page: " + index);
+                }
+                pageIndexes[i] = index;
+                pages[i] = readCells(body, new int[pageLength(index, memorySize)], cellWidth);
+            }
+            int pendingLength = body.getInt();
+            if (pendingLength != body.remaining()) {
+                throw new IllegalArgumentException("Corrupt execution snapshot, size does not match its contents");
+            }
+            byte[] pendingOutput = new byte[pendingLength];
+            body.get(pendingOutput);
+            return new ExecutionSnapshot(full, sequence, programChecksum, line, steps, pointer, memorySize, cellWidth,
+                    pageIndexes, pages, pendingOutput);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Corrupt execution snapshot, size does not match its contents", e);
+        }
+    }
+
+    /**
+     * Reads a log of snapshots. A record cut short at the end of the log, as left behind by a process that died while
+     * appending it, is ignored.
+     *
+     * @param buffer Buffer containing the log, from its position to its limit
+     * @return The snapshots in the order they were written
+     * @throws IllegalArgumentException if a record before the last one is not a valid snapshot
+     */
+    public static List<ExecutionSnapshot> readAll(ByteBuffer buffer) {
+        List<ExecutionSnapshot> snapshots = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            try {
+                snapshots.add(read(buffer));
+            } catch (IllegalArgumentException e) {
+                if (!isTornTail(buffer, start)) {
+                    throw e;
+                }
+                break;
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Check whether a record that failed to read reaches up to the end of the log
+     */
+    private static boolean isTornTail(ByteBuffer buffer, int start) {
+        if (buffer.limit() - start < HEADER_SIZE) {
+            return true;
+        }
+        return (long) start + HEADER_SIZE + buffer.getInt(start + 8) + Integer.BYTES >= buffer.limit();
+    }
+
+    /**
+     * Calculate the checksum identifying a program in its snapshots
+     *
+     * @param program The program
+     * @return CRC32C of the opcodes, operands and spans
+     */
+    static int checksum(CompiledProgram program) {
+        int size = program.size();
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + size + 2 * size * Integer.BYTES);
+        buffer.putInt(size).put(program.opcodes());
+        buffer.asIntBuffer().put(program.operands()).put(program.spans());
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array());
+        return (int) crc.getValue();
+    }
+
+    static int pageCount(int memorySize) {
+        return (int) (((long) memorySize + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    static int pageLength(int page, int memorySize) {
+        return Math.min(PAGE_SIZE, memorySize - page * PAGE_SIZE);
+    }
+
+    private static int[] readCells(ByteBuffer body, int[] cells, CellWidth cellWidth) {
+        for (int i = 0; i < cells.length; i++) {
+            switch (cellWidth) {
+                case BITS_8:
+                    cells[i] = Byte.toUnsignedInt(body.get());
+                    break;
+                case BITS_16:
+                    cells[i] = Short.toUnsignedInt(body.getShort());
+                    break;
+                default:
+                    cells[i] = body.getInt();
+            }
+        }
+        return cells;
+    }
+
+    private static void writeCells(ByteBuffer body, int[] cells, CellWidth cellWidth) {
+        for (int cell : cells) {
+            switch (cellWidth) {
+                case BITS_8:
+                    body.put((byte) cell);
+                    break;
+                case BITS_16:
+                    body.putShort((short) cell);
+                    break;
+                default:
+                    body.putInt(cell);
+            }
+        }
+    }
+
+    /**
+     * Check whether this snapshot holds the whole memory or only the pages changed since the previous one
+     *
+     * @return true for a full snapshot
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Get the position of this snapshot in its chain, counting from 0 at the full snapshot that starts it
+     *
+     * @return The sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the line the run continues at
+     *
+     * @return The line number
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Get the number of lines run before the snapshot was taken
+     *
+     * @return The number of steps
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Get the number of memory pages stored in this snapshot
+     *
+     * @return The number of pages
+     */
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    int getProgramChecksum() {
+        return programChecksum;
+    }
+
+    int getPointer() {
+        return pointer;
+    }
+
+    int getMemorySize() {
+        return memorySize;
+    }
+
+    CellWidth getCellWidth() {
+        return cellWidth;
+    }
+
+    int[] pageIndexes() {
+        return pageIndexes;
+    }
+
+    int[][] pages() {
+        return pages;
+    }
+
+    byte[] pendingOutput() {
+        return pendingOutput;
+    }
+
+    /**
+     * Get the serialized size of the snapshot
+     *
+     * @return The size in bytes
+     */
+    public int byteSize() {
+        long size = HEADER_SIZE + bodySize() + Integer.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Snapshot too large to serialize: " + size + " bytes");
+        }
+        return (int) size;
+    }
+
+    private long bodySize() {
+        long size = FIXED_BODY_SIZE + pendingOutput.length;
+        for (int[] page : pages) {
+            size += Integer.BYTES + (long) page.length * cellWidth.bytes();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the serialized snapshot to a stream
+     *
+     * @param outputStream The stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(byteSize());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt((int) bodySize());
+        buffer.put((byte) (full ? 1 : 0)).putLong(sequence).putInt(programChecksum).putInt(line).putLong(steps)
+                .putInt(pointer).putInt(memorySize).put((byte) cellWidth.bytes()).putInt(pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            buffer.putInt(pageIndexes[i]);
+            writeCells(buffer, pages[i], cellWidth);
+        }
+        buffer.putInt(pendingOutput.length).put(pendingOutput);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.position() - HEADER_SIZE);
+        buffer.putInt((int) crc.getValue());
+        outputStream.write(buffer.array());
+        outputStream.flush();
+    }
+
+    @Override
+    public String toString() {
+        return (full ? "Full" : "Incremental") + " snapshot " + sequence + " at line " + line + " after " + steps
+                + " steps, " + pages.length + " pages";
+    }
+}
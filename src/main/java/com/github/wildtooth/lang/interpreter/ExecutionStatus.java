@@ -0,0 +1,23 @@
+package com.github.wildtooth.lang.interpreter;
+
+/**
+ * How a program run ended
+ */
+public enum ExecutionStatus {
+    /**
+     * The program ran off its last line
+     */
+    COMPLETED,
+    /**
+     * The run used up its step budget
+     */
+    STEP_LIMIT_EXCEEDED,
+    /**
+     * The run passed its deadline
+     */
+    TIMED_OUT,
+    /**
+     * The run was stopped through its {@link CancellationToken}
+     */
+    CANCELLED
+}
@@ -1,32 +1,66 @@
 package com.github.wildtooth.lang.interpreter;
 
-import com.github.wildtooth.lang.instruction.Instruction;
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.ControlFlowGraph;
 import com.github.wildtooth.lang.instruction.InstructionManager;
-import com.github.wildtooth.lang.io.OutputHandler;
-import com.github.wildtooth.lang.lex.LexCalculator;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.io.OutputSink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
 import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
 
 /**
  * Core interpreter class that processes instructions
  */
 public class Interpreter {
-    private final Memory memory;
+    private final ExecutionContext context;
     private final InstructionManager instructionManager;
-    private final OutputHandler outputHandler;
     private final DictionaryChecker dictionaryChecker;
+    private final ProgramLoader programLoader;
 
-    private boolean breakOut = false;
-    private int lineNum = 0;
+    private ProgramEditor programEditor;
+    private CompiledProgram compiledProgram;
+    private int compiledModificationCount;
+    private ExecutionLimits executionLimits = ExecutionLimits.none();
     private boolean debugMode = false;
+    private boolean jitEnabled = false;
+    private boolean tieredCompilation = true;
+    private CompiledProgram jitSource;
+    private JitProgram jitProgram;
+
+    /**
+     * Creates an interpreter with the default memory of {@value Memory#DEFAULT_SIZE} 8 bit cells
+     */
     public Interpreter() {
-        this.memory = new Memory();
+        this(new ByteArrayMemory());
+    }
+
+    /**
+     * Creates an interpreter running on the given memory
+     *
+     * @param memory Memory the program operates on, see {@link Memory#create}
+     */
+    public Interpreter(Memory memory) {
+        this(new ExecutionContext(memory));
+    }
+
+    /**
+     * Creates an interpreter running in the given execution context
+     *
+     * @param context Memory and output the program operates on
+     */
+    public Interpreter(ExecutionContext context) {
+        this.context = context;
         this.instructionManager = new InstructionManager();
-        this.outputHandler = new OutputHandler(memory);
         this.dictionaryChecker = new DictionaryChecker();
+        this.programLoader = new ProgramLoader(dictionaryChecker, instructionManager);
         dictionaryChecker.loadDictionary();
     }
 
@@ -37,176 +71,283 @@ public class Interpreter {
      */
     public void setDebugMode(boolean debugMode) {
         this.debugMode = debugMode;
-        this.outputHandler.setDebugMode(debugMode);
-    }
-
-    /**
-     * Executes the loaded program
-     */
-    public void execute() {
-        ArrayList<ArrayList<String>> instructions = instructionManager.getInstructions();
-
-        for (lineNum = 0; lineNum < instructions.size(); lineNum++) {
-            ArrayList<String> line = instructions.get(lineNum);
-            Instruction instruction = Instruction.UNSPECIFIED;
-            int lexVal = 0;
-
-            for (int i = 0; i < line.size(); i++) {
-                if (i == 0) { // First word
-                    instruction = parseInstruction(line.get(i));
-                    lexVal += calculateLexValue(line.get(i));
-                    if (line.size() == 1) { // If it's the only word
-                        breakOut = false;
-                        handleInstruction(instructions.size(), instruction, lexVal);
-                        if (breakOut) {
-                            break;
-                        }
-                    }
-                    continue;
-                }
-                if (i == line.size() - 1) { // Last word
-                    if (line.get(i).length() % 2 == 0) {
-                        lexVal += calculateLexValue(line.get(i));
-                    } else {
-                        lexVal -= calculateLexValue(line.get(i));
-                    }
-                    breakOut = false;
-                    handleInstruction(instructions.size(), instruction, lexVal);
-                    if (breakOut) {
-                        break;
-                    }
-                } else { // All the other words
-                    if (line.get(i).length() % 2 == 0) {
-                        lexVal += calculateLexValue(line.get(i));
-                    } else {
-                        lexVal -= calculateLexValue(line.get(i));
-                    }
-                }
+        this.context.setDebugMode(debugMode);
+        this.instructionManager.setRetainSource(debugMode);
+        this.compiledProgram = null;
+    }
+
+    /**
+     * Set the sink receiving program output. Output goes to standard output by default.
+     *
+     * @param sink The sink to write to
+     */
+    public void setOutputSink(OutputSink sink) {
+        this.context.setOutputSink(sink);
+    }
+
+    /**
+     * Set the channel the program reads its input from. Input comes from standard input by default.
+     *
+     * @param input The channel to read from, never closed by the interpreter
+     */
+    public void setInput(ReadableByteChannel input) {
+        this.context.setInput(input);
+    }
+
+    /**
+     * Set the limits every run of this interpreter is bounded by. Runs are unbounded by default.
+     *
+     * @param executionLimits The step budget, timeout and cancellation token to apply
+     */
+    public void setExecutionLimits(ExecutionLimits executionLimits) {
+        this.executionLimits = executionLimits;
+    }
+
+    /**
+     * Set the cache that programs loaded from files are looked up in, see {@link ProgramCache}. Files are always
+     * read line by line by default, and in debug mode.
+     *
+     * @param programCache The cache, or null to disable caching
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        this.programLoader.setProgramCache(programCache);
+    }
+
+    /**
+     * Compile loaded programs to JVM bytecode as a whole before running them, see {@link JitProgram#compile}.
+     * Programs that cannot be compiled fall back to tiered compilation if it is enabled. Programs are always
+     * interpreted in debug mode.
+     *
+     * @param jitEnabled true to compile programs up front
+     */
+    public void setJitEnabled(boolean jitEnabled) {
+        this.jitEnabled = jitEnabled;
+        this.jitSource = null;
+    }
+
+    /**
+     * Compile loops to JVM bytecode once they get hot, see {@link JitProgram#tiered}. Enabled by default.
+     * Programs are always interpreted in debug mode.
+     *
+     * @param tieredCompilation true to compile hot loops, false to only interpret
+     */
+    public void setTieredCompilation(boolean tieredCompilation) {
+        this.tieredCompilation = tieredCompilation;
+        this.jitSource = null;
+    }
+
+    /**
+     * Executes the loaded program. All output is flushed to the output sink before returning.
+     * Memory is not reset between runs, call {@link #reset()} first to start from a clean state.
+     *
+     * @return The result of the run
+     */
+    public ExecutionResult execute() {
+        return execute(context);
+    }
+
+    /**
+     * Executes the loaded program against another execution context, e.g. one taken from an
+     * {@link ExecutionContextPool}. This interpreter's own context is left untouched.
+     *
+     * @param executionContext The memory and output to run against
+     * @return The result of the run
+     */
+    public ExecutionResult execute(ExecutionContext executionContext) {
+        CompiledProgram program = compile();
+        if ((jitEnabled || tieredCompilation) && !debugMode) {
+            JitProgram jit = jitCompile(program);
+            if (jit != null) {
+                return jit.execute(executionContext, executionLimits);
+            }
+        }
+        ArrayList<ArrayList<String>> source = null;
+        if (debugMode) {
+            source = instructionManager.getInstructions();
+            // Lines loaded before debug mode was enabled have no source words to show
+            while (source.size() < program.size()) {
+                source.add(new ArrayList<>());
             }
+        }
+        return ProgramExecutor.execute(program, executionContext, executionLimits, source);
+    }
 
-            if (debugMode) {
-                System.out.println("Line " + lineNum + ": " + line + " -> Instruction: " + instruction.name() +
-                        " (" + instruction.getDescription() + "), Value: " + lexVal);
+    /**
+     * Continues a run of the loaded program from the snapshots taken of it, see
+     * {@link ExecutionLimits#withCheckpoints}. Memory and unflushed output are restored from the snapshots, then the
+     * run continues where the last snapshot was taken, bounded by this interpreter's limits. Output the program
+     * produced after that snapshot is produced again. Input is not part of the snapshots, the run reads on from where
+     * its input stands. Runs are resumed without tracing, also in debug mode, so snapshots taken in or outside debug
+     * mode can be resumed in either.
+     *
+     * @param snapshots The snapshots in the order they were taken
+     * @return The result of the run, counting the steps run before the last snapshot
+     * @throws IllegalArgumentException if the snapshots do not form a chain or do not match the program or memory
+     */
+    public ExecutionResult resume(List<ExecutionSnapshot> snapshots) {
+        CompiledProgram program = snapshotProgram(snapshots);
+        if ((jitEnabled || tieredCompilation) && !debugMode) {
+            JitProgram jit = jitCompile(program);
+            if (jit != null) {
+                return jit.resume(context, executionLimits, snapshots);
             }
         }
+        return ProgramExecutor.resume(program, context, executionLimits, snapshots);
     }
 
     /**
-     * Calculate lex value using the appropriate method based on debug mode
+     * Executes the loaded program with profiling. The program is run without fusing instructions, so the profile
+     * covers every source line. Output, memory and limits are handled as by {@link #execute()}.
+     *
+     * @return The profile of the run
      */
-    private int calculateLexValue(String word) {
-        return debugMode ? LexCalculator.calculateLexValueWithDebug(word) : LexCalculator.calculateLexValue(word);
+    public ExecutionProfile profile() {
+        return ProgramProfiler.profile(instructionManager.compile(), context, executionLimits);
     }
 
     /**
-     * Load instructions from a string into the instruction manager
+     * Get the control-flow graph of the loaded program, as written, with every source line
+     *
+     * @return The graph
      */
-    public void loadInstructions(String programText) {
-        AtomicBoolean isInvalidInstruction = new AtomicBoolean(false);
-        for (String line : programText.split(System.lineSeparator())) {
-            String[] instructionParts = line.split(" ");
-            if (instructionParts.length > 0) {
-                ArrayList<String> instructionList = new ArrayList<>(Arrays.asList(instructionParts));
-                instructionList.forEach(instruction -> {
-                    if (!dictionaryChecker.isValidWord(instruction)) {
-                        isInvalidInstruction.set(true);
-                    }
-                });
-                if (isInvalidInstruction.get()) {
-                    isInvalidInstruction.set(false);
-                    continue;
-                }
-                instructionManager.addInstruction(instructionList);
+    public ControlFlowGraph getControlFlowGraph() {
+        return ControlFlowGraph.build(instructionManager.compile());
+    }
+
+    /**
+     * Get the loaded program in compiled form. The program is immutable and can be shared freely.
+     * The interpreter itself is not thread-safe: to run a program from many threads, call this once and hand the
+     * result to a {@link BatchExecutor} or to {@link ProgramExecutor} with one context per thread.
+     *
+     * @return The compiled program
+     */
+    public CompiledProgram getProgram() {
+        return compile();
+    }
+
+    /**
+     * Reset the execution state: memory is cleared, the pointer is moved to 0, unflushed output is discarded and
+     * buffered input is dropped. The loaded program is kept, so the interpreter can run it again from a clean state.
+     */
+    public void reset() {
+        context.reset();
+    }
+
+    /**
+     * Remove the loaded program, so another one can be loaded into this interpreter
+     */
+    public void clearInstructions() {
+        instructionManager.clear();
+        programEditor = null;
+        compiledProgram = null;
+    }
+
+    /**
+     * Get an editor applying line-level edits to the program, see {@link ProgramEditor}. Lines to be edited must be
+     * loaded through the editor, lines loaded into this interpreter before it was first requested cannot be edited.
+     * The next run picks up all edits.
+     *
+     * @return The editor, the same one until {@link #clearInstructions()} is called
+     */
+    public ProgramEditor getEditor() {
+        if (programEditor == null) {
+            programEditor = new ProgramEditor(dictionaryChecker, instructionManager);
+        }
+        return programEditor;
+    }
+
+    /**
+     * Compile the loaded instructions, reusing the previous result if nothing was loaded since.
+     * Unless debug mode needs to trace every source line, the program is {@link #optimize optimized}.
+     */
+    private CompiledProgram compile() {
+        if (compiledProgram == null || compiledModificationCount != instructionManager.getModificationCount()) {
+            compiledModificationCount = instructionManager.getModificationCount();
+            compiledProgram = instructionManager.compile();
+            if (!debugMode) {
+                compiledProgram = optimize(compiledProgram);
+                InterpreterMetrics.global().recordOptimization(compiledProgram.countingLoops().length);
             }
         }
+        return compiledProgram;
     }
 
     /**
-     * Parse the first word of an instruction to determine the operation
+     * Remove the lines that can never run, replace counting loops and fuse runs of simple instructions
      */
-    private Instruction parseInstruction(String instruction) {
-        if (instruction.isEmpty()) {
-            return Instruction.UNSPECIFIED;
+    private static CompiledProgram optimize(CompiledProgram program) {
+        return PeepholeOptimizer.optimize(ControlFlowGraph.build(program).stripUnreachable());
+    }
+
+    /**
+     * Get the form of the loaded program snapshots were taken of. A run outside debug mode takes them of the program
+     * without its unreachable lines, a debug run of the program as written, and the two number their lines
+     * differently. Which lines were fused makes no difference to a snapshot.
+     *
+     * @return The program to resume, the one this interpreter runs if the snapshots match neither form
+     */
+    private CompiledProgram snapshotProgram(List<ExecutionSnapshot> snapshots) {
+        CompiledProgram program = compile();
+        if (snapshots.isEmpty() || Checkpointer.isTakenOf(snapshots.get(snapshots.size() - 1), program)) {
+            return program;
         }
-        return Instruction.fromLetter(instruction.charAt(0));
-    }
-
-    private void handleInstruction(int instructionsLength, Instruction instruction, int lexVal) {
-        switch (instruction) {
-            case ADD:
-                memory.setCurrentByte(memory.getCurrentUnsignedByte() + lexVal);
-                break;
-            case SUBTRACT:
-                memory.setCurrentByte(memory.getCurrentUnsignedByte() - lexVal);
-                break;
-            case SET:
-                memory.setCurrentByte(lexVal);
-                break;
-            case MOVE_POINTER_TO:
-                memory.setPointer((short) lexVal);
-                break;
-            case MOVE_POINTER_FORWARD:
-                memory.incrementPointer();
-                break;
-            case MOVE_POINTER_BACK:
-                memory.decrementPointer();
-                break;
-            case JUMP_TO_INSTRUCTION:
-                int result = (lexVal % instructionsLength);
-                if (result < 0) result += instructionsLength;
-                lineNum = result - 1;
-                breakOut = true; // Break out of the loop to jump
-                break;
-            case JUMP_IF_ZERO:
-                if (memory.getCurrentUnsignedByte() == 0) {
-                    int jumpTo = (lexVal % instructionsLength);
-                    if (jumpTo < 0) jumpTo += instructionsLength;
-                    lineNum = jumpTo - 1; // -1 because we will increment lineNum at the end of the loop
-                    breakOut = true; // Break out of the loop to jump
-                }
-                break;
-            case JUMP_IF_NOT_ZERO:
-                if (memory.getCurrentUnsignedByte() != 0) {
-                    int jumpTo = (lexVal % instructionsLength);
-                    if (jumpTo < 0) jumpTo += instructionsLength;
-                    lineNum = jumpTo - 1; // -1 because we will increment lineNum at the end of the loop
-                    breakOut = true; // Break out of the loop to jump
-                }
-                break;
-            case JUMP_BACK:
-                int jumpBack = (lineNum - lexVal);
-                if (jumpBack < 0) jumpBack += instructionsLength;
-                lineNum = jumpBack - 1; // -1 because we will increment lineNum at the end of the loop
-                breakOut = true; // Break out of the loop to jump
-                break;
-            case JUMP_FORWARD:
-                int jumpForward = (lineNum + lexVal);
-                if (jumpForward >= instructionsLength) jumpForward -= instructionsLength;
-                lineNum = jumpForward - 1; // -1 because we will increment lineNum at the end of the loop
-                breakOut = true; // Break out of the loop to jump
-                break;
-            case PRINT_ASCII_AT:
-                outputHandler.printAsciiAt(lexVal);
-                break;
-            case PRINT_ASCII:
-                outputHandler.printAscii();
-                break;
-            case PRINT_VALUE_AT:
-                outputHandler.printValueAt(lexVal);
-                break;
-            case PRINT_VALUE:
-                outputHandler.printValue();
-                break;
-            case PRINT_ASCII_MEM_TABLE:
-                outputHandler.printAsciiMemTable();
-                break;
-            case PRINT_VALUE_MEM_TABLE:
-                outputHandler.printValueMemTable();
-                break;
-            default:
-                if (debugMode) {
-                    System.out.println("Unknown instruction, ignoring: " + instruction);
-                }
+        CompiledProgram other = debugMode ? optimize(program) : instructionManager.compile();
+        return Checkpointer.isTakenOf(snapshots.get(snapshots.size() - 1), other) ? other : program;
+    }
+
+    /**
+     * Prepare a program for running as bytecode, remembering the result, or the failure, until another program is
+     * compiled. Hot loops stay compiled across runs.
+     */
+    private JitProgram jitCompile(CompiledProgram program) {
+        if (jitSource != program) {
+            jitSource = program;
+            jitProgram = jitEnabled ? JitProgram.compile(program) : null;
+            if (jitProgram == null && tieredCompilation) {
+                jitProgram = JitProgram.tiered(program);
+            }
         }
+        return jitProgram;
+    }
+
+    /**
+     * Load instructions from a string into the instruction manager
+     */
+    public void loadInstructions(String programText) {
+        programLoader.load(programText);
+        compiledProgram = null;
+    }
+
+    /**
+     * Load instructions from a file into the instruction manager, streaming it line by line
+     *
+     * @param path Path to the program file
+     * @throws IOException if the file cannot be read
+     */
+    public void loadInstructions(Path path) throws IOException {
+        programLoader.load(path);
+        compiledProgram = null;
+    }
+
+    /**
+     * Load instructions from a character stream into the instruction manager. The reader is not closed.
+     *
+     * @param reader The reader to consume
+     * @throws IOException if reading fails
+     */
+    public void loadInstructions(Reader reader) throws IOException {
+        programLoader.load(reader);
+        compiledProgram = null;
+    }
+
+    /**
+     * Load instructions from a byte channel into the instruction manager. The channel is not closed.
+     *
+     * @param channel The channel to consume
+     * @throws IOException if reading fails
+     */
+    public void loadInstructions(ReadableByteChannel channel) throws IOException {
+        programLoader.load(channel);
+        compiledProgram = null;
     }
 }
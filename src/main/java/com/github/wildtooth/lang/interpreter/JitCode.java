@@ -0,0 +1,65 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.io.InputHandler;
+import com.github.wildtooth.lang.io.OutputHandler;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+
+import java.lang.invoke.MethodHandle;
+import java.util.BitSet;
+
+/**
+ * Generated code for a range of lines of a program, see {@link JitCompiler}
+ */
+final class JitCode {
+    private final MethodHandle code;
+    private final int from;
+    private final int to;
+    private final BitSet entries;
+
+    JitCode(MethodHandle code, int from, int to, BitSet entries) {
+        this.code = code;
+        this.from = from;
+        this.to = to;
+        this.entries = entries;
+    }
+
+    /**
+     * Check whether the code can be entered at a line. Only the first line and jump targets are entry points.
+     *
+     * @param line The line to continue at
+     * @return true if {@link #run} can start at the line
+     */
+    boolean canEnter(int line) {
+        return line >= from && line <= to && entries.get(line);
+    }
+
+    /**
+     * Get the lines the code can be entered at
+     *
+     * @return The entries, shared
+     */
+    BitSet entries() {
+        return entries;
+    }
+
+    /**
+     * Run from {@link JitState#line} until control leaves the range or the checkpoint is reached at a taken jump
+     * within it. The memory pointer is kept in a local and only written back to the memory before input, output
+     * and on return.
+     *
+     * @param state  State to start from, updated on return
+     * @param memory The memory to run against
+     * @param output The output to write to
+     * @param input  The input to read from
+     */
+    void run(JitState state, ByteArrayMemory memory, OutputHandler output, InputHandler input) {
+        try {
+            code.invokeExact(state, memory.array(), memory, output, input);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // Generated code throws no checked exceptions
+            throw new IllegalStateException(t);
+        }
+    }
+}
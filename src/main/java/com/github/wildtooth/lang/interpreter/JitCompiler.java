@@ -0,0 +1,477 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.CountingLoop;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.io.InputHandler;
+import com.github.wildtooth.lang.io.OutputHandler;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.BitSet;
+
+import static com.github.wildtooth.lang.interpreter.ClassFileWriter.*;
+
+/**
+ * Translates a range of lines into a static method of a hidden class.
+ * <p>
+ * Every line becomes a block of bytecode and every jump a branch to the block of its target, which is known at
+ * compile time since it only depends on the line and its operand. The pointer, the step count and the cells array
+ * live in locals, so HotSpot can keep them in registers across a whole loop. Input and output instructions call the
+ * {@link InputHandler} and {@link OutputHandler} as the interpreter does, after writing the pointer back to the
+ * memory. Input is written to the memory's own array, the same array the code reads the cells from.
+ * <p>
+ * The method runs until a jump or the end of the range leaves it, or until the step count reaches the checkpoint at
+ * a taken jump, leaving the rest to the caller: targets past the end of the program, out of range targets, limits.
+ * Steps are accounted at taken jumps exactly like {@link ProgramExecutor} does. Counting loops are run in one go
+ * under the same conditions as when interpreting, see {@link CountingLoop}, with the cells updated in place.
+ * <p>
+ * The method signature is {@code void run(JitState, byte[] cells, ByteArrayMemory, OutputHandler, InputHandler)}.
+ */
+final class JitCompiler {
+    /**
+     * HotSpot does not compile methods with more bytecode than this, generated code would only be interpreted
+     */
+    static final int MAX_CODE_SIZE = 8000;
+
+    // Failing to compile is a bug in the compiler, not in the program, which runs on interpreted
+    private static final System.Logger LOGGER = System.getLogger(JitCompiler.class.getName());
+
+    private static final String CLASS_NAME = "com/github/wildtooth/lang/interpreter/GeneratedCode";
+    private static final String STATE = "com/github/wildtooth/lang/interpreter/JitState";
+    private static final String MEMORY = "com/github/wildtooth/lang/memory/ByteArrayMemory";
+    private static final String OUTPUT = "com/github/wildtooth/lang/io/OutputHandler";
+    private static final String INPUT = "com/github/wildtooth/lang/io/InputHandler";
+    private static final String COUNTING_LOOP = "com/github/wildtooth/lang/instruction/CountingLoop";
+    private static final String DESCRIPTOR = "(L" + STATE + ";[BL" + MEMORY + ";L" + OUTPUT + ";L" + INPUT + ";)V";
+    private static final MethodType TYPE = MethodType.methodType(void.class, JitState.class, byte[].class,
+            ByteArrayMemory.class, OutputHandler.class, InputHandler.class);
+
+    // Local variable slots
+    private static final int STATE_SLOT = 0;
+    private static final int CELLS = 1;
+    private static final int MEMORY_SLOT = 2;
+    private static final int OUTPUT_SLOT = 3;
+    private static final int INPUT_SLOT = 4;
+    private static final int POINTER = 5;
+    private static final int SIZE = 6;
+    private static final int LINE = 7;
+    private static final int STEPS = 8;        // long, two slots
+    private static final int CHECKPOINT = 10;  // long, two slots
+    private static final int SEGMENT_START = 12;
+    private static final int ITERATIONS = 13;  // long, two slots
+    private static final int MAX_LOCALS = 15;
+    private static final int MAX_STACK = 8;
+
+    private final CompiledProgram program;
+    private final int from;
+    private final int to;
+    private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+    private final Label[] lines;
+    private final Label exit = new Label();
+    private final Label fallOut = new Label();
+
+    private JitCompiler(CompiledProgram program, int from, int to) {
+        this.program = program;
+        this.from = from;
+        this.to = to;
+        this.lines = new Label[to - from + 1];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = new Label();
+        }
+    }
+
+    /**
+     * Compile a range of lines
+     *
+     * @param program The program
+     * @param from    First line of the range
+     * @param to      Last line of the range, inclusive
+     * @return The generated code, or null if the range is too large to be worth compiling or cannot be compiled
+     */
+    static JitCode compile(CompiledProgram program, int from, int to) {
+        if (from < 0 || to >= program.size() || from > to) {
+            return null;
+        }
+        JitCompiler compiler = new JitCompiler(program, from, to);
+        BitSet entries = compiler.entries();
+        compiler.emit(entries);
+        if (compiler.writer.codeSize() > MAX_CODE_SIZE) {
+            return null;
+        }
+        try {
+            byte[] classFile = compiler.writer.toByteArray("run", DESCRIPTOR, MAX_STACK, MAX_LOCALS);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            MethodHandle code = lookup.findStatic(lookup.lookupClass(), "run", TYPE);
+            return new JitCode(code, from, to, entries);
+        } catch (ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            LOGGER.log(System.Logger.Level.WARNING, () -> "Failed to compile lines " + from + "-" + to, e);
+            return null;
+        }
+    }
+
+    /**
+     * The first line and every jump target in the range, the only lines the code can be entered at.
+     * Entering loops at their head only keeps them reducible, which HotSpot optimizes much better.
+     */
+    private BitSet entries() {
+        BitSet entries = new BitSet();
+        entries.set(from);
+        for (int line = 0; line < program.size(); line++) {
+            int target = program.jumpTarget(line);
+            if (target >= from && target <= to) {
+                entries.set(target);
+            }
+        }
+        return entries;
+    }
+
+    private void emit(BitSet entries) {
+        // Load the state into locals
+        writer.op(ALOAD, MEMORY_SLOT);
+        writer.opWide(INVOKEVIRTUAL, writer.methodRef(MEMORY, "getPointer", "()I"));
+        writer.op(ISTORE, POINTER);
+        writer.op(ALOAD, CELLS);
+        writer.op(ARRAYLENGTH);
+        writer.op(ISTORE, SIZE);
+        writer.op(ALOAD, STATE_SLOT);
+        writer.opWide(GETFIELD, writer.fieldRef(STATE, "steps", "J"));
+        writer.op(LSTORE, STEPS);
+        writer.op(ALOAD, STATE_SLOT);
+        writer.opWide(GETFIELD, writer.fieldRef(STATE, "checkpoint", "J"));
+        writer.op(LSTORE, CHECKPOINT);
+        writer.op(ALOAD, STATE_SLOT);
+        writer.opWide(GETFIELD, writer.fieldRef(STATE, "line", "I"));
+        writer.op(DUP);
+        writer.op(ISTORE, LINE);
+        writer.op(DUP);
+        writer.op(ISTORE, SEGMENT_START);
+
+        Label[] targets = new Label[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            targets[i] = entries.get(from + i) ? lines[i] : exit;
+        }
+        writer.tableSwitch(from, exit, targets);
+
+        for (int line = from; line <= to; line++) {
+            writer.place(lines[line - from]);
+            emitLine(line);
+        }
+
+        // Running past the last line leaves the range
+        writer.pushInt(to + 1);
+        writer.op(ISTORE, LINE);
+        writer.place(fallOut);
+        // Account for the lines run since the last jump, up to the line in LINE
+        writer.op(LLOAD, STEPS);
+        writer.op(ILOAD, LINE);
+        writer.op(ILOAD, SEGMENT_START);
+        writer.op(ISUB);
+        writer.op(I2L);
+        writer.op(LADD);
+        writer.op(LSTORE, STEPS);
+
+        writer.place(exit);
+        writer.op(ALOAD, MEMORY_SLOT);
+        writer.op(ILOAD, POINTER);
+        writer.opWide(INVOKEVIRTUAL, writer.methodRef(MEMORY, "setPointer", "(I)V"));
+        writer.op(ALOAD, STATE_SLOT);
+        writer.op(ILOAD, LINE);
+        writer.opWide(PUTFIELD, writer.fieldRef(STATE, "line", "I"));
+        writer.op(ALOAD, STATE_SLOT);
+        writer.op(LLOAD, STEPS);
+        writer.opWide(PUTFIELD, writer.fieldRef(STATE, "steps", "J"));
+        writer.op(RETURN);
+    }
+
+    private void emitLine(int line) {
+        int operand = program.operands()[line];
+        byte opcode = program.opcodes()[line];
+        switch (opcode) {
+            case Opcode.ADD:
+            case Opcode.FUSED_ADD:
+                emitAdd(operand);
+                break;
+            case Opcode.SUBTRACT:
+                emitAdd(-operand);
+                break;
+            case Opcode.SET:
+            case Opcode.FUSED_SET:
+                writer.op(ALOAD, CELLS);
+                writer.op(ILOAD, POINTER);
+                writer.pushInt(operand);
+                writer.op(BASTORE);
+                break;
+            case Opcode.MOVE_POINTER_TO:
+                writer.pushInt(operand);
+                writer.op(ILOAD, SIZE);
+                writer.opWide(INVOKESTATIC, writer.methodRef("java/lang/Math", "floorMod", "(II)I"));
+                writer.op(ISTORE, POINTER);
+                break;
+            case Opcode.MOVE_POINTER_FORWARD:
+                emitForward();
+                break;
+            case Opcode.MOVE_POINTER_BACK:
+                emitBack();
+                break;
+            case Opcode.MOVE_POINTER_BY:
+                writer.op(ILOAD, POINTER);
+                writer.op(I2L);
+                writer.pushLong(operand);
+                writer.op(LADD);
+                writer.op(ILOAD, SIZE);
+                writer.op(I2L);
+                writer.opWide(INVOKESTATIC, writer.methodRef("java/lang/Math", "floorMod", "(JJ)J"));
+                writer.op(L2I);
+                writer.op(ISTORE, POINTER);
+                break;
+            case Opcode.JUMP_TO_INSTRUCTION:
+            case Opcode.JUMP_BACK:
+            case Opcode.JUMP_FORWARD:
+                emitJump(line);
+                return;
+            case Opcode.JUMP_IF_ZERO:
+            case Opcode.JUMP_IF_NOT_ZERO: {
+                Label notTaken = new Label();
+                writer.op(ALOAD, CELLS);
+                writer.op(ILOAD, POINTER);
+                writer.op(BALOAD);
+                writer.jump(opcode == Opcode.JUMP_IF_ZERO ? IFNE : IFEQ, notTaken);
+                emitJump(line);
+                writer.place(notTaken);
+                return;
+            }
+            case Opcode.COUNTING_LOOP:
+                emitCountingLoop(line, program.countingLoops()[operand]);
+                return;
+            case Opcode.PRINT_ASCII_AT:
+                emitOutput("printAsciiAt", operand);
+                return;
+            case Opcode.PRINT_VALUE_AT:
+                emitOutput("printValueAt", operand);
+                return;
+            case Opcode.PRINT_ASCII:
+                emitOutput("printAscii", null);
+                return;
+            case Opcode.PRINT_VALUE:
+                emitOutput("printValue", null);
+                return;
+            case Opcode.PRINT_ASCII_MEM_TABLE:
+                emitOutput("printAsciiMemTable", null);
+                return;
+            case Opcode.PRINT_VALUE_MEM_TABLE:
+                emitOutput("printValueMemTable", null);
+                return;
+            case Opcode.PRINT_BYTE:
+                emitOutput("printByte", null);
+                return;
+            case Opcode.READ_BYTE:
+                emitInput("readByte");
+                return;
+            case Opcode.TEST_END_OF_INPUT:
+                emitInput("testEndOfInput");
+                return;
+            default:
+                return;
+        }
+        int span = program.spans()[line];
+        if (span > 1) {
+            // Skip the rest of the fused lines
+            emitContinue(line + span);
+        }
+    }
+
+    /**
+     * cells[p] += amount, storing a byte truncates like the memory does
+     */
+    private void emitAdd(int amount) {
+        writer.op(ALOAD, CELLS);
+        writer.op(ILOAD, POINTER);
+        writer.op(DUP2);
+        writer.op(BALOAD);
+        writer.pushInt(amount);
+        writer.op(IADD);
+        writer.op(BASTORE);
+    }
+
+    private void emitForward() {
+        Label inRange = new Label();
+        writer.iinc(POINTER, 1);
+        writer.op(ILOAD, POINTER);
+        writer.op(ILOAD, SIZE);
+        writer.jump(IF_ICMPLT, inRange);
+        writer.pushInt(0);
+        writer.op(ISTORE, POINTER);
+        writer.place(inRange);
+    }
+
+    private void emitBack() {
+        Label inRange = new Label();
+        writer.iinc(POINTER, -1);
+        writer.op(ILOAD, POINTER);
+        writer.jump(IFGE, inRange);
+        writer.op(ILOAD, SIZE);
+        writer.pushInt(1);
+        writer.op(ISUB);
+        writer.op(ISTORE, POINTER);
+        writer.place(inRange);
+    }
+
+    /**
+     * Run a counting loop in one go and continue after it, or run its first line and go on line by line, the same
+     * way {@link CountingLoop#run} decides
+     */
+    private void emitCountingLoop(int line, CountingLoop loop) {
+        int span = program.spans()[line];
+        int loopEnd = line + span;
+        Label lineByLine = new Label();
+
+        // The cells of the loop must not overlap
+        writer.op(ILOAD, SIZE);
+        writer.pushInt(loop.getReach() + 1);
+        writer.jump(IF_ICMPLT, lineByLine);
+
+        writer.op(ALOAD, CELLS);
+        writer.op(ILOAD, POINTER);
+        writer.op(BALOAD);
+        writer.opWide(INVOKESTATIC, writer.methodRef("java/lang/Byte", "toUnsignedInt", "(B)I"));
+        writer.pushInt(loop.getCounterDelta());
+        writer.pushInt(Byte.SIZE);
+        writer.opWide(INVOKESTATIC, writer.methodRef(COUNTING_LOOP, "iterations", "(III)J"));
+        writer.op(LSTORE, ITERATIONS);
+        writer.op(LLOAD, ITERATIONS);
+        writer.op(LCONST_0);
+        writer.op(LCMP);
+        writer.jump(IFEQ, lineByLine);
+
+        // Budget from the first jump back to the checkpoint
+        writer.op(LLOAD, ITERATIONS);
+        writer.pushInt(span);
+        writer.op(LLOAD, CHECKPOINT);
+        writer.op(LLOAD, STEPS);
+        writer.op(LSUB);
+        writer.pushInt(loopEnd);
+        writer.op(ILOAD, SEGMENT_START);
+        writer.op(ISUB);
+        writer.op(I2L);
+        writer.op(LSUB);
+        writer.opWide(INVOKESTATIC, writer.methodRef(COUNTING_LOOP, "fits", "(JIJ)Z"));
+        writer.jump(IFEQ, lineByLine);
+
+        int[] offsets = loop.getOffsets();
+        for (int i = 0; i < offsets.length; i++) {
+            writer.op(ALOAD, CELLS);
+            writer.op(ILOAD, POINTER);
+            writer.op(I2L);
+            writer.pushLong(offsets[i]);
+            writer.op(LADD);
+            writer.op(ILOAD, SIZE);
+            writer.op(I2L);
+            writer.opWide(INVOKESTATIC, writer.methodRef("java/lang/Math", "floorMod", "(JJ)J"));
+            writer.op(L2I);
+            if (loop.sets(i)) {
+                writer.pushInt(loop.getValue(i));
+            } else {
+                writer.op(DUP2);
+                writer.op(BALOAD);
+                writer.op(LLOAD, ITERATIONS);
+                writer.pushLong(loop.getValue(i));
+                writer.op(LMUL);
+                writer.op(L2I);
+                writer.op(IADD);
+            }
+            writer.op(BASTORE);
+        }
+        writer.op(ALOAD, CELLS);
+        writer.op(ILOAD, POINTER);
+        writer.pushInt(0);
+        writer.op(BASTORE);
+
+        // The jumps back of all but the first iteration
+        writer.op(LLOAD, STEPS);
+        writer.op(LLOAD, ITERATIONS);
+        writer.op(LCONST_1);
+        writer.op(LSUB);
+        writer.pushLong(span);
+        writer.op(LMUL);
+        writer.op(LADD);
+        writer.op(LSTORE, STEPS);
+        emitContinue(loopEnd);
+
+        writer.place(lineByLine);
+        if (loop.getHeadMove() > 0) {
+            emitForward();
+        } else if (loop.getHeadMove() < 0) {
+            emitBack();
+        } else if (loop.getHeadDelta() != 0) {
+            emitAdd(loop.getHeadDelta());
+        }
+    }
+
+    /**
+     * Take the jump on a line: account for the lines run since the last jump, then continue at the target while it
+     * is in the range and the checkpoint has not been reached
+     */
+    private void emitJump(int line) {
+        int target = program.jumpTarget(line);
+        writer.op(LLOAD, STEPS);
+        writer.pushInt(line + 1);
+        writer.op(ILOAD, SEGMENT_START);
+        writer.op(ISUB);
+        writer.op(I2L);
+        writer.op(LADD);
+        writer.op(LSTORE, STEPS);
+        if (target >= from && target <= to) {
+            writer.pushInt(target);
+            writer.op(ISTORE, SEGMENT_START);
+            writer.op(LLOAD, STEPS);
+            writer.op(LLOAD, CHECKPOINT);
+            writer.op(LCMP);
+            writer.jump(IFLT, lines[target - from]);
+        }
+        writer.pushInt(target);
+        writer.op(ISTORE, LINE);
+        writer.jump(GOTO, exit);
+    }
+
+    /**
+     * Continue at a line without a jump, leaving the range if the line is outside of it
+     */
+    private void emitContinue(int line) {
+        if (line >= from && line <= to) {
+            writer.jump(GOTO, lines[line - from]);
+        } else {
+            writer.pushInt(line);
+            writer.op(ISTORE, LINE);
+            writer.jump(GOTO, fallOut);
+        }
+    }
+
+    private void emitOutput(String method, Integer operand) {
+        emitStorePointer();
+        writer.op(ALOAD, OUTPUT_SLOT);
+        if (operand != null) {
+            writer.pushInt(operand);
+            writer.opWide(INVOKEVIRTUAL, writer.methodRef(OUTPUT, method, "(I)V"));
+        } else {
+            writer.opWide(INVOKEVIRTUAL, writer.methodRef(OUTPUT, method, "()V"));
+        }
+    }
+
+    /**
+     * Input sets the current cell through the memory, which needs the pointer
+     */
+    private void emitInput(String method) {
+        emitStorePointer();
+        writer.op(ALOAD, INPUT_SLOT);
+        writer.opWide(INVOKEVIRTUAL, writer.methodRef(INPUT, method, "()V"));
+    }
+
+    private void emitStorePointer() {
+        writer.op(ALOAD, MEMORY_SLOT);
+        writer.op(ILOAD, POINTER);
+        writer.opWide(INVOKEVIRTUAL, writer.methodRef(MEMORY, "setPointer", "(I)V"));
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A program run partly as JVM bytecode generated by the {@link JitCompiler}.
+ * <p>
+ * Runs start out interpreted and switch to generated code at backward jumps, the back edges of loops, carrying the
+ * line, the step count and the memory pointer over. A program is either compiled as a whole up front, see
+ * {@link #compile}, or compiled loop by loop once a loop ran {@value #COMPILE_THRESHOLD} times, see {@link #tiered}.
+ * With tiered compilation, programs that run each line a few times never pay for compiling, while long running
+ * loops reach the speed of generated code.
+ * <p>
+ * The generated code works on the cells of a {@link ByteArrayMemory} directly. Runs against any other memory are
+ * left to the {@link ProgramExecutor}, and the last few lines of a run whose step budget is about to run out are
+ * interpreted, so results are the same as when interpreting. A JIT program can be run from many threads at once,
+ * each with its own context. Back edges are counted without synchronization, so concurrent runs may lose counts,
+ * which only delays compiling: a count only reaches a value by being incremented from the one below. Generated code
+ * is published through an {@link AtomicReferenceArray}, so every run sees each loop once it is compiled.
+ */
+public final class JitProgram {
+    /**
+     * Number of times a back edge has to be taken before its loop is compiled
+     */
+    public static final int COMPILE_THRESHOLD = 10000;
+
+    private final CompiledProgram program;
+    private final boolean compileLoops;
+    private final AtomicReferenceArray<JitCode> entries;  // generated code to continue in per jump target
+    private final int[] backEdges;                         // times each back edge was taken
+
+    private JitProgram(CompiledProgram program, boolean compileLoops) {
+        this.program = program;
+        this.compileLoops = compileLoops;
+        this.entries = new AtomicReferenceArray<>(program.size());
+        this.backEdges = compileLoops ? new int[program.size()] : null;
+    }
+
+    /**
+     * Compile a program to bytecode as a whole. Programs with more than a few hundred lines cannot be compiled this
+     * way, since HotSpot does not optimize methods that large; use {@link #tiered} for those.
+     *
+     * @param program The program to compile, preferably optimized by the
+     *                {@link com.github.wildtooth.lang.instruction.PeepholeOptimizer}
+     * @return The compiled program, or null if it cannot be compiled
+     */
+    public static JitProgram compile(CompiledProgram program) {
+        JitCode code = JitCompiler.compile(program, 0, program.size() - 1);
+        if (code == null) {
+            return null;
+        }
+        JitProgram jitProgram = new JitProgram(program, false);
+        jitProgram.install(code);
+        return jitProgram;
+    }
+
+    /**
+     * Prepare a program for tiered compilation. Nothing is compiled until a loop gets hot.
+     *
+     * @param program The program to run, preferably optimized by the
+     *                {@link com.github.wildtooth.lang.instruction.PeepholeOptimizer}
+     * @return The program
+     */
+    public static JitProgram tiered(CompiledProgram program) {
+        return new JitProgram(program, true);
+    }
+
+    /**
+     * Get the program this was compiled from
+     *
+     * @return The compiled program
+     */
+    public CompiledProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * Executes the program from its first line. All output is flushed to the context's sink before returning.
+     *
+     * @param context The memory and output to run against
+     * @return The result of the run
+     */
+    public ExecutionResult execute(ExecutionContext context) {
+        return execute(context, ExecutionLimits.none());
+    }
+
+    /**
+     * Executes the program from its first line until it ends or hits one of the limits.
+     * All output is flushed to the context's sink before returning.
+     *
+     * @param context The memory and output to run against
+     * @param limits  Bounds on the run
+     * @return The result of the run
+     */
+    public ExecutionResult execute(ExecutionContext context, ExecutionLimits limits) {
+        Memory memory = context.getMemory();
+        if (!(memory instanceof ByteArrayMemory)) {
+            return ProgramExecutor.execute(program, context, limits);
+        }
+        long start = System.nanoTime();
+        ExecutionResult result = null;
+        try {
+            result = ProgramExecutor.run(program, this, context, limits, 0, 0, null, null);
+            return result;
+        } finally {
+            context.getOutputHandler().flush();
+            InterpreterMetrics.global().recordExecution(result != null ? result.getSteps() : 0,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Continues a run from the snapshots taken of it, like {@link ProgramExecutor#resume}, switching to generated
+     * code at back edges. All output is flushed to the context's sink before returning.
+     *
+     * @param context   The memory and output to run against
+     * @param limits    Bounds on the job. The step budget includes the steps run before the last snapshot.
+     * @param snapshots The snapshots in the order they were taken
+     * @return The result of the run, counting the steps of the whole job
+     * @throws IllegalArgumentException if the snapshots do not form a chain or do not match the program or memory
+     */
+    public ExecutionResult resume(ExecutionContext context, ExecutionLimits limits, List<ExecutionSnapshot> snapshots) {
+        JitProgram jitProgram = context.getMemory() instanceof ByteArrayMemory ? this : null;
+        return ProgramExecutor.resume(program, jitProgram, context, limits, snapshots);
+    }
+
+    /**
+     * Count a taken back edge and compile its loop once it is hot
+     *
+     * @param line   The line holding the jump
+     * @param target The line jumped to, at most {@code line}
+     * @return Generated code to continue in at the target, or null to keep interpreting
+     */
+    JitCode backEdge(int line, int target) {
+        if (target < 0) {
+            return null;
+        }
+        JitCode entry = entries.get(target);
+        if (entry != null) {
+            return entry;
+        }
+        if (!compileLoops) {
+            return null;
+        }
+        if (++backEdges[line] == COMPILE_THRESHOLD) {
+            JitCode code = JitCompiler.compile(program, target, line);
+            if (code == null) {
+                // Too large, never try again
+                backEdges[line] = Integer.MIN_VALUE;
+                return null;
+            }
+            install(code);
+            return code;
+        }
+        return null;
+    }
+
+    /**
+     * Make generated code the code to continue in at each of its entries. Code compiled later typically covers the
+     * loop around earlier code, so it replaces it.
+     */
+    private void install(JitCode code) {
+        BitSet lines = code.entries();
+        for (int line = lines.nextSetBit(0); line >= 0; line = lines.nextSetBit(line + 1)) {
+            entries.set(line, code);
+        }
+    }
+}
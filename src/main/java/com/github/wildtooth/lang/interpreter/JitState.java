@@ -0,0 +1,22 @@
+package com.github.wildtooth.lang.interpreter;
+
+/**
+ * Execution state handed between the interpreter and generated code, besides the memory itself.
+ * Steps are accounted up to {@link #line}, so a run can continue at that line in either tier.
+ */
+final class JitState {
+    /**
+     * Line to continue at
+     */
+    int line;
+
+    /**
+     * Lines run so far
+     */
+    long steps;
+
+    /**
+     * Step count at which generated code returns at the next taken jump, see {@link LimitTracker#checkpoint()}
+     */
+    long checkpoint;
+}
@@ -0,0 +1,140 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+
+/**
+ * Enforces {@link ExecutionLimits} for a single run without touching the per-line dispatch.
+ * <p>
+ * Between two taken jumps a program runs straight through consecutive lines, so the executor only counts steps when
+ * a jump is taken, adding the lines run since the previous jump target in one go. It calls into the tracker when
+ * the count reaches the tracker's checkpoint. Checkpoints are placed so that
+ * <ul>
+ *   <li>the clock and the cancellation token are polled once every {@link ExecutionLimits#CHECK_INTERVAL} steps</li>
+ *   <li>once the remaining step budget is shorter than the program, every jump recomputes the executor's loop bound
+ *   so that the run stops exactly when the budget is used up. Fused instructions and counting loops reaching past
+ *   the bound run their lines one by one.</li>
+ *   <li>a snapshot is taken once every {@link ExecutionLimits#getCheckpointInterval()} steps, if requested, and
+ *   another one when the run ends</li>
+ * </ul>
+ * A run resumed from a snapshot starts with the steps run before it, so the step budget and the snapshot interval
+ * apply to the job as a whole. The timeout applies to each run separately.
+ */
+final class LimitTracker {
+    private final ExecutionLimits limits;
+    private final int programLength;
+    private final long maxSteps;
+    private final long timeoutNanos;
+    private final long startNanos;
+    private final long startSteps;
+    private final Checkpointer checkpointer;
+
+    private long nextCheck;
+    private long nextSnapshot;
+    private ExecutionStatus stopStatus = null;
+
+    /**
+     * Creates a tracker for a run starting now, which may continue a job that already ran some steps
+     *
+     * @param limits     The limits of the job
+     * @param program    The program being run
+     * @param context    The memory and output of the run
+     * @param startSteps Number of lines run before this run started, 0 for a new job
+     */
+    LimitTracker(ExecutionLimits limits, CompiledProgram program, ExecutionContext context, long startSteps) {
+        this.limits = limits;
+        this.programLength = program.size();
+        this.maxSteps = limits.getMaxSteps();
+        this.timeoutNanos = limits.timeoutNanos();
+        this.startNanos = timeoutNanos != Long.MAX_VALUE ? System.nanoTime() : 0;
+        this.startSteps = startSteps;
+        this.nextCheck = limits.getCancellationToken() != null || timeoutNanos != Long.MAX_VALUE
+                ? after(startSteps, ExecutionLimits.CHECK_INTERVAL) : Long.MAX_VALUE;
+        this.checkpointer = limits.getCheckpointListener() != null
+                ? new Checkpointer(program, context, limits.getCheckpointListener()) : null;
+        this.nextSnapshot = checkpointer != null ? after(startSteps, limits.getCheckpointInterval()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Get the loop bound for the start of the run
+     *
+     * @param line The line the run starts at
+     * @return The line the run must not reach
+     */
+    int start(int line) {
+        return end(startSteps, line);
+    }
+
+    /**
+     * Get the step count at which the executor has to call {@link #jump} next
+     *
+     * @return The step count
+     */
+    long checkpoint() {
+        if (stopStatus != null) {
+            return Long.MAX_VALUE;
+        }
+        // While more than a whole program's worth of budget remains, no straight run can exceed it
+        long exactFrom = maxSteps - programLength;
+        return Math.min(Math.min(nextCheck, nextSnapshot), Math.max(exactFrom, 0));
+    }
+
+    /**
+     * Account for a taken jump once the step count reached the checkpoint
+     *
+     * @param steps  Number of lines run so far
+     * @param target The line jumped to
+     * @return The line the run must not reach from the target on, at most the program length
+     */
+    int jump(long steps, int target) {
+        if (steps >= nextCheck) {
+            stopStatus = check();
+            nextCheck = steps + ExecutionLimits.CHECK_INTERVAL;
+        }
+        if (steps >= nextSnapshot && stopStatus == null) {
+            checkpointer.checkpoint(target, steps);
+            nextSnapshot = after(steps, limits.getCheckpointInterval());
+        }
+        return stopStatus != null ? target : end(steps, target);
+    }
+
+    /**
+     * Finish the run
+     *
+     * @param steps Number of lines run
+     * @param line  The line the executor stopped at
+     * @return The result of the run
+     */
+    ExecutionResult finish(long steps, int line) {
+        if (checkpointer != null) {
+            checkpointer.finish(line, steps);
+        }
+        if (line >= programLength) {
+            return new ExecutionResult(ExecutionStatus.COMPLETED, steps, line);
+        }
+        return new ExecutionResult(stopStatus != null ? stopStatus : ExecutionStatus.STEP_LIMIT_EXCEEDED, steps, line);
+    }
+
+    private int end(long steps, int from) {
+        if (steps >= maxSteps) {
+            stopStatus = ExecutionStatus.STEP_LIMIT_EXCEEDED;
+            return from;
+        }
+        long remaining = maxSteps - steps;
+        return remaining < (long) programLength - from ? (int) (from + remaining) : programLength;
+    }
+
+    private static long after(long steps, long interval) {
+        return steps > Long.MAX_VALUE - interval ? Long.MAX_VALUE : steps + interval;
+    }
+
+    private ExecutionStatus check() {
+        CancellationToken cancellationToken = limits.getCancellationToken();
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            return ExecutionStatus.CANCELLED;
+        }
+        if (timeoutNanos != Long.MAX_VALUE && System.nanoTime() - startNanos >= timeoutNanos) {
+            return ExecutionStatus.TIMED_OUT;
+        }
+        return null;
+    }
+}
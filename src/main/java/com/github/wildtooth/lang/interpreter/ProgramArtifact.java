@@ -0,0 +1,141 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.Instruction;
+import com.github.wildtooth.lang.instruction.Opcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * A loaded program in its compact binary form, as stored by the {@link ProgramCache}.
+ * <p>
+ * An artifact holds the program as it was loaded, one opcode and one operand per accepted line, before any
+ * instructions are fused. Reading one back gives the same instructions as loading the source again, without lexing
+ * or validating a single word. It also holds a SHA-256 digest of the source it was loaded from, so a reader can tell
+ * that the artifact belongs to the source it has at hand.
+ * <p>
+ * Layout (big-endian): magic, version, line count, rejected line count, source digest, one opcode byte per line
+ * padded to a multiple of four, one operand int per line.
+ */
+public final class ProgramArtifact {
+    private static final int MAGIC = 0x4F524450; // "ORDP"
+    private static final int VERSION = 3;
+    private static final int DIGEST_SIZE = 32;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + DIGEST_SIZE;
+
+    private final CompiledProgram program;
+    private final int linesRejected;
+    private final byte[] sourceDigest;
+
+    /**
+     * Creates an artifact
+     *
+     * @param program       The program as loaded, without fused instructions
+     * @param linesRejected Number of source lines skipped while loading
+     * @param sourceDigest  SHA-256 digest of the source, see {@link ProgramCache#digest}
+     * @throws IllegalArgumentException if the digest is not 32 bytes long
+     */
+    public ProgramArtifact(CompiledProgram program, int linesRejected, byte[] sourceDigest) {
+        if (sourceDigest.length != DIGEST_SIZE) {
+            throw new IllegalArgumentException("Source digest must be " + DIGEST_SIZE + " bytes long");
+        }
+        this.program = program;
+        this.linesRejected = linesRejected;
+        this.sourceDigest = sourceDigest.clone();
+    }
+
+    /**
+     * Reads an artifact from a buffer, e.g. a memory mapped file. The buffer's position is ignored.
+     *
+     * @param buffer Buffer containing the artifact, starting at index 0
+     * @return The artifact
+     * @throws IllegalArgumentException if the buffer does not contain a valid artifact
+     */
+    public static ProgramArtifact read(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a program artifact, or unsupported version");
+        }
+        int lines = buffer.getInt(8);
+        int linesRejected = buffer.getInt(12);
+        if (lines < 0 || linesRejected < 0 || buffer.limit() != serializedSize(lines)) {
+            throw new IllegalArgumentException("Corrupt program artifact, size does not match " + lines + " lines");
+        }
+
+        byte[] sourceDigest = new byte[DIGEST_SIZE];
+        buffer.get(4 * Integer.BYTES, sourceDigest);
+        byte[] opcodes = new byte[lines];
+        buffer.get(HEADER_SIZE, opcodes);
+        for (byte opcode : opcodes) {
+            if (opcode != Opcode.NOP && Opcode.toInstruction(opcode) == Instruction.UNSPECIFIED) {
+                throw new IllegalArgumentException("Corrupt program artifact, invalid opcode: " + opcode);
+            }
+        }
+        int[] operands = new int[lines];
+        buffer.duplicate().position(buffer.limit() - lines * Integer.BYTES).asIntBuffer().get(operands);
+        return new ProgramArtifact(new CompiledProgram(opcodes, operands), linesRejected, sourceDigest);
+    }
+
+    /**
+     * Opcodes are padded so that the operands are aligned
+     */
+    private static long serializedSize(int lines) {
+        return HEADER_SIZE + (((long) lines + 3) & ~3) + (long) lines * Integer.BYTES;
+    }
+
+    /**
+     * Get the program
+     *
+     * @return The program as loaded, without fused instructions
+     */
+    public CompiledProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * Get the number of source lines that were skipped while loading
+     *
+     * @return The number of rejected lines
+     */
+    public int getLinesRejected() {
+        return linesRejected;
+    }
+
+    /**
+     * Check whether the artifact was loaded from a source
+     *
+     * @param sourceDigest SHA-256 digest of the source, see {@link ProgramCache#digest}
+     * @return true if the artifact holds the same digest
+     */
+    public boolean isLoadedFrom(byte[] sourceDigest) {
+        return MessageDigest.isEqual(this.sourceDigest, sourceDigest);
+    }
+
+    /**
+     * Get the serialized size of the artifact
+     *
+     * @return The size in bytes
+     */
+    public int byteSize() {
+        return (int) serializedSize(program.size());
+    }
+
+    /**
+     * Writes the serialized artifact to a stream
+     *
+     * @param outputStream The stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        int lines = program.size();
+        ByteBuffer buffer = ByteBuffer.allocate(byteSize());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(lines).putInt(linesRejected).put(sourceDigest);
+        buffer.put(program.opcodes());
+        buffer.position(buffer.limit() - lines * Integer.BYTES);
+        buffer.asIntBuffer().put(program.operands());
+        outputStream.write(buffer.array());
+        outputStream.flush();
+    }
+}
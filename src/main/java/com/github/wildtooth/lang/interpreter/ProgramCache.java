@@ -0,0 +1,191 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Directory of {@link ProgramArtifact}s, keyed by the content of the program source and the dictionary it was
+ * validated against.
+ * <p>
+ * The key is a checksum of the dictionary header and the source bytes, so an artifact is found again whatever
+ * the path of the program, and is never used once either the program or the word list changes. Artifacts are
+ * memory mapped on lookup and written to a temporary file that is atomically moved into place, so any number of
+ * processes can share a cache directory. Stale artifacts are never removed, delete the directory to clear it.
+ * <p>
+ * Artifacts are used without validating the program again, so they must only come from the current user: the cache
+ * directory is created accessible to its owner only, and is not used at all if it belongs to someone else or others
+ * can write to it. The key is only a file name, an artifact is used only if the SHA-256 digest of the source stored
+ * in it matches.
+ * <p>
+ * The default directory is {@code programs} in the user's cache directory, {@code ~/.cache/ord-interpreter} unless
+ * {@code XDG_CACHE_HOME} is set. It can be overridden with the {@value #CACHE_DIR_PROPERTY} system property.
+ */
+public final class ProgramCache {
+    public static final String CACHE_DIR_PROPERTY = "ord.programs.cacheDir";
+
+    private static final String EXTENSION = ".ordc";
+
+    private final Path directory;
+    private volatile boolean secured;
+
+    /**
+     * Creates a cache storing its artifacts in a directory. The directory is created on first use.
+     *
+     * @param directory The cache directory
+     */
+    public ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a cache in the directory named by {@value #CACHE_DIR_PROPERTY}, or in the user's cache directory if the
+     * property is not set
+     *
+     * @return The cache
+     */
+    public static ProgramCache defaultCache() {
+        String override = System.getProperty(CACHE_DIR_PROPERTY);
+        if (override != null) {
+            return new ProgramCache(Paths.get(override));
+        }
+        return new ProgramCache(CacheDirectory.defaultRoot().resolve("programs"));
+    }
+
+    /**
+     * Get the cache directory
+     *
+     * @return The directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Calculate the key of a program. The key combines the source length with a CRC32 and a CRC32C of the dictionary
+     * header and the source. It only names the artifact's file and is easy to collide on purpose, whether the
+     * artifact really belongs to the source is decided by its {@link #digest}.
+     *
+     * @param source     The program source as raw bytes
+     * @param dictionary The dictionary the program is validated against
+     * @return The key, usable as a file name
+     */
+    public static String key(byte[] source, DictionaryIndex dictionary) {
+        byte[] header = dictionary.header();
+        CRC32 crc32 = new CRC32();
+        crc32.update(header);
+        crc32.update(source);
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(header);
+        crc32c.update(source);
+        return Integer.toHexString(source.length).concat("-")
+                .concat(Long.toHexString(crc32.getValue() << 32 | crc32c.getValue()));
+    }
+
+    /**
+     * Calculate the SHA-256 digest of the dictionary header and the source of a program, which an artifact must hold
+     * to be used for the program
+     *
+     * @param source     The program source as raw bytes
+     * @param dictionary The dictionary the program is validated against
+     * @return The digest
+     */
+    public static byte[] digest(byte[] source, DictionaryIndex dictionary) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be available", e);
+        }
+        sha256.update(dictionary.header());
+        sha256.update(source);
+        return sha256.digest();
+    }
+
+    /**
+     * Look up an artifact. Unreadable or corrupt artifacts, artifacts for another source and an unsafe cache
+     * directory are reported and treated as missing.
+     *
+     * @param key          The key of the program, see {@link #key}
+     * @param sourceDigest The digest of the program, see {@link #digest}
+     * @return The artifact, or null if it is not cached
+     */
+    public ProgramArtifact get(String key, byte[] sourceDigest) {
+        Path path = directory.resolve(key.concat(EXTENSION));
+        try {
+            secureDirectory();
+        } catch (IOException e) {
+            System.err.println("Not using program cache: " + e.getMessage());
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS)) {
+            ProgramArtifact artifact = ProgramArtifact.read(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (!artifact.isLoadedFrom(sourceDigest)) {
+                System.err.println("Ignoring cached program " + path + ": it was loaded from a different source");
+                return null;
+            }
+            return artifact;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring cached program " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Store an artifact, replacing any artifact stored under the same key. Failures are reported and otherwise
+     * ignored, the cache only ever speeds loading up.
+     *
+     * @param key      The key of the program, see {@link #key}
+     * @param artifact The artifact to store
+     * @return true if the artifact was stored
+     */
+    public boolean put(String key, ProgramArtifact artifact) {
+        Path temp = null;
+        try {
+            secureDirectory();
+            temp = Files.createTempFile(directory, "program", ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                artifact.writeTo(outputStream);
+            }
+            Files.move(temp, directory.resolve(key.concat(EXTENSION)), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to cache program in " + directory + ": " + e.getMessage());
+            return false;
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // The temporary file is left behind, nothing else depends on it
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the cache directory, or check that the existing one is safe to use. Done once per cache; checks done
+     * concurrently just do the same work twice.
+     */
+    private void secureDirectory() throws IOException {
+        if (!secured) {
+            CacheDirectory.secure(directory);
+            secured = true;
+        }
+    }
+}
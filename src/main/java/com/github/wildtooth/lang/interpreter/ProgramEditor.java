@@ -0,0 +1,200 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.InstructionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Applies line-level edits to a loaded program, recompiling only the lines that changed.
+ * <p>
+ * The editor keeps track of which source lines became instructions. Lines containing a word that is not in the
+ * dictionary, and blank lines, do not, so an edit can add or remove an instruction and shift the index of every
+ * instruction after it. Jump operands are stored unwrapped and only wrapped around the program length when the
+ * program runs, so shifting the instructions is all it takes for every jump to go exactly where it would after
+ * loading the edited source from scratch.
+ * <p>
+ * Source lines are numbered from 0 in the order they were loaded through the editor. Instructions that were already
+ * in the instruction store when the editor was created stay in front of them and are never touched; once an editor
+ * is in use, further lines must be loaded through it. Edits are applied in place: only the edited line is lexed and
+ * validated, and the instructions after it are moved with one array copy.
+ */
+public final class ProgramEditor {
+    private final InstructionManager instructionManager;
+    private final ProgramLoader programLoader;
+    private final InstructionManager lineManager = new InstructionManager();
+    private final ProgramLoader lineLoader;
+    private final int firstInstruction;
+
+    private boolean[] compiledLines = new boolean[16];
+    private int lineCount = 0;
+
+    /**
+     * Creates an editor appending to an instruction store
+     *
+     * @param dictionaryChecker  Dictionary used to validate words
+     * @param instructionManager Instruction store holding the compiled lines
+     */
+    public ProgramEditor(DictionaryChecker dictionaryChecker, InstructionManager instructionManager) {
+        this.instructionManager = instructionManager;
+        this.programLoader = new ProgramLoader(dictionaryChecker, instructionManager);
+        this.lineLoader = new ProgramLoader(dictionaryChecker, lineManager);
+        this.firstInstruction = instructionManager.size();
+    }
+
+    /**
+     * Load program text, appending its lines after the lines loaded so far. A line break at the very end of the
+     * text does not start another line.
+     *
+     * @param programText The program text
+     */
+    public void load(CharSequence programText) {
+        long loadStart = System.nanoTime();
+        int length = programText.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = programText.charAt(i);
+            if (c == '\n' || c == '\r') {
+                appendLine(programText, start, i);
+                if (c == '\r' && i + 1 < length && programText.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            appendLine(programText, start, length);
+        }
+        programLoader.recordLoad(loadStart);
+    }
+
+    private void appendLine(CharSequence chars, int start, int end) {
+        boolean compiled = programLoader.loadLine(chars, start, end);
+        makeRoom(lineCount);
+        compiledLines[lineCount++] = compiled;
+    }
+
+    /**
+     * Get the number of source lines
+     *
+     * @return The number of lines
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Get the instruction a source line was compiled into
+     *
+     * @param line The source line
+     * @return The index of the instruction, or -1 if the line is blank or contains a word that is not in the
+     * dictionary
+     */
+    public int getInstructionIndex(int line) {
+        Objects.checkIndex(line, lineCount);
+        return compiledLines[line] ? instructionsBefore(line) : -1;
+    }
+
+    /**
+     * Insert a line
+     *
+     * @param line The index the new line will have, from 0 to {@link #getLineCount()}
+     * @param text The line, without line break
+     * @return true if the line compiled into an instruction
+     */
+    public boolean insertLine(int line, CharSequence text) {
+        Objects.checkIndex(line, lineCount + 1);
+        boolean compiled = compileLine(text);
+        if (compiled) {
+            CompiledProgram instruction = lineManager.compile();
+            instructionManager.insertInstruction(instructionsBefore(line), instruction.opcodes()[0],
+                    instruction.operands()[0], lineSource());
+        }
+        makeRoom(lineCount);
+        System.arraycopy(compiledLines, line, compiledLines, line + 1, lineCount - line);
+        compiledLines[line] = compiled;
+        lineCount++;
+        return compiled;
+    }
+
+    /**
+     * Replace a line
+     *
+     * @param line The index of the line to replace
+     * @param text The new line, without line break
+     * @return true if the new line compiled into an instruction
+     */
+    public boolean replaceLine(int line, CharSequence text) {
+        Objects.checkIndex(line, lineCount);
+        boolean compiled = compileLine(text);
+        int index = instructionsBefore(line);
+        if (compiled) {
+            CompiledProgram instruction = lineManager.compile();
+            if (compiledLines[line]) {
+                instructionManager.setInstruction(index, instruction.opcodes()[0], instruction.operands()[0],
+                        lineSource());
+            } else {
+                instructionManager.insertInstruction(index, instruction.opcodes()[0], instruction.operands()[0],
+                        lineSource());
+            }
+        } else if (compiledLines[line]) {
+            instructionManager.removeInstruction(index);
+        }
+        compiledLines[line] = compiled;
+        return compiled;
+    }
+
+    /**
+     * Delete a line
+     *
+     * @param line The index of the line to delete
+     */
+    public void deleteLine(int line) {
+        Objects.checkIndex(line, lineCount);
+        if (compiledLines[line]) {
+            instructionManager.removeInstruction(instructionsBefore(line));
+        }
+        System.arraycopy(compiledLines, line + 1, compiledLines, line, lineCount - line - 1);
+        lineCount--;
+    }
+
+    /**
+     * Compile a single line into the scratch instruction store
+     */
+    private boolean compileLine(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n' || text.charAt(i) == '\r') {
+                throw new IllegalArgumentException("Line must not contain a line break");
+            }
+        }
+        lineManager.clear();
+        lineManager.setRetainSource(instructionManager.isRetainingSource());
+        return lineLoader.loadLine(text, 0, text.length());
+    }
+
+    private ArrayList<String> lineSource() {
+        ArrayList<ArrayList<String>> source = lineManager.getInstructions();
+        return source.isEmpty() ? null : source.get(0);
+    }
+
+    /**
+     * Count the instructions in front of a source line
+     */
+    private int instructionsBefore(int line) {
+        int index = firstInstruction;
+        for (int i = 0; i < line; i++) {
+            if (compiledLines[i]) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    private void makeRoom(int length) {
+        if (length == compiledLines.length) {
+            compiledLines = Arrays.copyOf(compiledLines, length * 2);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.CountingLoop;
+import com.github.wildtooth.lang.instruction.Instruction;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.io.InputHandler;
+import com.github.wildtooth.lang.io.OutputHandler;
+import com.github.wildtooth.lang.lex.LexCalculator;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs compiled programs against an {@link ExecutionContext}.
+ * The executor keeps no state of its own: the program is only read and everything a run changes lives in the
+ * context, so one program can be run any number of times against reset or pooled contexts.
+ * <p>
+ * Runs can be bounded by {@link ExecutionLimits}. Limits are only accounted for at taken jumps, see
+ * {@link LimitTracker}, so straight-line dispatch costs the same whether a run is bounded or not. Limits can also ask
+ * for {@link ExecutionSnapshot}s of the run, from which an interrupted run can be resumed with {@link #resume}.
+ * <p>
+ * Jumps go to the targets resolved once per program by {@link CompiledProgram#jumpTargets()}, so a taken jump costs
+ * an array load rather than a division. Counting loops are run in one go where that skips no checkpoint, see
+ * {@link CountingLoop}.
+ * <p>
+ * Traced, profiled and JIT runs share the one dispatch loop, {@link #run}, so every opcode is implemented once.
+ */
+public final class ProgramExecutor {
+
+    private ProgramExecutor() {
+    }
+
+    /**
+     * Executes a program from its first line. All output is flushed to the context's sink before returning.
+     *
+     * @param program The program to run
+     * @param context The memory and output to run against
+     * @return The result of the run, always {@link ExecutionStatus#COMPLETED}
+     */
+    public static ExecutionResult execute(CompiledProgram program, ExecutionContext context) {
+        return execute(program, context, ExecutionLimits.none(), null);
+    }
+
+    /**
+     * Executes a program from its first line until it ends or hits one of the limits.
+     * All output is flushed to the context's sink before returning.
+     *
+     * @param program The program to run
+     * @param context The memory and output to run against
+     * @param limits  Bounds on the run
+     * @return The result of the run
+     */
+    public static ExecutionResult execute(CompiledProgram program, ExecutionContext context, ExecutionLimits limits) {
+        return execute(program, context, limits, null);
+    }
+
+    /**
+     * Executes a program, tracing every line if source words are given
+     *
+     * @param program The program to run
+     * @param context The memory and output to run against
+     * @param limits  Bounds on the run
+     * @param source  Source words per line for debug tracing, or null to run without tracing
+     * @return The result of the run
+     */
+    static ExecutionResult execute(CompiledProgram program, ExecutionContext context, ExecutionLimits limits,
+                                   ArrayList<ArrayList<String>> source) {
+        long start = System.nanoTime();
+        ExecutionResult result = null;
+        try {
+            result = run(program, null, context, limits, 0, 0, null, source);
+            return result;
+        } finally {
+            context.getOutputHandler().flush();
+            InterpreterMetrics.global().recordExecution(result != null ? result.getSteps() : 0,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Continues a run from the snapshots taken of it, see {@link ExecutionLimits#withCheckpoints}. The memory and the
+     * unflushed output of the context are restored from the last full snapshot in the list and the snapshots after
+     * it, then the run continues at the line of the last snapshot until it ends or hits one of the limits. All output
+     * is flushed to the context's sink before returning.
+     * <p>
+     * Output is written at least once: output the program produced after the last snapshot was taken is produced
+     * again.
+     *
+     * @param program   The program the snapshots were taken of
+     * @param context   The memory and output to run against
+     * @param limits    Bounds on the job. The step budget includes the steps run before the last snapshot.
+     * @param snapshots The snapshots in the order they were taken
+     * @return The result of the run, counting the steps of the whole job
+     * @throws IllegalArgumentException if the snapshots do not form a chain or do not match the program or memory
+     */
+    public static ExecutionResult resume(CompiledProgram program, ExecutionContext context, ExecutionLimits limits,
+                                         List<ExecutionSnapshot> snapshots) {
+        return resume(program, null, context, limits, snapshots);
+    }
+
+    /**
+     * Continues a run from its snapshots, switching to generated code in a JIT program if one is given
+     */
+    static ExecutionResult resume(CompiledProgram program, JitProgram jitProgram, ExecutionContext context,
+                                  ExecutionLimits limits, List<ExecutionSnapshot> snapshots) {
+        ExecutionSnapshot snapshot = Checkpointer.restore(program, context, snapshots);
+        long start = System.nanoTime();
+        ExecutionResult result = null;
+        try {
+            result = run(program, jitProgram, context, limits, snapshot.getLine(), snapshot.getSteps(), null, null);
+            return result;
+        } finally {
+            context.getOutputHandler().flush();
+            InterpreterMetrics.global().recordExecution(result != null ? result.getSteps() - snapshot.getSteps() : 0,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a program from a line until it ends or hits one of the limits. Output is not flushed.
+     * <p>
+     * This is the dispatch loop of every interpreted run: plain and traced runs, profiled runs and the interpreted
+     * part of JIT runs, from the first line or from a snapshot. At a back edge whose target has generated code, the
+     * line, the step count and the checkpoint are handed over in a {@link JitState}; the memory is shared. When the
+     * generated code returns, because control left its lines or the checkpoint was reached, interpreting continues
+     * at the line it stopped at. Generated code runs whole straight runs between two jumps, so it is only entered
+     * while the step budget covers them, and the interpreter runs the last lines of a bounded run.
+     *
+     * @param program    The program to run
+     * @param jitProgram The program to switch to generated code in at back edges, or null to only interpret.
+     *                   Requires the memory of the context to be a {@link ByteArrayMemory}.
+     * @param context    The memory and output to run against
+     * @param limits     Bounds on the job
+     * @param line       The line to start at
+     * @param startSteps Number of lines run before, by the run this one continues
+     * @param profile    The profile to record, or null to run without profiling
+     * @param source     Source words per line for debug tracing, or null to run without tracing
+     * @return The result of the run, counting the steps of the whole job
+     */
+    static ExecutionResult run(CompiledProgram program, JitProgram jitProgram, ExecutionContext context,
+                               ExecutionLimits limits, int line, long startSteps, ExecutionProfile profile,
+                               ArrayList<ArrayList<String>> source) {
+        Memory memory = context.getMemory();
+        OutputHandler outputHandler = context.getOutputHandler();
+        InputHandler inputHandler = context.getInputHandler();
+        boolean debugMode = source != null;
+        byte[] opcodes = program.opcodes();
+        int[] operands = program.operands();
+        int[] spans = program.spans();
+        byte[] lineOpcodes = program.lineOpcodes();
+        int[] lineOperands = program.lineOperands();
+        int[] jumpTargets = program.jumpTargets();
+        CountingLoop[] countingLoops = program.countingLoops();
+        int instructionsLength = program.size();
+        long[] jumpCounts = profile != null ? profile.jumpCounts() : null;
+        JitState state = jitProgram != null ? new JitState() : null;
+
+        LimitTracker limitTracker = new LimitTracker(limits, program, context, startSteps);
+        int end = limitTracker.start(line);
+        long checkpoint = limitTracker.checkpoint();
+        if (profile != null) {
+            checkpoint = Math.min(checkpoint, startSteps + profile.getSampleInterval());
+        }
+        long steps = startSteps;   // lines run up to the last taken jump
+        int segmentStart = line;   // the line the last taken jump went to
+
+        int lineNum;
+        for (lineNum = line; lineNum < end; lineNum++) {
+            int lexVal = operands[lineNum];
+            byte opcode = opcodes[lineNum];
+            if (debugMode) {
+                traceLexValues(source.get(lineNum));
+            }
+
+            int currentLine = lineNum;
+            switch (opcode) {
+                case Opcode.ADD:
+                    memory.setCurrentCell(memory.getCurrentCell() + lexVal);
+                    break;
+                case Opcode.SUBTRACT:
+                    memory.setCurrentCell(memory.getCurrentCell() - lexVal);
+                    break;
+                case Opcode.SET:
+                    memory.setCurrentCell(lexVal);
+                    break;
+                case Opcode.MOVE_POINTER_TO:
+                    memory.setPointer(lexVal);
+                    break;
+                case Opcode.MOVE_POINTER_FORWARD:
+                    memory.incrementPointer();
+                    break;
+                case Opcode.MOVE_POINTER_BACK:
+                    memory.decrementPointer();
+                    break;
+                case Opcode.JUMP_IF_ZERO:
+                case Opcode.JUMP_IF_NOT_ZERO:
+                    if ((memory.getCurrentCell() == 0) != (opcode == Opcode.JUMP_IF_ZERO)) {
+                        break;
+                    }
+                    // The jump is taken, fall through
+                case Opcode.JUMP_TO_INSTRUCTION:
+                case Opcode.JUMP_BACK:
+                case Opcode.JUMP_FORWARD:
+                    steps += lineNum + 1 - segmentStart;
+                    segmentStart = jumpTargets[lineNum];
+                    if (jumpCounts != null) {
+                        jumpCounts[lineNum]++;
+                    }
+                    if (steps >= checkpoint) {
+                        end = limitTracker.jump(steps, segmentStart);
+                        checkpoint = limitTracker.checkpoint();
+                        if (profile != null) {
+                            // Sampling shares the checkpoint with the limits, so the common path has a single check
+                            checkpoint = Math.min(checkpoint, profile.sample(lineNum, steps));
+                        }
+                    }
+                    if (jitProgram != null && segmentStart <= lineNum && end == instructionsLength) {
+                        JitCode code = jitProgram.backEdge(lineNum, segmentStart);
+                        if (code != null) {
+                            state.line = segmentStart;
+                            state.steps = steps;
+                            state.checkpoint = checkpoint;
+                            code.run(state, (ByteArrayMemory) memory, outputHandler, inputHandler);
+                            segmentStart = state.line;
+                            steps = state.steps;
+                            if (steps >= checkpoint) {
+                                end = limitTracker.jump(steps, segmentStart);
+                                checkpoint = limitTracker.checkpoint();
+                            }
+                        }
+                    }
+                    // -1 because we will increment lineNum at the end of the loop
+                    lineNum = segmentStart - 1;
+                    break;
+                case Opcode.PRINT_ASCII_AT:
+                    outputHandler.printAsciiAt(lexVal);
+                    break;
+                case Opcode.PRINT_ASCII:
+                    outputHandler.printAscii();
+                    break;
+                case Opcode.PRINT_VALUE_AT:
+                    outputHandler.printValueAt(lexVal);
+                    break;
+                case Opcode.PRINT_VALUE:
+                    outputHandler.printValue();
+                    break;
+                case Opcode.PRINT_ASCII_MEM_TABLE:
+                    outputHandler.printAsciiMemTable();
+                    break;
+                case Opcode.PRINT_VALUE_MEM_TABLE:
+                    outputHandler.printValueMemTable();
+                    break;
+                case Opcode.PRINT_BYTE:
+                    outputHandler.printByte();
+                    break;
+                case Opcode.READ_BYTE:
+                    inputHandler.readByte();
+                    break;
+                case Opcode.TEST_END_OF_INPUT:
+                    inputHandler.testEndOfInput();
+                    break;
+                case Opcode.MOVE_POINTER_BY:
+                    if (lineNum + spans[lineNum] > end) {
+                        // The run stops before the last of the fused lines, so they are run one by one
+                        runLine(lineOpcodes[lineNum], lineOperands[lineNum], memory);
+                        break;
+                    }
+                    memory.movePointer(lexVal);
+                    lineNum += spans[lineNum] - 1; // Skip the rest of the fused lines
+                    break;
+                case Opcode.FUSED_ADD:
+                    if (lineNum + spans[lineNum] > end) {
+                        runLine(lineOpcodes[lineNum], lineOperands[lineNum], memory);
+                        break;
+                    }
+                    memory.setCurrentCell(memory.getCurrentCell() + lexVal);
+                    lineNum += spans[lineNum] - 1;
+                    break;
+                case Opcode.FUSED_SET:
+                    if (lineNum + spans[lineNum] > end) {
+                        runLine(lineOpcodes[lineNum], lineOperands[lineNum], memory);
+                        break;
+                    }
+                    memory.setCurrentCell(lexVal);
+                    lineNum += spans[lineNum] - 1;
+                    break;
+                case Opcode.COUNTING_LOOP:
+                    // Profiles count every line, so profiled runs go through the loop line by line
+                    int loopEnd = lineNum + spans[lineNum];
+                    long iterations = loopEnd <= end && profile == null
+                            ? countingLoops[lexVal].run(memory, checkpoint - (steps + loopEnd - segmentStart)) : 0;
+                    if (iterations > 0) {
+                        steps += (iterations - 1) * spans[lineNum];
+                        lineNum = loopEnd - 1;
+                    } else {
+                        countingLoops[lexVal].runHead(memory);
+                    }
+                    break;
+                default:
+                    if (debugMode) {
+                        System.out.println("Unknown instruction, ignoring: " + Instruction.UNSPECIFIED);
+                    }
+            }
+
+            if (debugMode) {
+                Instruction instruction = Opcode.toInstruction(opcodes[currentLine]);
+                System.out.println("Line " + lineNum + ": " + source.get(currentLine) + " -> Instruction: " + instruction.name() +
+                        " (" + instruction.getDescription() + "), Value: " + lexVal);
+            }
+        }
+        if (profile != null) {
+            profile.endLastRun(segmentStart, lineNum);
+        }
+        return limitTracker.finish(steps + lineNum - segmentStart, lineNum);
+    }
+
+    /**
+     * Run a line that a fused instruction stands for on its own, see {@link CompiledProgram#lineOpcodes()}. Only
+     * cell arithmetic, pointer moves and lines that do nothing are ever fused.
+     */
+    private static void runLine(byte opcode, int operand, Memory memory) {
+        switch (opcode) {
+            case Opcode.ADD:
+                memory.setCurrentCell(memory.getCurrentCell() + operand);
+                break;
+            case Opcode.SUBTRACT:
+                memory.setCurrentCell(memory.getCurrentCell() - operand);
+                break;
+            case Opcode.SET:
+                memory.setCurrentCell(operand);
+                break;
+            case Opcode.MOVE_POINTER_FORWARD:
+                memory.incrementPointer();
+                break;
+            case Opcode.MOVE_POINTER_BACK:
+                memory.decrementPointer();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Print the lex value calculation of every word on a line
+     */
+    private static void traceLexValues(ArrayList<String> line) {
+        for (String word : line) {
+            LexCalculator.calculateLexValueWithDebug(word);
+        }
+    }
+}
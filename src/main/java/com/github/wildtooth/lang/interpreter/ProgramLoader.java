@@ -0,0 +1,414 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.InstructionCompiler;
+import com.github.wildtooth.lang.instruction.InstructionManager;
+import com.github.wildtooth.lang.lex.LexCalculator;
+import com.github.wildtooth.lang.lex.Tokenizer;
+import com.github.wildtooth.lang.lex.Tokens;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Streams program text into an {@link InstructionManager}, validating and compiling one line at a time.
+ * <p>
+ * Only the line currently being read is buffered, so memory use is bounded by the longest line rather than by the
+ * size of the program. Lines may end in {@code \n}, {@code \r\n} or {@code \r}. Words are separated by single
+ * spaces; a line containing a word that is not in the dictionary is skipped, which is how comments are written.
+ * <p>
+ * Byte input is read as ISO-8859-1. Words containing non-ASCII characters can never be in the dictionary, so this
+ * gives the same result as decoding UTF-8 at a fraction of the cost. Files read into memory as a whole are split
+ * into words by the {@link Tokenizer}, which also sums up their lex values, straight from the bytes.
+ * <p>
+ * Programs of at least {@value #PARALLEL_THRESHOLD} characters held in memory or read from a file are loaded in
+ * parallel when more than one core is available. The text is split into line-aligned chunks that are validated and
+ * compiled on the common {@link ForkJoinPool}, each into its own instruction store, and appended in order, so the
+ * result is line for line the same as loading sequentially. Such files are read into memory as a whole.
+ * <p>
+ * Each load is recorded in {@link InterpreterMetrics#global()}: accepted and rejected lines are counted in plain
+ * fields while reading and published once the load is complete.
+ * <p>
+ * With a {@link ProgramCache} set, files are looked up by content before being read line by line. On a hit the
+ * cached instructions are added as they are, skipping lexing and dictionary validation entirely. Source words are
+ * not cached, so the cache is bypassed while they are retained.
+ */
+public final class ProgramLoader {
+    /**
+     * Minimum number of characters for a program to be loaded in parallel
+     */
+    public static final int PARALLEL_THRESHOLD = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNKS_PER_CORE = 4;
+    private static final Tokenizer TOKENIZER = Tokenizer.best();
+
+    private final DictionaryChecker dictionaryChecker;
+    private final InstructionManager instructionManager;
+    private ProgramCache programCache;
+
+    private char[] line = new char[256];
+    private CharBuffer lineView = CharBuffer.wrap(line);
+    private int lineLength = 0;
+    private boolean afterCarriageReturn = false;
+    private Tokens tokens;
+    private int linesAccepted = 0;
+    private int linesRejected = 0;
+
+    /**
+     * Creates a new ProgramLoader
+     *
+     * @param dictionaryChecker  Dictionary used to validate words
+     * @param instructionManager Instruction store that receives the compiled lines
+     */
+    public ProgramLoader(DictionaryChecker dictionaryChecker, InstructionManager instructionManager) {
+        this.dictionaryChecker = dictionaryChecker;
+        this.instructionManager = instructionManager;
+    }
+
+    /**
+     * Set the cache files are looked up in and stored to
+     *
+     * @param programCache The cache, or null to always read the source
+     */
+    public void setProgramCache(ProgramCache programCache) {
+        this.programCache = programCache;
+    }
+
+    /**
+     * Load a program held in memory
+     *
+     * @param programText The program text
+     */
+    public void load(CharSequence programText) {
+        long loadStart = System.nanoTime();
+        loadText(programText, null);
+        recordLoad(loadStart);
+    }
+
+    /**
+     * Load a program from a file
+     *
+     * @param path Path to the program file
+     * @throws IOException if reading fails
+     */
+    public void load(Path path) throws IOException {
+        DictionaryIndex dictionary = programCache != null && !instructionManager.isRetainingSource()
+                ? dictionaryChecker.getDictionary() : null;
+        if (dictionary != null) {
+            loadCached(path, dictionary);
+            return;
+        }
+        if (isParallel(Files.size(path))) {
+            long loadStart = System.nanoTime();
+            byte[] source = Files.readAllBytes(path);
+            loadText(new String(source, StandardCharsets.ISO_8859_1), source);
+            recordLoad(loadStart);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            load(channel);
+        }
+    }
+
+    /**
+     * Load a program from a character stream. The reader is not closed.
+     *
+     * @param reader The reader to consume
+     * @throws IOException if reading fails
+     */
+    public void load(Reader reader) throws IOException {
+        long loadStart = System.nanoTime();
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                accept(buffer[i]);
+            }
+        }
+        finish();
+        recordLoad(loadStart);
+    }
+
+    /**
+     * Load a program from a byte channel. The channel is not closed.
+     *
+     * @param channel The channel to consume
+     * @throws IOException if reading fails
+     */
+    public void load(ReadableByteChannel channel) throws IOException {
+        long loadStart = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        while (channel.read(buffer) != -1) {
+            int read = buffer.position();
+            for (int i = 0; i < read; i++) {
+                accept((char) (bytes[i] & 0xFF));
+            }
+            buffer.clear();
+        }
+        finish();
+        recordLoad(loadStart);
+    }
+
+    private void loadCached(Path path, DictionaryIndex dictionary) throws IOException {
+        long loadStart = System.nanoTime();
+        byte[] source = Files.readAllBytes(path);
+        String key = ProgramCache.key(source, dictionary);
+        byte[] sourceDigest = ProgramCache.digest(source, dictionary);
+        ProgramArtifact artifact = programCache.get(key, sourceDigest);
+        InterpreterMetrics.global().recordCacheLookup(artifact != null);
+        if (artifact != null) {
+            instructionManager.addInstructions(artifact.getProgram());
+            linesAccepted = artifact.getProgram().size();
+            linesRejected = artifact.getLinesRejected();
+            recordLoad(loadStart);
+            return;
+        }
+
+        int firstLine = instructionManager.size();
+        loadText(new String(source, StandardCharsets.ISO_8859_1), source);
+        programCache.put(key, new ProgramArtifact(instructionManager.compile(firstLine), linesRejected,
+                sourceDigest));
+        recordLoad(loadStart);
+    }
+
+    private boolean isParallel(long length) {
+        return length >= PARALLEL_THRESHOLD && !instructionManager.isRetainingSource()
+                && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    /**
+     * Load a whole program
+     *
+     * @param text  The program text
+     * @param bytes The bytes the text was read from as ISO-8859-1, or null to work on the text alone
+     */
+    private void loadText(CharSequence text, byte[] bytes) {
+        int length = text.length();
+        if (!isParallel(length)) {
+            loadLines(text, bytes, 0, length);
+            return;
+        }
+
+        // Make sure the dictionary is loaded before the chunks start reading it
+        dictionaryChecker.getDictionary();
+        int chunkCount = Math.min(Runtime.getRuntime().availableProcessors() * CHUNKS_PER_CORE,
+                length / MIN_CHUNK_SIZE);
+        ChunkLoader[] chunks = new ChunkLoader[chunkCount];
+        int start = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int end = i == chunkCount - 1 ? length : nextLineStart(text, (int) ((long) length * (i + 1) / chunkCount));
+            chunks[i] = new ChunkLoader(dictionaryChecker, text, bytes, start, end);
+            start = end;
+        }
+        ForkJoinTask.invokeAll(chunks);
+        for (ChunkLoader chunk : chunks) {
+            ProgramLoader loader = chunk.join();
+            instructionManager.addInstructions(loader.instructionManager.compile());
+            linesAccepted += loader.linesAccepted;
+            linesRejected += loader.linesRejected;
+        }
+    }
+
+    /**
+     * Find the start of the first line beginning at or after an index
+     */
+    private static int nextLineStart(CharSequence text, int index) {
+        int length = text.length();
+        while (index > 0 && index < length) {
+            char previous = text.charAt(index - 1);
+            if (previous == '\n' || previous == '\r' && text.charAt(index) != '\n') {
+                return index;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Loads one chunk of a program into an instruction store of its own
+     */
+    @SuppressWarnings("serial") // Serializable through ForkJoinTask, but tasks are never serialized
+    private static final class ChunkLoader extends RecursiveTask<ProgramLoader> {
+        private final DictionaryChecker dictionaryChecker;
+        private final CharSequence text;
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+
+        ChunkLoader(DictionaryChecker dictionaryChecker, CharSequence text, byte[] bytes, int start, int end) {
+            this.dictionaryChecker = dictionaryChecker;
+            this.text = text;
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected ProgramLoader compute() {
+            ProgramLoader loader = new ProgramLoader(dictionaryChecker, new InstructionManager());
+            loader.loadLines(text, bytes, start, end);
+            return loader;
+        }
+    }
+
+    /**
+     * Load the lines in a range of characters. The range must start at the beginning of a line.
+     */
+    private void loadLines(CharSequence text, byte[] bytes, int from, int to) {
+        if (bytes != null) {
+            loadTokens(text, bytes, from, to);
+            return;
+        }
+        int start = from;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                loadLine(text, start, i);
+                if (c == '\r' && i + 1 < to && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        loadLine(text, start, to);
+    }
+
+    /**
+     * Load the lines in a range of bytes, split into words by the tokenizer
+     */
+    private void loadTokens(CharSequence text, byte[] bytes, int from, int to) {
+        if (tokens == null) {
+            tokens = new Tokens();
+        }
+        TOKENIZER.tokenize(bytes, from, to, tokens);
+        int first = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            int end = tokens.end(i);
+            if (end == to || bytes[end] != ' ') {
+                loadTokenLine(text, first, i);
+                first = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Validate and compile the line made of a run of tokenized words, like {@link #loadLine(CharSequence, int, int)}
+     */
+    private void loadTokenLine(CharSequence chars, int first, int last) {
+        while (last > first && tokens.start(last) == tokens.end(last)) {
+            last--;
+        }
+        int start = tokens.start(first);
+        int end = tokens.end(last);
+        if (end == start) {
+            return;
+        }
+
+        int operand = tokens.value(first);
+        for (int i = first; i <= last; i++) {
+            int wordStart = tokens.start(i);
+            int wordEnd = tokens.end(i);
+            if (!dictionaryChecker.isValidWord(chars, wordStart, wordEnd)) {
+                linesRejected++;
+                return;
+            }
+            if (i > first) {
+                // Negated for odd lengths, as in InstructionCompiler.signedWordValue
+                operand += (wordEnd - wordStart) % 2 == 0 ? tokens.value(i) : -tokens.value(i);
+            }
+        }
+        addLine(chars, start, end, operand);
+    }
+
+    private void accept(char c) {
+        if (c == '\n' || c == '\r') {
+            boolean endOfCrLf = c == '\n' && afterCarriageReturn;
+            afterCarriageReturn = c == '\r';
+            if (!endOfCrLf) {
+                loadLine(lineView, 0, lineLength);
+                lineLength = 0;
+            }
+            return;
+        }
+        afterCarriageReturn = false;
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+            lineView = CharBuffer.wrap(line);
+        }
+        line[lineLength++] = c;
+    }
+
+    private void finish() {
+        loadLine(lineView, 0, lineLength);
+        lineLength = 0;
+        afterCarriageReturn = false;
+    }
+
+    void recordLoad(long loadStart) {
+        InterpreterMetrics.global().recordLoad(linesAccepted, linesRejected, System.nanoTime() - loadStart);
+        linesAccepted = 0;
+        linesRejected = 0;
+    }
+
+    /**
+     * Validate and compile one line, adding it to the instruction store if it is valid. Trailing spaces are ignored,
+     * any other empty word invalidates the line.
+     *
+     * @return true if the line was added
+     */
+    boolean loadLine(CharSequence chars, int start, int end) {
+        while (end > start && chars.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end == start) {
+            return false;
+        }
+
+        int operand = 0;
+        int wordStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || chars.charAt(i) == ' ') {
+                if (!dictionaryChecker.isValidWord(chars, wordStart, i)) {
+                    linesRejected++;
+                    return false;
+                }
+                if (wordStart == start) {
+                    operand = LexCalculator.calculateLexValue(chars, wordStart, i);
+                } else {
+                    operand += InstructionCompiler.signedWordValue(chars, wordStart, i);
+                }
+                wordStart = i + 1;
+            }
+        }
+
+        addLine(chars, start, end, operand);
+        return true;
+    }
+
+    private void addLine(CharSequence chars, int start, int end, int operand) {
+        linesAccepted++;
+        byte opcode = InstructionCompiler.compileOpcode(chars.charAt(start));
+        if (instructionManager.isRetainingSource()) {
+            String text = chars.subSequence(start, end).toString();
+            instructionManager.addInstruction(opcode, operand, new ArrayList<>(Arrays.asList(text.split(" "))));
+        } else {
+            instructionManager.addInstruction(opcode, operand);
+        }
+    }
+}
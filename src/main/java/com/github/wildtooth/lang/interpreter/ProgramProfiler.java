@@ -0,0 +1,67 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+
+/**
+ * Runs compiled programs like {@link ProgramExecutor} while collecting an {@link ExecutionProfile}.
+ * <p>
+ * Profiled runs go through the dispatch loop of the {@link ProgramExecutor}, which records the profile at taken
+ * jumps only, like the limits. A straight run starts at a jump target and ends at the next taken jump, executing
+ * each line in between once. Since the target of a jump never changes, counting how often each jump was taken is
+ * enough to recover per-line counts afterwards. Every {@value #DEFAULT_SAMPLE_INTERVAL} steps, the next stretch
+ * between two jumps, typically one loop iteration, is timed with {@link System#nanoTime()}. Lines that do not jump
+ * therefore run as fast as without profiling, and each taken jump costs a counter increment.
+ * <p>
+ * Instruction counts are derived from line counts. Profile an unoptimized program, as {@link Interpreter#profile()}
+ * does, to have them reported per source instruction rather than per fused instruction.
+ */
+public final class ProgramProfiler {
+    /**
+     * Default number of steps between two timing samples
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 4093;
+
+    private ProgramProfiler() {
+    }
+
+    /**
+     * Profiles a program from its first line. All output is flushed to the context's sink before returning.
+     *
+     * @param program The program to run
+     * @param context The memory and output to run against
+     * @param limits  Bounds on the run
+     * @return The profile of the run
+     */
+    public static ExecutionProfile profile(CompiledProgram program, ExecutionContext context, ExecutionLimits limits) {
+        return profile(program, context, limits, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Profiles a program from its first line. All output is flushed to the context's sink before returning.
+     *
+     * @param program        The program to run
+     * @param context        The memory and output to run against
+     * @param limits         Bounds on the run
+     * @param sampleInterval Number of steps between two timing samples
+     * @return The profile of the run
+     */
+    public static ExecutionProfile profile(CompiledProgram program, ExecutionContext context, ExecutionLimits limits,
+                                           int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        ExecutionProfile profile = new ExecutionProfile(program, sampleInterval);
+        long start = System.nanoTime();
+        ExecutionResult result = null;
+        try {
+            result = ProgramExecutor.run(program, null, context, limits, 0, 0, profile, null);
+            profile.finish(result, System.nanoTime() - start);
+        } finally {
+            context.getOutputHandler().flush();
+            InterpreterMetrics.global().recordExecution(result != null ? result.getSteps() : 0,
+                    System.nanoTime() - start);
+        }
+        return profile;
+    }
+}
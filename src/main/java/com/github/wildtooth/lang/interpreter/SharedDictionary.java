@@ -0,0 +1,170 @@
+package com.github.wildtooth.lang.interpreter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide dictionary, loaded once and shared by every {@link DictionaryChecker}.
+ * <p>
+ * The prebuilt index file is memory mapped read-only, so loading it is a page-in rather than a parse, and every
+ * interpreter in the process reads the same pages. When the index is packaged inside a jar it is extracted once to
+ * a per-user cache directory first, see {@link CacheDirectory}, and later processes map the extracted copy directly
+ * once its checksum has been verified.
+ * <p>
+ * The location of the index can be overridden with the {@value #INDEX_PATH_PROPERTY} system property, and the
+ * extraction directory with {@value #CACHE_DIR_PROPERTY}.
+ */
+public final class SharedDictionary {
+    public static final String INDEX_PATH_PROPERTY = "ord.dictionary.index";
+    public static final String CACHE_DIR_PROPERTY = "ord.dictionary.cacheDir";
+
+    private static final String DICTIONARY_FILE = "/dictionary.txt";
+
+    private SharedDictionary() {
+    }
+
+    /**
+     * Get the shared dictionary index, loading it on first use
+     *
+     * @return The index, or null if no dictionary could be loaded
+     */
+    public static DictionaryIndex get() {
+        return Holder.INDEX;
+    }
+
+    private static final class Holder {
+        static final DictionaryIndex INDEX = load();
+    }
+
+    private static DictionaryIndex load() {
+        try {
+            DictionaryIndex index = mapIndex();
+            if (index != null) {
+                return index;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not map dictionary index, falling back to the word list: " + e.getMessage());
+        }
+
+        try {
+            return buildIndex();
+        } catch (IOException | NullPointerException e) {
+            System.err.println("Error loading dictionary: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Memory maps the index file, extracting it from the class path first if needed
+     */
+    private static DictionaryIndex mapIndex() throws IOException {
+        Path path = locateIndexFile();
+        if (path == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return DictionaryIndex.wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static Path locateIndexFile() throws IOException {
+        String override = System.getProperty(INDEX_PATH_PROPERTY);
+        if (override != null) {
+            return Paths.get(override);
+        }
+
+        URL url = SharedDictionary.class.getResource(DictionaryIndex.RESOURCE_NAME);
+        if (url == null) {
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid dictionary index location: " + url, e);
+            }
+        }
+        return extractIndex(url);
+    }
+
+    /**
+     * Copies a packaged index to the cache directory, unless an intact copy is already there.
+     * Copies are named by header and size, which change whenever the word list changes.
+     */
+    private static Path extractIndex(URL url) throws IOException {
+        try (InputStream inputStream = url.openStream()) {
+            byte[] header = inputStream.readNBytes(DictionaryIndex.HEADER_SIZE);
+            long size = DictionaryIndex.serializedSize(ByteBuffer.wrap(header));
+            if (size < 0) {
+                throw new IllegalArgumentException("Not a dictionary index: " + url);
+            }
+
+            Path cacheDir = CacheDirectory.secure(Paths.get(System.getProperty(CACHE_DIR_PROPERTY,
+                    CacheDirectory.defaultRoot().toString())));
+            String name = "dictionary-" + size + "-" + Integer.toHexString(ByteBuffer.wrap(header).hashCode());
+            Path target = cacheDir.resolve(name + ".idx");
+            if (isIntactCopy(target, header, size)) {
+                return target;
+            }
+
+            Path temp = Files.createTempFile(cacheDir, "dictionary", ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                    outputStream.write(header);
+                    inputStream.transferTo(outputStream);
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return target;
+        }
+    }
+
+    /**
+     * Check that a file is a complete copy of the index with the given header, with words matching its checksum
+     */
+    private static boolean isIntactCopy(Path path, byte[] header, long size) throws IOException {
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || Files.size(path) != size) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return buffer.slice(0, header.length).equals(ByteBuffer.wrap(header))
+                    && DictionaryIndex.wrap(buffer).isChecksumValid();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the index on the heap from the plain word list, used when no prebuilt index is available
+     */
+    private static DictionaryIndex buildIndex() throws IOException {
+        try (InputStream inputStream = SharedDictionary.class.getResourceAsStream(DICTIONARY_FILE);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+
+            List<String> words = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                words.add(line);
+            }
+            return DictionaryIndex.build(words);
+        }
+    }
+}
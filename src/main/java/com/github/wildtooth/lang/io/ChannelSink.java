@@ -0,0 +1,44 @@
+package com.github.wildtooth.lang.io;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Output sink writing to a byte channel, e.g. a file or standard output.
+ * The channel is owned by the caller and is never closed by the sink.
+ */
+public class ChannelSink implements OutputSink {
+    private static final ChannelSink STDOUT = new ChannelSink(new FileOutputStream(FileDescriptor.out).getChannel());
+
+    private final WritableByteChannel channel;
+
+    /**
+     * Creates a new ChannelSink
+     *
+     * @param channel Channel to write to
+     */
+    public ChannelSink(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Get the shared sink writing straight to the standard output file descriptor.
+     * Anything written through {@link System#out} must be flushed before output is handed to this sink.
+     *
+     * @return The sink
+     */
+    public static ChannelSink stdout() {
+        return STDOUT;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.wildtooth.lang.io;
+
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Handles all input operations for the interpreter.
+ * Input is read from a {@link ReadableByteChannel} into a reusable buffer in large reads, so reading a byte is an
+ * array access for all but one in every {@value #BUFFER_SIZE} bytes. Once the channel is exhausted, reads leave a
+ * zero in the cell and set the end-of-input flag that programs can test.
+ * <p>
+ * The channel is owned by the caller and is never closed by the handler.
+ */
+public class InputHandler {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ReadableByteChannel STDIN = new FileInputStream(FileDescriptor.in).getChannel();
+
+    private final Memory memory;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+    private ReadableByteChannel channel;
+    private boolean endOfInput = false;
+
+    /**
+     * Creates a new InputHandler reading from standard input
+     *
+     * @param memory Memory instance to write to
+     */
+    public InputHandler(Memory memory) {
+        this(memory, STDIN);
+    }
+
+    /**
+     * Creates a new InputHandler
+     *
+     * @param memory  Memory instance to write to
+     * @param channel Channel to read from
+     */
+    public InputHandler(Memory memory, ReadableByteChannel channel) {
+        this.memory = memory;
+        this.channel = channel;
+    }
+
+    /**
+     * Get the channel reading straight from the standard input file descriptor
+     *
+     * @return The channel, shared by all handlers reading standard input
+     */
+    public static ReadableByteChannel stdin() {
+        return STDIN;
+    }
+
+    /**
+     * Replace the channel input is read from. Buffered input of the previous channel is dropped and the end-of-input
+     * flag is cleared.
+     *
+     * @param channel The new channel
+     */
+    public void setChannel(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer.limit(0);
+        this.endOfInput = false;
+    }
+
+    /**
+     * Drop buffered input and clear the end-of-input flag, so the next read goes to the channel again. The channel
+     * is kept.
+     */
+    public void reset() {
+        setChannel(channel);
+    }
+
+    /**
+     * Get the channel input is read from
+     *
+     * @return The current channel
+     */
+    public ReadableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Check whether a read has run into the end of the input
+     *
+     * @return true if the input is exhausted
+     */
+    public boolean isEndOfInput() {
+        return endOfInput;
+    }
+
+    /**
+     * Read the next byte of input into the current memory cell, as a value from 0 to 255. At the end of the input
+     * the cell is set to 0 and the end-of-input flag is set.
+     *
+     * @throws UncheckedIOException if the channel fails
+     */
+    public void readByte() {
+        memory.setCurrentCell(read());
+    }
+
+    /**
+     * Set the current memory cell to 1 if a read has run into the end of the input, to 0 otherwise
+     */
+    public void testEndOfInput() {
+        memory.setCurrentCell(endOfInput ? 1 : 0);
+    }
+
+    /**
+     * Read the next byte of input
+     *
+     * @return The byte from 0 to 255, or 0 at the end of the input
+     * @throws UncheckedIOException if the channel fails
+     */
+    public int read() {
+        if (!buffer.hasRemaining() && !fill()) {
+            endOfInput = true;
+            return 0;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Refill the buffer from the channel, blocking until at least one byte is available
+     *
+     * @return false if the channel is exhausted
+     */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+        buffer.clear();
+        try {
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                return false;
+            }
+            InterpreterMetrics.global().recordInput(read);
+            return true;
+        } catch (IOException e) {
+            buffer.limit(0);
+            throw new UncheckedIOException("Failed to read program input", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.wildtooth.lang.io;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Output sink collecting all output in memory, e.g. for tests or for returning output to a caller
+ */
+public class MemorySink implements OutputSink {
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+
+    @Override
+    public void write(byte[] source, int offset, int length) {
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+        System.arraycopy(source, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Get the number of bytes collected
+     *
+     * @return The number of bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of the collected output
+     *
+     * @return The output bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Decode the collected output
+     *
+     * @param charset Charset to decode with
+     * @return The output as a string
+     */
+    public String toString(Charset charset) {
+        return new String(bytes, 0, size, charset);
+    }
+
+    @Override
+    public String toString() {
+        return toString(Charset.defaultCharset());
+    }
+
+    /**
+     * Discard all collected output, keeping the allocated buffer
+     */
+    public void reset() {
+        size = 0;
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.wildtooth.lang.io;
+
+/**
+ * Output sink discarding all output, e.g. for benchmarks. Only the number of bytes written is recorded.
+ */
+public class NullSink implements OutputSink {
+    private long bytesWritten = 0;
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        bytesWritten += length;
+    }
+
+    /**
+     * Get the number of bytes discarded so far
+     *
+     * @return The number of bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -1,21 +1,67 @@
 package com.github.wildtooth.lang.io;
 
+import com.github.wildtooth.lang.memory.CellWidth;
+import com.github.wildtooth.lang.metrics.InterpreterMetrics;
 import com.github.wildtooth.lang.memory.Memory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 /**
- * Handles all output operations for the interpreter
+ * Handles all output operations for the interpreter.
+ * Output is encoded into a reusable buffer and handed to an {@link OutputSink} in large writes, either when the
+ * buffer fills up or when {@link #flush()} is called. In debug mode the buffer is flushed after every operation so
+ * that program output stays in order with the debug trace.
  */
 public class OutputHandler {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset CHARSET = stdoutCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+    private static final byte[][] ENCODED_CHARS = new byte[256][];
+
+    static {
+        for (int i = 0; i < ENCODED_CHARS.length; i++) {
+            ENCODED_CHARS[i] = String.valueOf((char) i).getBytes(CHARSET);
+        }
+    }
+
     private final Memory memory;
+    private final CellWidth cellWidth;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private OutputSink sink;
     private boolean debugMode = false;
 
     /**
-     * Creates a new OutputHandler
+     * Creates a new OutputHandler writing to standard output
      *
      * @param memory Memory instance to read from
      */
     public OutputHandler(Memory memory) {
+        this(memory, ChannelSink.stdout());
+    }
+
+    /**
+     * Creates a new OutputHandler
+     *
+     * @param memory Memory instance to read from
+     * @param sink   Sink receiving the output
+     */
+    public OutputHandler(Memory memory, OutputSink sink) {
         this.memory = memory;
+        this.cellWidth = memory.cellWidth();
+        this.sink = sink;
+    }
+
+    private static Charset stdoutCharset() {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        try {
+            return encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
     }
 
     /**
@@ -27,6 +73,71 @@ public class OutputHandler {
         this.debugMode = debugMode;
     }
 
+    /**
+     * Replace the sink receiving the output. Pending output is flushed to the previous sink first.
+     *
+     * @param sink The new sink
+     */
+    public void setSink(OutputSink sink) {
+        flush();
+        this.sink = sink;
+    }
+
+    /**
+     * Get the sink receiving the output
+     *
+     * @return The current sink
+     */
+    public OutputSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Hand all buffered output to the sink
+     *
+     * @throws UncheckedIOException if the sink fails
+     */
+    public void flush() {
+        try {
+            if (position > 0) {
+                sink.write(buffer, 0, position);
+                InterpreterMetrics.global().recordOutput(position);
+                position = 0;
+            }
+            sink.flush();
+        } catch (IOException e) {
+            position = 0;
+            throw new UncheckedIOException("Failed to write program output", e);
+        }
+    }
+
+    /**
+     * Discard buffered output that has not been flushed yet
+     */
+    public void discard() {
+        position = 0;
+    }
+
+    /**
+     * Get the output that has not been flushed yet
+     *
+     * @return A copy of the buffered bytes
+     */
+    public byte[] getPendingOutput() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Replace the buffered output, e.g. with output saved by {@link #getPendingOutput()}
+     *
+     * @param pendingOutput The bytes to buffer
+     */
+    public void restorePendingOutput(byte[] pendingOutput) {
+        position = 0;
+        writeBytes(pendingOutput);
+        flushIfDebug();
+    }
+
     /**
      * Print ASCII character at specified memory address
      *
@@ -35,12 +146,15 @@ public class OutputHandler {
     public void printAsciiAt(int address) {
         if (address >= 0 && address < memory.size()) {
             if (debugMode) {
-                System.out.print("ASCII at address " + address + ": ");
+                writeString("ASCII at address " + address + ": ");
             }
-            System.out.println((char) memory.getUnsignedByte((short) address));
+            writeChar(memory.getCell(address));
+            writeLineSeparator();
         } else if (debugMode) {
-            System.out.println("Invalid memory address for printAsciiAt: " + address);
+            writeString("Invalid memory address for printAsciiAt: " + address);
+            writeLineSeparator();
         }
+        flushIfDebug();
     }
 
     /**
@@ -48,9 +162,11 @@ public class OutputHandler {
      */
     public void printAscii() {
         if (debugMode) {
-            System.out.print("ASCII at current address: ");
+            writeString("ASCII at current address: ");
         }
-        System.out.println((char) memory.getCurrentUnsignedByte());
+        writeChar(memory.getCurrentCell());
+        writeLineSeparator();
+        flushIfDebug();
     }
 
     /**
@@ -61,12 +177,15 @@ public class OutputHandler {
     public void printValueAt(int address) {
         if (address >= 0 && address < memory.size()) {
             if (debugMode) {
-                System.out.print("Value at address " + address + ": ");
+                writeString("Value at address " + address + ": ");
             }
-            System.out.println(memory.getUnsignedByte((short) address));
+            writeNumber(cellWidth.toUnsigned(memory.getCell(address)));
+            writeLineSeparator();
         } else if (debugMode) {
-            System.out.println("Invalid memory address for printValueAt: " + address);
+            writeString("Invalid memory address for printValueAt: " + address);
+            writeLineSeparator();
         }
+        flushIfDebug();
     }
 
     /**
@@ -74,9 +193,26 @@ public class OutputHandler {
      */
     public void printValue() {
         if (debugMode) {
-            System.out.print("Value at current address: ");
+            writeString("Value at current address: ");
+        }
+        writeNumber(cellWidth.toUnsigned(memory.getCurrentCell()));
+        writeLineSeparator();
+        flushIfDebug();
+    }
+
+    /**
+     * Write the low byte of the value at current memory pointer as it is, without encoding it or ending the line,
+     * so programs can pass binary data through
+     */
+    public void printByte() {
+        if (debugMode) {
+            writeString("Byte at current address: ");
+            writeByte(memory.getCurrentCell());
+            writeLineSeparator();
+            flush();
+            return;
         }
-        System.out.println(memory.getCurrentUnsignedByte());
+        writeByte(memory.getCurrentCell());
     }
 
     /**
@@ -84,12 +220,14 @@ public class OutputHandler {
      */
     public void printAsciiMemTable() {
         if (debugMode) {
-            System.out.println("Memory as ASCII:");
+            writeString("Memory as ASCII:");
+            writeLineSeparator();
         }
         for (int i = 0; i < memory.size(); i++) {
-            System.out.print((char) memory.getUnsignedByte((short) i));
+            writeChar(memory.getCell(i));
         }
-        System.out.println();
+        writeLineSeparator();
+        flushIfDebug();
     }
 
     /**
@@ -97,11 +235,93 @@ public class OutputHandler {
      */
     public void printValueMemTable() {
         if (debugMode) {
-            System.out.println("Memory as values:");
+            writeString("Memory as values:");
+            writeLineSeparator();
         }
         for (int i = 0; i < memory.size(); i++) {
-            System.out.print(memory.getUnsignedByte((short) i) + " ");
+            writeNumber(cellWidth.toUnsigned(memory.getCell(i)));
+            writeByte(' ');
         }
-        System.out.println();
+        writeLineSeparator();
+        flushIfDebug();
+    }
+
+    private void flushIfDebug() {
+        if (debugMode) {
+            flush();
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            flush();
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        if (bytes.length > buffer.length) {
+            flush();
+            try {
+                sink.write(bytes, 0, bytes.length);
+                InterpreterMetrics.global().recordOutput(bytes.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write program output", e);
+            }
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeLineSeparator() {
+        writeBytes(LINE_SEPARATOR);
+    }
+
+    /**
+     * Write a value as a character, encoded the same way {@link System#out} would encode it
+     */
+    private void writeChar(int value) {
+        char c = (char) value;
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < ENCODED_CHARS.length) {
+            writeBytes(ENCODED_CHARS[c]);
+        } else {
+            writeBytes(String.valueOf(c).getBytes(CHARSET));
+        }
+    }
+
+    /**
+     * Write a value as decimal digits without allocating
+     */
+    private void writeNumber(long value) {
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            if (value == Long.MIN_VALUE) {
+                writeBytes("9223372036854775808".getBytes(CHARSET));
+                return;
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void writeString(String text) {
+        writeBytes(text.getBytes(CHARSET));
     }
 }
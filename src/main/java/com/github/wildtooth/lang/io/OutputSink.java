@@ -0,0 +1,29 @@
+package com.github.wildtooth.lang.io;
+
+import java.io.IOException;
+
+/**
+ * Destination for program output.
+ * The {@link OutputHandler} collects output in its own buffer and hands it to a sink in large chunks, so a sink
+ * only sees a handful of writes per run.
+ */
+public interface OutputSink {
+
+    /**
+     * Write a chunk of output
+     *
+     * @param bytes  Buffer holding the output
+     * @param offset Start of the output in the buffer
+     * @param length Number of bytes to write
+     * @throws IOException if writing fails
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Push any output held by the sink itself to its final destination
+     *
+     * @throws IOException if flushing fails
+     */
+    default void flush() throws IOException {
+    }
+}
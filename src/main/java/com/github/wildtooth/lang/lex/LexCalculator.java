@@ -16,9 +16,23 @@ public final class LexCalculator {
    * @return The lexical value
    */
   public static int calculateLexValue(final String word) {
+    return calculateLexValue(word, 0, word.length());
+  }
+
+  /**
+   * Calculates the lexical value of a range of characters, without copying them.
+   *
+   * @param chars The characters to read from
+   * @param start Start of the word, inclusive
+   * @param end   End of the word, exclusive
+   * @return The lexical value
+   */
+  public static int calculateLexValue(final CharSequence chars, final int start, final int end) {
     int value = 0;
-    for (char c : word.toCharArray()) {
-      char lowerCaseChar = Character.toLowerCase(c);
+    for (int i = start; i < end; i++) {
+      char c = chars.charAt(i);
+      // Setting the case bit lowercases ASCII letters and never turns anything else into one
+      char lowerCaseChar = c < 0x80 ? (char) (c | 0x20) : Character.toLowerCase(c);
       if (lowerCaseChar >= 'a' && lowerCaseChar <= 'z') {
         value += (lowerCaseChar - 'a' + 1);
       }
@@ -0,0 +1,100 @@
+package com.github.wildtooth.lang.lex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Tokenizer reading eight bytes at a time into a {@code long} and classifying them with bit tricks on all eight at
+ * once: separators are found with the zero byte test, letters by adding constants that set the high bit of every
+ * byte at or above a bound.
+ */
+final class ScalarTokenizer implements Tokenizer {
+  static final Tokenizer INSTANCE = new ScalarTokenizer();
+
+  static final int BLOCK = Long.SIZE;
+
+  private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+  private ScalarTokenizer() {
+  }
+
+  @Override
+  public void tokenize(byte[] text, int from, int to, Tokens tokens) {
+    tokens.reset(from);
+    long[] letters = new long[Long.BYTES];
+    int i = from;
+    for (; i + BLOCK <= to; i += BLOCK) {
+      tokens.accept(i, letters, classify(text, i, letters));
+    }
+    finish(text, i, to, tokens, letters);
+  }
+
+  /**
+   * Take in the last bytes of a range, fewer than a block, and end the last word. Zero bytes pad them to a block,
+   * they are neither letters nor separators.
+   *
+   * @param letters Scratch space for the letter values of a block
+   */
+  static void finish(byte[] text, int from, int to, Tokens tokens, long[] letters) {
+    if (from < to) {
+      byte[] block = Arrays.copyOf(Arrays.copyOfRange(text, from, to), BLOCK);
+      tokens.accept(from, letters, classify(block, 0, letters));
+    }
+    tokens.finish(to);
+  }
+
+  /**
+   * Classify the 64 bytes of a block
+   *
+   * @param letters Receives the letter values of the bytes
+   * @return The separator mask of the block, one bit per byte
+   */
+  private static long classify(byte[] text, int offset, long[] letters) {
+    long separators = 0;
+    for (int run = 0; run < Long.BYTES; run++) {
+      long bytes = (long) LONGS.get(text, offset + run * Long.BYTES);
+      letters[run] = letters(bytes);
+      separators |= gatherHighBits(separators(bytes)) << (run * Long.BYTES);
+    }
+    return separators;
+  }
+
+  /**
+   * Find the spaces, line feeds and carriage returns among eight bytes
+   *
+   * @return The high bit of each separator byte
+   */
+  private static long separators(long bytes) {
+    return zeroBytes(bytes ^ ONES * ' ') | zeroBytes(bytes ^ ONES * '\n') | zeroBytes(bytes ^ ONES * '\r');
+  }
+
+  /**
+   * Compute the letter values of eight bytes, a=1 to z=26 in either case and 0 for anything else
+   */
+  private static long letters(long bytes) {
+    long lower = (bytes | ONES * 0x20) & LOW_BITS;
+    long atLeastA = lower + ONES * (0x80 - 'a');
+    long pastZ = lower + ONES * (0x80 - 'z' - 1);
+    long mask = ((atLeastA & ~pastZ & ~bytes & HIGH_BITS) >>> 7) * 0xFF;
+    return (lower & mask) - (ONES * ('a' - 1) & mask);
+  }
+
+  /**
+   * Set the high bit of exactly the bytes that are zero
+   */
+  private static long zeroBytes(long bytes) {
+    return ~(((bytes & LOW_BITS) + LOW_BITS) | bytes | LOW_BITS);
+  }
+
+  /**
+   * Gather the high bits of eight bytes, and nothing else, into the low eight bits
+   */
+  static long gatherHighBits(long bytes) {
+    return (bytes >>> 7) * 0x0102040810204080L >>> 56;
+  }
+}
@@ -0,0 +1,72 @@
+package com.github.wildtooth.lang.lex;
+
+/**
+ * Splits raw program bytes into words and computes their lexical values in the same pass, see {@link Tokens}.
+ * <p>
+ * Bytes are read as ISO-8859-1, so ASCII and UTF-8 text split the same way as when decoded: bytes of multi-byte
+ * characters are never separators or letters. Implementations scan many bytes at a time and lowercase letters with
+ * a mask instead of looking at characters one by one.
+ */
+public interface Tokenizer {
+  String VECTOR_MODULE = "jdk.incubator.vector";
+  String VECTOR_TOKENIZER = "com.github.wildtooth.lang.lex.VectorTokenizer";
+
+  /**
+   * Get the fastest tokenizer available. The one built on the Vector API is only compiled with
+   * {@code gradle -Pvector}, and needs its incubator module, which is only resolved when the JVM is started with
+   * {@code --add-modules jdk.incubator.vector}.
+   *
+   * @return The tokenizer
+   */
+  static Tokenizer best() {
+    return isVectorAvailable() ? vector() : scalar();
+  }
+
+  /**
+   * Get the tokenizer working on eight bytes at a time in a {@code long}, which runs on any JVM
+   *
+   * @return The tokenizer
+   */
+  static Tokenizer scalar() {
+    return ScalarTokenizer.INSTANCE;
+  }
+
+  /**
+   * Get the tokenizer built on the Vector API
+   *
+   * @return The tokenizer
+   * @throws IllegalStateException if the tokenizer was not built or the Vector API module is not available
+   */
+  static Tokenizer vector() {
+    if (!isVectorAvailable()) {
+      throw new IllegalStateException("Build with -Pvector and start the JVM with --add-modules " + VECTOR_MODULE
+          + " to use the Vector API");
+    }
+    try {
+      // Looked up by name, since the class is missing from builds without the Vector API
+      return (Tokenizer) Class.forName(VECTOR_TOKENIZER).getDeclaredField("INSTANCE").get(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to load " + VECTOR_TOKENIZER, e);
+    }
+  }
+
+  /**
+   * Check whether the tokenizer built on the Vector API was compiled in and its module is available
+   *
+   * @return true if {@link #vector()} can be used
+   */
+  static boolean isVectorAvailable() {
+    return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()
+        && Tokenizer.class.getResource("VectorTokenizer.class") != null;
+  }
+
+  /**
+   * Split a range of bytes into words
+   *
+   * @param text   The bytes to read from
+   * @param from   Start of the range, inclusive
+   * @param to     End of the range, exclusive
+   * @param tokens Receives the words, replacing those it held
+   */
+  void tokenize(byte[] text, int from, int to, Tokens tokens);
+}
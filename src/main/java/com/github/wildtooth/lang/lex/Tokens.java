@@ -0,0 +1,119 @@
+package com.github.wildtooth.lang.lex;
+
+import java.util.Arrays;
+
+/**
+ * Words found by a {@link Tokenizer}, in order, with their lexical values.
+ * <p>
+ * Every space, {@code \n} and {@code \r} ends a word, and so does the end of the text, so the text always splits
+ * into one more word than it has separators and words may be empty. A word starts one past the end of the word
+ * before it, and the byte at its end is the separator that ended it. Instances are reused from one text to the next.
+ */
+public final class Tokens {
+  private static final long ONES = 0x0101010101010101L;
+
+  private final long[] prefixSums = new long[Long.BYTES];
+  private final int[] runTotals = new int[Long.BYTES];
+  private int[] ends = new int[1024];
+  private int[] sums = new int[1024];
+  private int size;
+  private int from;
+  private int total;
+
+  /**
+   * Get the number of words
+   *
+   * @return The number of words
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the start of a word
+   *
+   * @param index Index of the word
+   * @return Offset of the first byte of the word, inclusive
+   */
+  public int start(int index) {
+    return index == 0 ? from : ends[index - 1] + 1;
+  }
+
+  /**
+   * Get the end of a word
+   *
+   * @param index Index of the word
+   * @return Offset of the separator ending the word, or the end of the text for the last word
+   */
+  public int end(int index) {
+    return ends[index];
+  }
+
+  /**
+   * Get the lexical value of a word, as {@link LexCalculator#calculateLexValue(CharSequence, int, int)} computes it
+   * for the word read as ISO-8859-1
+   *
+   * @param index Index of the word
+   * @return The lexical value
+   */
+  public int value(int index) {
+    // Running sums may overflow, their differences still come out right
+    return index == 0 ? sums[0] : sums[index] - sums[index - 1];
+  }
+
+  void reset(int from) {
+    this.size = 0;
+    this.from = from;
+    this.total = 0;
+  }
+
+  /**
+   * Take in a block of 64 bytes: their letter values, eight bytes to a {@code long}, and a mask with one bit per
+   * byte for the separators among them.
+   * <p>
+   * For every separator, the running sum of letter values up to it is recorded, and the value of a word is the
+   * difference to the sum at the separator before it. Multiplying eight letter values by {@code 0x0101010101010101}
+   * sums them up to every byte at once, so recording a separator does not depend on where the last one was. Eight
+   * separators are recorded at a time without looking at how many there are, entries past the last one are
+   * overwritten later; this avoids a mispredicted branch per word.
+   *
+   * @param base       Offset of the first of the bytes
+   * @param letters    Letter values of the bytes, lowest byte first, zero for anything but a letter
+   * @param separators Separator bits, lowest byte first
+   */
+  void accept(int base, long[] letters, long separators) {
+    if (size + 2 * Long.SIZE > ends.length) {
+      ends = Arrays.copyOf(ends, ends.length * 2);
+      sums = Arrays.copyOf(sums, sums.length * 2);
+    }
+    for (int run = 0; run < Long.BYTES; run++) {
+      long prefix = letters[run] * ONES;
+      prefixSums[run] = prefix;
+      runTotals[run] = total;
+      total += (int) (prefix >>> 56);
+    }
+    int end = size + Long.bitCount(separators);
+    for (int n = size; n < end; n += Long.BYTES) {
+      for (int i = 0; i < Long.BYTES; i++) {
+        int index = Long.numberOfTrailingZeros(separators) & (Long.SIZE - 1);
+        ends[n + i] = base + index;
+        sums[n + i] = runTotals[index >>> 3] + (int) (prefixSums[index >>> 3] >>> ((index & 7) << 3) & 0xFF);
+        separators &= separators - 1;
+      }
+    }
+    size = end;
+  }
+
+  /**
+   * End the last word at the end of the text
+   */
+  void finish(int to) {
+    if (size == ends.length) {
+      ends = Arrays.copyOf(ends, ends.length * 2);
+      sums = Arrays.copyOf(sums, sums.length * 2);
+    }
+    ends[size] = to;
+    sums[size] = total;
+    size++;
+  }
+}
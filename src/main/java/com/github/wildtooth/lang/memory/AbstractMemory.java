@@ -0,0 +1,129 @@
+package com.github.wildtooth.lang.memory;
+
+import java.util.Objects;
+
+/**
+ * Base class for memory implementations, handling the pointer and address checks.
+ * Subclasses only store and load cells.
+ */
+abstract class AbstractMemory implements Memory {
+  protected final int size;
+  protected final CellWidth cellWidth;
+  protected int pointer;
+
+  protected AbstractMemory(int size, CellWidth cellWidth) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Memory size must be positive: " + size);
+    }
+    this.size = size;
+    this.cellWidth = cellWidth;
+    this.pointer = 0;
+  }
+
+  /**
+   * Loads the cell at an index that is known to be valid
+   */
+  protected abstract int load(int index);
+
+  /**
+   * Stores a value, already truncated to the cell width, at an index that is known to be valid
+   */
+  protected abstract void store(int index, int value);
+
+  @Override
+  public void incrementPointer() {
+    pointer++;
+    if (pointer >= size) {
+      pointer = 0;
+    }
+  }
+
+  @Override
+  public void decrementPointer() {
+    pointer--;
+    if (pointer < 0) {
+      pointer = size - 1;
+    }
+  }
+
+  @Override
+  public void movePointer(int delta) {
+    pointer = (int) Math.floorMod((long) pointer + delta, (long) size);
+  }
+
+  @Override
+  public int getPointer() {
+    return pointer;
+  }
+
+  @Override
+  public void setPointer(int address) {
+    if (address < 0 || address >= size) {
+      address = Math.floorMod(address, size);
+    }
+    this.pointer = address;
+  }
+
+  @Override
+  public int getCurrentCell() {
+    return load(pointer);
+  }
+
+  @Override
+  public void setCurrentCell(int value) {
+    store(pointer, value & cellWidth.mask());
+  }
+
+  @Override
+  public int getCell(int address) {
+    validateAddress(address);
+    return load(address);
+  }
+
+  @Override
+  public void setCell(int address, int value) {
+    validateAddress(address);
+    store(address, value & cellWidth.mask());
+  }
+
+  @Override
+  public void readCells(int address, int[] cells, int offset, int length) {
+    Objects.checkFromIndexSize(address, length, size);
+    Objects.checkFromIndexSize(offset, length, cells.length);
+    for (int i = 0; i < length; i++) {
+      cells[offset + i] = load(address + i);
+    }
+  }
+
+  @Override
+  public void writeCells(int address, int[] cells, int offset, int length) {
+    Objects.checkFromIndexSize(address, length, size);
+    Objects.checkFromIndexSize(offset, length, cells.length);
+    int mask = cellWidth.mask();
+    for (int i = 0; i < length; i++) {
+      store(address + i, cells[offset + i] & mask);
+    }
+  }
+
+  /**
+   * Validates that an address is within the memory bounds
+   *
+   * @param address Address to validate
+   * @throws IndexOutOfBoundsException if address is outside memory bounds
+   */
+  private void validateAddress(int address) {
+    if (address < 0 || address >= size) {
+      throw new IndexOutOfBoundsException("Memory address out of bounds: " + address);
+    }
+  }
+
+  @Override
+  public CellWidth cellWidth() {
+    return cellWidth;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,52 @@
+package com.github.wildtooth.lang.memory;
+
+import java.util.Arrays;
+
+/**
+ * Memory with 8 bit cells stored in a byte array on the heap. This is the default memory.
+ */
+public final class ByteArrayMemory extends AbstractMemory {
+  private final byte[] memory;
+
+  /**
+   * Creates a memory instance with default size
+   */
+  public ByteArrayMemory() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Creates a memory instance with specified size
+   *
+   * @param size Size of the memory in bytes
+   */
+  public ByteArrayMemory(int size) {
+    super(size, CellWidth.BITS_8);
+    this.memory = new byte[size];
+  }
+
+  /**
+   * Get the array backing this memory. Cells are stored as raw bytes and writing to the array changes them
+   * directly, which lets generated code work on the cells without going through this object.
+   *
+   * @return The cells
+   */
+  public byte[] array() {
+    return memory;
+  }
+
+  @Override
+  protected int load(int index) {
+    return Byte.toUnsignedInt(memory[index]);
+  }
+
+  @Override
+  protected void store(int index, int value) {
+    memory[index] = (byte) value;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(memory, (byte) 0);
+  }
+}
@@ -0,0 +1,81 @@
+package com.github.wildtooth.lang.memory;
+
+/**
+ * Width of a memory cell. Arithmetic on a cell wraps around at its width.
+ */
+public enum CellWidth {
+  BITS_8(1, 0xFF),
+  BITS_16(2, 0xFFFF),
+  BITS_32(4, 0xFFFFFFFF);
+
+  private final int bytes;
+  private final int mask;
+
+  CellWidth(int bytes, int mask) {
+    this.bytes = bytes;
+    this.mask = mask;
+  }
+
+  /**
+   * Get the cell width for a number of bits
+   *
+   * @param bits 8, 16 or 32
+   * @return The matching cell width
+   * @throws IllegalArgumentException if no cell width has that many bits
+   */
+  public static CellWidth ofBits(int bits) {
+    for (CellWidth cellWidth : values()) {
+      if (cellWidth.bits() == bits) {
+        return cellWidth;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported cell width: " + bits + " bits");
+  }
+
+  /**
+   * Get the number of bits in a cell
+   *
+   * @return The number of bits
+   */
+  public int bits() {
+    return bytes * Byte.SIZE;
+  }
+
+  /**
+   * Get the number of bytes in a cell
+   *
+   * @return The number of bytes
+   */
+  public int bytes() {
+    return bytes;
+  }
+
+  /**
+   * Get the mask selecting the bits of a cell
+   *
+   * @return The mask
+   */
+  public int mask() {
+    return mask;
+  }
+
+  /**
+   * Truncate a value to this cell width
+   *
+   * @param value The value to truncate
+   * @return The value as stored in a cell
+   */
+  public int truncate(int value) {
+    return value & mask;
+  }
+
+  /**
+   * Read a cell value as an unsigned number
+   *
+   * @param value The cell value
+   * @return The unsigned value
+   */
+  public long toUnsigned(int value) {
+    return Integer.toUnsignedLong(value & mask);
+  }
+}
@@ -0,0 +1,35 @@
+package com.github.wildtooth.lang.memory;
+
+import java.util.Arrays;
+
+/**
+ * Memory with 32 bit cells stored in an int array on the heap
+ */
+public final class IntArrayMemory extends AbstractMemory {
+  private final int[] memory;
+
+  /**
+   * Creates a memory instance with specified size
+   *
+   * @param size Size of the memory in cells
+   */
+  public IntArrayMemory(int size) {
+    super(size, CellWidth.BITS_32);
+    this.memory = new int[size];
+  }
+
+  @Override
+  protected int load(int index) {
+    return memory[index];
+  }
+
+  @Override
+  protected void store(int index, int value) {
+    memory[index] = value;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(memory, 0);
+  }
+}
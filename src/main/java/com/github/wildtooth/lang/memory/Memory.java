@@ -1,64 +1,69 @@
 package com.github.wildtooth.lang.memory;
 
-import java.util.Arrays;
-
 /**
- * Memory management class for the interpreter.
- * Provides a byte array with a movable pointer for storing and retrieving values.
+ * Memory tape used by the interpreter.
+ * Provides a row of cells with a movable pointer for storing and retrieving values. Implementations differ in
+ * where cells are stored and how wide they are, see {@link MemoryType} and {@link CellWidth}.
+ * <p>
+ * Cell values are unsigned for 8 and 16 bit cells. 32 bit cells hold the raw bits, use
+ * {@link CellWidth#toUnsigned(int)} to read them as unsigned numbers.
  */
-public final class Memory {
-  private short pointer;
-  private final byte[] memory;
-  public static final int DEFAULT_SIZE = 1024;
-
-  /**
-   * Creates a memory instance with default size
-   */
-  public Memory() {
-    this(DEFAULT_SIZE);
-  }
+public interface Memory {
+  int DEFAULT_SIZE = 1024;
 
   /**
-   * Creates a memory instance with specified size
+   * Creates a memory instance
    *
-   * @param size Size of the memory in bytes
+   * @param type      Storage backend
+   * @param size      Number of cells
+   * @param cellWidth Width of each cell
+   * @return The memory
+   * @throws IllegalArgumentException if the size is not positive or too large for the backend
    */
-  public Memory(int size) {
-    this.pointer = 0;
-    this.memory = new byte[size];
-    Arrays.fill(memory, (byte) 0);
+  static Memory create(MemoryType type, int size, CellWidth cellWidth) {
+    switch (type) {
+      case OFF_HEAP:
+        return new OffHeapMemory(size, cellWidth);
+      case PAGED:
+        return new PagedMemory(size, cellWidth);
+      default:
+        switch (cellWidth) {
+          case BITS_16:
+            return new ShortArrayMemory(size);
+          case BITS_32:
+            return new IntArrayMemory(size);
+          default:
+            return new ByteArrayMemory(size);
+        }
+    }
   }
 
   /**
    * Increments the memory pointer
    * If pointer exceeds memory size, it wraps around to the beginning
    */
-  public void incrementPointer() {
-    pointer++;
-    if (pointer >= memory.length) {
-      pointer = 0;
-    }
-  }
+  void incrementPointer();
 
   /**
    * Decrements the memory pointer
    * If pointer goes below 0, it wraps around to the end
    */
-  public void decrementPointer() {
-    pointer--;
-    if (pointer < 0) {
-      pointer = (short) (memory.length - 1);
-    }
-  }
+  void decrementPointer();
+
+  /**
+   * Moves the memory pointer by a relative amount
+   * Wraps around in both directions, the same as repeated increments or decrements would
+   *
+   * @param delta Number of cells to move, negative to move backwards
+   */
+  void movePointer(int delta);
 
   /**
    * Gets the current pointer position
    *
    * @return Current pointer position
    */
-  public short getPointer() {
-    return pointer;
-  }
+  int getPointer();
 
   /**
    * Sets the pointer to a specific address
@@ -66,71 +71,86 @@ public final class Memory {
    *
    * @param address Memory address to point to
    */
-  public void setPointer(short address) {
-    if (address < 0 || address >= memory.length) {
-      address = (short) (address % memory.length);
-      if (address < 0) {
-        address += (short) memory.length;
-      }
-    }
-    this.pointer = address;
-  }
+  void setPointer(int address);
 
   /**
-   * Gets the unsigned byte value at the current pointer position
+   * Gets the value of the cell at the current pointer position
    *
-   * @return Unsigned byte value (0-255)
+   * @return Cell value
    */
-  public int getCurrentUnsignedByte() {
-    return Byte.toUnsignedInt(memory[pointer]);
-  }
+  int getCurrentCell();
 
   /**
-   * Gets the unsigned byte value at a specific address
+   * Sets the cell at the current pointer position
+   *
+   * @param value Value to set (will be truncated to the cell width)
+   */
+  void setCurrentCell(int value);
+
+  /**
+   * Gets the value of the cell at a specific address
    *
    * @param address Memory address to read from
-   * @return Unsigned byte value (0-255)
+   * @return Cell value
    * @throws IndexOutOfBoundsException if address is invalid
    */
-  public int getUnsignedByte(short address) {
-    validateAddress(address);
-    return Byte.toUnsignedInt(memory[address]);
-  }
+  int getCell(int address);
 
   /**
-   * Sets the byte at the current pointer position
+   * Sets the cell at a specific address
    *
-   * @param value Value to set (will be truncated to byte range)
+   * @param address Memory address to write to
+   * @param value   Value to set (will be truncated to the cell width)
+   * @throws IndexOutOfBoundsException if address is invalid
    */
-  public void setCurrentByte(int value) {
-    memory[pointer] = (byte) (value & 0xFF);
+  void setCell(int address, int value);
+
+  /**
+   * Copies a range of cells into an array
+   *
+   * @param address First address to read
+   * @param cells   Array receiving the cell values
+   * @param offset  Index in the array of the first value
+   * @param length  Number of cells to read
+   * @throws IndexOutOfBoundsException if the range is outside the memory or the array
+   */
+  default void readCells(int address, int[] cells, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      cells[offset + i] = getCell(address + i);
+    }
   }
 
   /**
-   * Validates that an address is within the memory bounds
+   * Sets a range of cells from an array
    *
-   * @param address Address to validate
-   * @throws IndexOutOfBoundsException if address is outside memory bounds
+   * @param address First address to write
+   * @param cells   Array holding the values, each truncated to the cell width
+   * @param offset  Index in the array of the first value
+   * @param length  Number of cells to write
+   * @throws IndexOutOfBoundsException if the range is outside the memory or the array
    */
-  private void validateAddress(short address) {
-    if (address < 0 || address >= memory.length) {
-      throw new IndexOutOfBoundsException("Memory address out of bounds: " + address);
+  default void writeCells(int address, int[] cells, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      setCell(address + i, cells[offset + i]);
     }
   }
 
+  /**
+   * Gets the width of the cells
+   *
+   * @return Cell width
+   */
+  CellWidth cellWidth();
+
   /**
    * Resets all memory to zero
    */
-  public void clear() {
-    Arrays.fill(memory, (byte) 0);
-  }
+  void clear();
 
   /**
    * Gets the size of the memory
    *
-   * @return Memory size in bytes
+   * @return Memory size in cells
    */
-  public int size() {
-    return memory.length;
-  }
+  int size();
 }
@@ -0,0 +1,19 @@
+package com.github.wildtooth.lang.memory;
+
+/**
+ * Storage backends for {@link Memory}
+ */
+public enum MemoryType {
+  /**
+   * Cells in a primitive array on the heap, the narrowest array that fits the cell width
+   */
+  ARRAY,
+  /**
+   * Cells in a direct buffer outside the heap, for large tapes that should not burden the garbage collector
+   */
+  OFF_HEAP,
+  /**
+   * Cells in fixed-size pages that are only allocated once written, for large tapes that are mostly empty
+   */
+  PAGED
+}
@@ -0,0 +1,65 @@
+package com.github.wildtooth.lang.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Memory stored in a direct buffer outside the Java heap.
+ * Large tapes do not add to heap size or garbage collection work. The buffer is released when the memory
+ * becomes unreachable.
+ */
+public final class OffHeapMemory extends AbstractMemory {
+  private static final int CLEAR_CHUNK = 8192;
+
+  private final ByteBuffer memory;
+
+  /**
+   * Creates a memory instance
+   *
+   * @param size      Size of the memory in cells
+   * @param cellWidth Width of each cell
+   * @throws IllegalArgumentException if the tape would exceed 2 GiB
+   */
+  public OffHeapMemory(int size, CellWidth cellWidth) {
+    super(size, cellWidth);
+    long bytes = (long) size * cellWidth.bytes();
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Off-heap memory is limited to 2 GiB, requested " + bytes + " bytes");
+    }
+    this.memory = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+  }
+
+  @Override
+  protected int load(int index) {
+    switch (cellWidth) {
+      case BITS_8:
+        return Byte.toUnsignedInt(memory.get(index));
+      case BITS_16:
+        return Short.toUnsignedInt(memory.getShort(index << 1));
+      default:
+        return memory.getInt(index << 2);
+    }
+  }
+
+  @Override
+  protected void store(int index, int value) {
+    switch (cellWidth) {
+      case BITS_8:
+        memory.put(index, (byte) value);
+        break;
+      case BITS_16:
+        memory.putShort(index << 1, (short) value);
+        break;
+      default:
+        memory.putInt(index << 2, value);
+    }
+  }
+
+  @Override
+  public void clear() {
+    byte[] zeros = new byte[Math.min(CLEAR_CHUNK, memory.capacity())];
+    for (int offset = 0; offset < memory.capacity(); offset += zeros.length) {
+      memory.put(offset, zeros, 0, Math.min(zeros.length, memory.capacity() - offset));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.github.wildtooth.lang.memory;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Sparse memory that splits the tape into fixed-size pages and only allocates a page once a non-zero value is
+ * written to it. Reading an untouched cell returns zero. Suited for very large tapes of which programs only use a
+ * few regions.
+ */
+public final class PagedMemory extends AbstractMemory {
+  static final int PAGE_SHIFT = 12;
+  static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private final int[][] pages;
+
+  /**
+   * Creates a memory instance
+   *
+   * @param size      Size of the memory in cells
+   * @param cellWidth Width of each cell
+   */
+  public PagedMemory(int size, CellWidth cellWidth) {
+    super(size, cellWidth);
+    this.pages = new int[(int) (((long) size + PAGE_SIZE - 1) >>> PAGE_SHIFT)][];
+  }
+
+  @Override
+  protected int load(int index) {
+    int[] page = pages[index >>> PAGE_SHIFT];
+    return page == null ? 0 : page[index & PAGE_MASK];
+  }
+
+  @Override
+  protected void store(int index, int value) {
+    int[] page = pages[index >>> PAGE_SHIFT];
+    if (page == null) {
+      if (value == 0) {
+        return;
+      }
+      page = new int[PAGE_SIZE];
+      pages[index >>> PAGE_SHIFT] = page;
+    }
+    page[index & PAGE_MASK] = value;
+  }
+
+  /**
+   * Get the number of pages currently allocated
+   *
+   * @return The number of allocated pages
+   */
+  public int allocatedPages() {
+    int allocated = 0;
+    for (int[] page : pages) {
+      if (page != null) {
+        allocated++;
+      }
+    }
+    return allocated;
+  }
+
+  /**
+   * Copies a range of cells into an array, without reading the cells of pages that were never allocated
+   */
+  @Override
+  public void readCells(int address, int[] cells, int offset, int length) {
+    Objects.checkFromIndexSize(address, length, size);
+    Objects.checkFromIndexSize(offset, length, cells.length);
+    while (length > 0) {
+      int[] page = pages[address >>> PAGE_SHIFT];
+      int count = Math.min(length, PAGE_SIZE - (address & PAGE_MASK));
+      if (page == null) {
+        Arrays.fill(cells, offset, offset + count, 0);
+      } else {
+        System.arraycopy(page, address & PAGE_MASK, cells, offset, count);
+      }
+      address += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * Resets all memory to zero and releases every page
+   */
+  @Override
+  public void clear() {
+    Arrays.fill(pages, null);
+  }
+}
@@ -0,0 +1,35 @@
+package com.github.wildtooth.lang.memory;
+
+import java.util.Arrays;
+
+/**
+ * Memory with 16 bit cells stored in a short array on the heap
+ */
+public final class ShortArrayMemory extends AbstractMemory {
+  private final short[] memory;
+
+  /**
+   * Creates a memory instance with specified size
+   *
+   * @param size Size of the memory in cells
+   */
+  public ShortArrayMemory(int size) {
+    super(size, CellWidth.BITS_16);
+    this.memory = new short[size];
+  }
+
+  @Override
+  protected int load(int index) {
+    return Short.toUnsignedInt(memory[index]);
+  }
+
+  @Override
+  protected void store(int index, int value) {
+    memory[index] = (short) value;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(memory, (short) 0);
+  }
+}
@@ -0,0 +1,262 @@
+package com.github.wildtooth.lang.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms describing what the interpreters in this JVM have done.
+ * <p>
+ * All counters are {@link LongAdder}s and are updated once per program load, run, input read or output flush rather
+ * than per line, so recording is cheap even with many interpreters running on different threads. The metrics of the
+ * whole JVM are collected in {@link #global()}, which {@link #registerMBean()} exposes over JMX under
+ * {@value #OBJECT_NAME} without any dependency beyond the JDK.
+ */
+public final class InterpreterMetrics implements InterpreterMetricsMXBean {
+    /**
+     * JMX name the global metrics are registered under
+     */
+    public static final String OBJECT_NAME = "com.github.wildtooth.lang:type=InterpreterMetrics";
+
+    private static final InterpreterMetrics GLOBAL = new InterpreterMetrics();
+
+    private final LongAdder programsLoaded = new LongAdder();
+    private final LongAdder linesAccepted = new LongAdder();
+    private final LongAdder linesRejected = new LongAdder();
+    private final LongAdder programCacheHits = new LongAdder();
+    private final LongAdder programCacheMisses = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder instructionsExecuted = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder loopsRewritten = new LongAdder();
+    private final LatencyHistogram loadTime = new LatencyHistogram();
+    private final LatencyHistogram executeTime = new LatencyHistogram();
+
+    /**
+     * Get the metrics every interpreter in this JVM records to
+     *
+     * @return The global metrics
+     */
+    public static InterpreterMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Register the global metrics with the platform MBean server. Registering more than once has no effect.
+     *
+     * @return true if the metrics are registered
+     */
+    public static boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(GLOBAL, new ObjectName(OBJECT_NAME));
+            return true;
+        } catch (InstanceAlreadyExistsException e) {
+            return true;
+        } catch (JMException | SecurityException e) {
+            System.err.println("Failed to register interpreter metrics: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Record a loaded program
+     *
+     * @param accepted Number of lines compiled into instructions
+     * @param rejected Number of lines skipped because they contain a word that is not in the dictionary
+     * @param nanos    Time spent loading
+     */
+    public void recordLoad(int accepted, int rejected, long nanos) {
+        programsLoaded.increment();
+        linesAccepted.add(accepted);
+        linesRejected.add(rejected);
+        loadTime.record(nanos);
+    }
+
+    /**
+     * Record a lookup in a program cache. The load itself is recorded separately.
+     *
+     * @param hit true if the program was found in the cache
+     */
+    public void recordCacheLookup(boolean hit) {
+        (hit ? programCacheHits : programCacheMisses).increment();
+    }
+
+    /**
+     * Record a program being optimized for running
+     *
+     * @param countingLoops Number of loops replaced by a closed form, see
+     *                      {@link com.github.wildtooth.lang.instruction.LoopIdiomRecognizer}
+     */
+    public void recordOptimization(int countingLoops) {
+        loopsRewritten.add(countingLoops);
+    }
+
+    /**
+     * Record a program run
+     *
+     * @param steps Number of lines executed
+     * @param nanos Time spent executing
+     */
+    public void recordExecution(long steps, long nanos) {
+        executions.increment();
+        instructionsExecuted.add(steps);
+        executeTime.record(nanos);
+    }
+
+    /**
+     * Record program output handed to a sink
+     *
+     * @param bytes Number of bytes written
+     */
+    public void recordOutput(int bytes) {
+        outputBytes.add(bytes);
+    }
+
+    /**
+     * Record program input read from a channel
+     *
+     * @param bytes Number of bytes read
+     */
+    public void recordInput(int bytes) {
+        inputBytes.add(bytes);
+    }
+
+    /**
+     * Get the load time histogram
+     *
+     * @return The live histogram
+     */
+    public LatencyHistogram getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Get the execution time histogram
+     *
+     * @return The live histogram
+     */
+    public LatencyHistogram getExecuteTime() {
+        return executeTime;
+    }
+
+    @Override
+    public long getProgramsLoaded() {
+        return programsLoaded.sum();
+    }
+
+    @Override
+    public long getLinesAccepted() {
+        return linesAccepted.sum();
+    }
+
+    @Override
+    public long getLinesRejected() {
+        return linesRejected.sum();
+    }
+
+    @Override
+    public long getProgramCacheHits() {
+        return programCacheHits.sum();
+    }
+
+    @Override
+    public long getProgramCacheMisses() {
+        return programCacheMisses.sum();
+    }
+
+    @Override
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    @Override
+    public long getInstructionsExecuted() {
+        return instructionsExecuted.sum();
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    @Override
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    @Override
+    public long getLoopsRewritten() {
+        return loopsRewritten.sum();
+    }
+
+    @Override
+    public long getLoadTimeTotalNanos() {
+        return loadTime.getTotalNanos();
+    }
+
+    @Override
+    public long getLoadTimeP50Nanos() {
+        return loadTime.getPercentile(0.50);
+    }
+
+    @Override
+    public long getLoadTimeP99Nanos() {
+        return loadTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getLoadTimeMaxNanos() {
+        return loadTime.getMaxNanos();
+    }
+
+    @Override
+    public long[] getLoadTimeHistogram() {
+        return loadTime.getBuckets();
+    }
+
+    @Override
+    public long getExecuteTimeTotalNanos() {
+        return executeTime.getTotalNanos();
+    }
+
+    @Override
+    public long getExecuteTimeP50Nanos() {
+        return executeTime.getPercentile(0.50);
+    }
+
+    @Override
+    public long getExecuteTimeP99Nanos() {
+        return executeTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getExecuteTimeMaxNanos() {
+        return executeTime.getMaxNanos();
+    }
+
+    @Override
+    public long[] getExecuteTimeHistogram() {
+        return executeTime.getBuckets();
+    }
+
+    @Override
+    public void reset() {
+        programsLoaded.reset();
+        linesAccepted.reset();
+        linesRejected.reset();
+        programCacheHits.reset();
+        programCacheMisses.reset();
+        executions.reset();
+        instructionsExecuted.reset();
+        outputBytes.reset();
+        inputBytes.reset();
+        loopsRewritten.reset();
+        loadTime.reset();
+        executeTime.reset();
+    }
+}
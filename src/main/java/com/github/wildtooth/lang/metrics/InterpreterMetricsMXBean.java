@@ -0,0 +1,53 @@
+package com.github.wildtooth.lang.metrics;
+
+/**
+ * Management interface of {@link InterpreterMetrics}, as exposed over JMX.
+ * Times are in nanoseconds, percentiles are upper bounds within a factor of two.
+ */
+public interface InterpreterMetricsMXBean {
+
+    long getProgramsLoaded();
+
+    long getLinesAccepted();
+
+    long getLinesRejected();
+
+    long getProgramCacheHits();
+
+    long getProgramCacheMisses();
+
+    long getExecutions();
+
+    long getInstructionsExecuted();
+
+    long getOutputBytes();
+
+    long getInputBytes();
+
+    long getLoopsRewritten();
+
+    long getLoadTimeTotalNanos();
+
+    long getLoadTimeP50Nanos();
+
+    long getLoadTimeP99Nanos();
+
+    long getLoadTimeMaxNanos();
+
+    long[] getLoadTimeHistogram();
+
+    long getExecuteTimeTotalNanos();
+
+    long getExecuteTimeP50Nanos();
+
+    long getExecuteTimeP99Nanos();
+
+    long getExecuteTimeMaxNanos();
+
+    long[] getExecuteTimeHistogram();
+
+    /**
+     * Reset every counter and histogram to zero
+     */
+    void reset();
+}
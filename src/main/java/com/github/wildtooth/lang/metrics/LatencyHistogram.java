@@ -0,0 +1,124 @@
+package com.github.wildtooth.lang.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values are counted in power-of-two buckets: bucket {@code i} holds values below {@code 2^i} and at least
+ * {@code 2^(i-1)}. Every bucket is a {@link LongAdder}, so threads recording at the same time do not contend on a
+ * shared counter. Percentiles are reported as the upper bound of the bucket they fall into, which is within a factor
+ * of two of the real value.
+ */
+public final class LatencyHistogram {
+    /**
+     * Number of buckets, enough for any non-negative long
+     */
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a duration
+     *
+     * @param nanos The duration in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Get the number of recorded durations
+     *
+     * @return The count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of all recorded durations
+     *
+     * @return The total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Get the longest recorded duration
+     *
+     * @return The maximum in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Get the sample count per bucket
+     *
+     * @return A snapshot of the buckets
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get an upper bound for a percentile of the recorded durations
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @return The upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = getBuckets();
+        long samples = 0;
+        for (long bucket : snapshot) {
+            samples += bucket;
+        }
+        if (samples == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Clear all recorded durations. Durations recorded while resetting may be partially lost.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.wildtooth.lang.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Framing of the protocol between {@link InterpreterClient} and {@link InterpreterServer}.
+ * <p>
+ * Every message is a frame: its length, counting the type, request id and payload, then a type byte, the id of the
+ * request it belongs to and the payload, all big-endian. Runs are told apart by their id, so any number of them can
+ * share one connection, and their frames may interleave.
+ * <ul>
+ *   <li>{@link #RUN}, client to server: a {@link RunRequest} to start under the frame's id</li>
+ *   <li>{@link #CANCEL}, client to server: stop the run with the frame's id, no payload</li>
+ *   <li>{@link #OUTPUT}, server to client: a chunk of the run's output</li>
+ *   <li>{@link #RESULT}, server to client: the run ended, with its status name, steps and line. Last frame of a
+ *   run.</li>
+ *   <li>{@link #ERROR}, server to client: the run could not be started or failed, with a message. Last frame of a
+ *   run.</li>
+ * </ul>
+ */
+final class Frames {
+    static final byte RUN = 1;
+    static final byte CANCEL = 2;
+    static final byte OUTPUT = 3;
+    static final byte RESULT = 4;
+    static final byte ERROR = 5;
+
+    /**
+     * Largest frame accepted, which bounds the size of submitted programs
+     */
+    static final int MAX_FRAME_SIZE = 64 << 20;
+
+    private static final int HEADER_SIZE = Integer.BYTES + 1 + Integer.BYTES;
+
+    private Frames() {
+    }
+
+    /**
+     * A frame read from a channel
+     */
+    static final class Frame {
+        final byte type;
+        final int id;
+        final ByteBuffer payload;
+
+        Frame(byte type, int id, ByteBuffer payload) {
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Read the next frame
+     *
+     * @param channel The channel to read from
+     * @return The frame, or null if the channel ended between two frames
+     * @throws IOException if reading fails, the channel ends within a frame or the frame is malformed
+     */
+    static Frame read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header, true)) {
+            return null;
+        }
+        header.flip();
+        int length = header.getInt();
+        if (length < HEADER_SIZE - Integer.BYTES || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte type = header.get();
+        int id = header.getInt();
+        ByteBuffer payload = ByteBuffer.allocate(length - (HEADER_SIZE - Integer.BYTES));
+        readFully(channel, payload, false);
+        payload.flip();
+        return new Frame(type, id, payload);
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer, boolean endAllowed)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (endAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed within a frame");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a frame. Callers sharing a channel must not write concurrently.
+     *
+     * @param channel The channel to write to
+     * @param type    Frame type
+     * @param id      Request id
+     * @param payload Buffer holding the payload
+     * @param offset  Start of the payload in the buffer
+     * @param length  Length of the payload
+     * @throws IOException if writing fails
+     */
+    static void write(WritableByteChannel channel, byte type, int id, byte[] payload, int offset, int length)
+            throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.putInt(HEADER_SIZE - Integer.BYTES + length).put(type).putInt(id).put(payload, offset, length);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+}
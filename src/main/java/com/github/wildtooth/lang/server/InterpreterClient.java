@@ -0,0 +1,102 @@
+package com.github.wildtooth.lang.server;
+
+import com.github.wildtooth.lang.interpreter.ExecutionResult;
+import com.github.wildtooth.lang.interpreter.ExecutionStatus;
+import com.github.wildtooth.lang.io.OutputSink;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Client of an {@link InterpreterServer} listening on a Unix domain socket. Runs are submitted one at a time, their
+ * output is handed to a sink as the server streams it.
+ */
+public final class InterpreterClient implements AutoCloseable {
+    private final SocketChannel channel;
+    private int nextId;
+
+    private InterpreterClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connect to a server
+     *
+     * @param socketPath Path of the server's socket file
+     * @return The connected client
+     * @throws IOException if the server cannot be reached
+     */
+    public static InterpreterClient connect(Path socketPath) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new InterpreterClient(channel);
+    }
+
+    /**
+     * Run a program on the server and wait for it to end
+     *
+     * @param request The program and its settings
+     * @param sink    Receives the output of the program
+     * @return The result of the run
+     * @throws IOException              if the connection fails or the sink fails
+     * @throws IllegalArgumentException if the server rejected the request or failed to run it
+     */
+    public synchronized ExecutionResult run(RunRequest request, OutputSink sink) throws IOException {
+        int id = nextId++;
+        byte[] payload = request.encode();
+        Frames.write(channel, Frames.RUN, id, payload, 0, payload.length);
+        while (true) {
+            Frames.Frame frame = Frames.read(channel);
+            if (frame == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (frame.id != id) {
+                continue;
+            }
+            ByteBuffer body = frame.payload;
+            switch (frame.type) {
+                case Frames.OUTPUT:
+                    sink.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+                    break;
+                case Frames.RESULT:
+                    sink.flush();
+                    try {
+                        long steps = body.getLong();
+                        int line = body.getInt();
+                        ExecutionStatus status = ExecutionStatus.valueOf(
+                                StandardCharsets.UTF_8.decode(body).toString());
+                        return new ExecutionResult(status, steps, line);
+                    } catch (BufferUnderflowException | IllegalArgumentException e) {
+                        throw new IOException("Malformed result from server", e);
+                    }
+                case Frames.ERROR:
+                    sink.flush();
+                    throw new IllegalArgumentException(StandardCharsets.UTF_8.decode(body).toString());
+                default:
+                    throw new IOException("Unknown frame type from server: " + frame.type);
+            }
+        }
+    }
+
+    /**
+     * Disconnect from the server, which cancels a run still going
+     *
+     * @throws IOException if closing the connection fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,335 @@
+package com.github.wildtooth.lang.server;
+
+import com.github.wildtooth.lang.interpreter.CancellationToken;
+import com.github.wildtooth.lang.interpreter.ExecutionLimits;
+import com.github.wildtooth.lang.interpreter.ExecutionResult;
+import com.github.wildtooth.lang.interpreter.Interpreter;
+import com.github.wildtooth.lang.interpreter.SharedDictionary;
+import com.github.wildtooth.lang.io.NullSink;
+import com.github.wildtooth.lang.memory.Memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived interpreter process serving runs to {@link InterpreterClient}s, so programs run in a JVM that has the
+ * dictionary loaded and the interpreter compiled instead of paying for both on every start.
+ * <p>
+ * Clients connect over a Unix domain socket, or a single client talks to the server over standard input and output.
+ * Each connection may submit any number of runs, see {@link Frames} for the protocol. Runs execute concurrently on a
+ * fixed pool of threads, each in its own interpreter and memory, and their output is streamed back as it is flushed.
+ * Runs get no input, programs reading it see the end of the input straight away. Memories larger than
+ * {@value #MAX_MEMORY_SIZE} cells are refused, so a client cannot make the server run out of heap.
+ * When a socket client disconnects, its unfinished runs are cancelled.
+ */
+public final class InterpreterServer implements AutoCloseable {
+    /**
+     * Largest memory a run may ask for, in cells
+     */
+    public static final int MAX_MEMORY_SIZE = 1 << 24;
+
+    private final ExecutorService runPool;
+    private final ExecutorService connectionPool;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile boolean closed;
+
+    /**
+     * Creates a server running as many programs at once as there are processors
+     */
+    public InterpreterServer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a server
+     *
+     * @param threads Number of programs to run at once, further runs wait for a thread
+     */
+    public InterpreterServer(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        this.runPool = Executors.newFixedThreadPool(threads, daemonThreads("ord-run-"));
+        this.connectionPool = Executors.newCachedThreadPool(daemonThreads("ord-connection-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Load the dictionary and run the bundled example program a few times, so the first client does not wait for
+     * class loading and compilation
+     */
+    public void warmUp() {
+        SharedDictionary.get();
+        String program;
+        try (InputStream in = InterpreterServer.class.getClassLoader().getResourceAsStream("HelloWorld.ord")) {
+            if (in == null) {
+                return;
+            }
+            program = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return;
+        }
+        for (int i = 0; i < 16; i++) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.setOutputSink(new NullSink());
+            interpreter.setInput(Channels.newChannel(InputStream.nullInputStream()));
+            interpreter.loadInstructions(program);
+            interpreter.execute();
+        }
+    }
+
+    /**
+     * Accept clients on a Unix domain socket until the server is closed. A socket file left behind by an earlier
+     * server is replaced, and the socket file is removed again when the server stops.
+     *
+     * @param socketPath Path of the socket file
+     * @throws IOException if the socket cannot be bound or accepting fails
+     */
+    public void serve(Path socketPath) throws IOException {
+        if (Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            if (Files.isRegularFile(socketPath, LinkOption.NOFOLLOW_LINKS) || Files.isDirectory(socketPath)) {
+                throw new IOException("Not a socket: " + socketPath);
+            }
+            Files.delete(socketPath);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            serverChannel = server;
+            while (!closed) {
+                SocketChannel client = server.accept();
+                try {
+                    connectionPool.execute(() -> {
+                        try (client) {
+                            handle(client, client, false);
+                        } catch (IOException e) {
+                            System.err.println("Failed to close connection: " + e.getMessage());
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    client.close();
+                }
+            }
+        } catch (ClosedChannelException e) {
+            if (!closed) {
+                throw e;
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Serve a single client over a pair of channels, e.g. standard input and output, until the client closes its
+     * end. Runs still going at that point are finished before returning.
+     *
+     * @param in  Channel the client's frames are read from
+     * @param out Channel frames for the client are written to
+     */
+    public void serve(ReadableByteChannel in, WritableByteChannel out) {
+        handle(in, out, true);
+    }
+
+    /**
+     * Read and dispatch the frames of one connection
+     */
+    private void handle(ReadableByteChannel in, WritableByteChannel out, boolean finishRuns) {
+        Connection connection = new Connection(out);
+        try {
+            Frames.Frame frame;
+            while ((frame = Frames.read(in)) != null) {
+                switch (frame.type) {
+                    case Frames.RUN:
+                        start(connection, frame.id, frame.payload);
+                        break;
+                    case Frames.CANCEL:
+                        CancellationToken token = connection.runs.get(frame.id);
+                        if (token != null) {
+                            token.cancel();
+                        }
+                        break;
+                    default:
+                        connection.sendError(frame.id, "Unknown frame type: " + frame.type);
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Connection failed: " + e.getMessage());
+            }
+            finishRuns = false;
+        }
+        if (finishRuns) {
+            connection.awaitRuns();
+        } else {
+            connection.cancelRuns();
+        }
+    }
+
+    private void start(Connection connection, int id, ByteBuffer payload) {
+        RunRequest request;
+        try {
+            request = RunRequest.decode(payload);
+        } catch (IllegalArgumentException e) {
+            connection.sendError(id, e.getMessage());
+            return;
+        }
+        if (request.getMemorySize() > MAX_MEMORY_SIZE) {
+            connection.sendError(id, "Memory size " + request.getMemorySize() + " exceeds the limit of "
+                    + MAX_MEMORY_SIZE + " cells");
+            return;
+        }
+        CancellationToken token = new CancellationToken();
+        if (connection.runs.putIfAbsent(id, token) != null) {
+            connection.sendError(id, "Request " + id + " is already running");
+            return;
+        }
+        try {
+            runPool.execute(() -> run(connection, id, request, token));
+        } catch (RejectedExecutionException e) {
+            connection.finish(id);
+            connection.sendError(id, "Server is shutting down");
+        }
+    }
+
+    private void run(Connection connection, int id, RunRequest request, CancellationToken token) {
+        try {
+            Interpreter interpreter = new Interpreter(Memory.create(request.getMemoryType(), request.getMemorySize(),
+                    request.getCellWidth()));
+            interpreter.setOutputSink((bytes, offset, length) -> {
+                if (!connection.send(Frames.OUTPUT, id, bytes, offset, length)) {
+                    throw new IOException("Client disconnected");
+                }
+            });
+            interpreter.setInput(Channels.newChannel(InputStream.nullInputStream()));
+            ExecutionLimits limits = ExecutionLimits.none().withMaxSteps(request.getMaxSteps())
+                    .withCancellation(token);
+            if (request.getTimeout() != null) {
+                limits = limits.withTimeout(request.getTimeout());
+            }
+            interpreter.setExecutionLimits(limits);
+            interpreter.setJitEnabled(request.isJitEnabled());
+            interpreter.setTieredCompilation(request.isTieredCompilation());
+            interpreter.loadInstructions(request.getProgram());
+
+            ExecutionResult result = interpreter.execute();
+            byte[] status = result.getStatus().name().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + status.length);
+            payload.putLong(result.getSteps()).putInt(result.getLine()).put(status);
+            connection.send(Frames.RESULT, id, payload.array(), 0, payload.capacity());
+        } catch (UncheckedIOException e) {
+            // The client is gone, nobody is left to tell
+        } catch (RuntimeException e) {
+            connection.sendError(id, e.getMessage() != null ? e.getMessage() : e.toString());
+        } catch (Error e) {
+            // Errors like running out of heap end only this run, the client still gets the last frame it waits for
+            connection.sendError(id, e.toString());
+        } finally {
+            connection.finish(id);
+        }
+    }
+
+    /**
+     * Stop accepting clients and cancel all runs
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ServerSocketChannel server = serverChannel;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close server socket: " + e.getMessage());
+            }
+        }
+        connectionPool.shutdownNow();
+        runPool.shutdownNow();
+    }
+
+    /**
+     * A client connection and the runs it has going
+     */
+    private static final class Connection {
+        private final WritableByteChannel out;
+        private final Map<Integer, CancellationToken> runs = new ConcurrentHashMap<>();
+        private boolean broken;
+
+        Connection(WritableByteChannel out) {
+            this.out = out;
+        }
+
+        /**
+         * Send a frame. Once a write fails, all runs of the connection are cancelled and nothing more is sent.
+         *
+         * @return true if the frame was sent
+         */
+        synchronized boolean send(byte type, int id, byte[] payload, int offset, int length) {
+            if (broken) {
+                return false;
+            }
+            try {
+                Frames.write(out, type, id, payload, offset, length);
+                return true;
+            } catch (IOException e) {
+                broken = true;
+                cancelRuns();
+                return false;
+            }
+        }
+
+        void sendError(int id, String message) {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            send(Frames.ERROR, id, payload, 0, payload.length);
+        }
+
+        synchronized void finish(int id) {
+            runs.remove(id);
+            notifyAll();
+        }
+
+        void cancelRuns() {
+            runs.values().forEach(CancellationToken::cancel);
+        }
+
+        synchronized void awaitRuns() {
+            while (!runs.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelRuns();
+                    return;
+                }
+            }
+        }
+    }
+}
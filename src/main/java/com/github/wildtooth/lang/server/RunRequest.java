@@ -0,0 +1,188 @@
+package com.github.wildtooth.lang.server;
+
+import com.github.wildtooth.lang.memory.CellWidth;
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.memory.MemoryType;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * A program submitted to an {@link InterpreterServer}, with the memory and limits to run it with.
+ * Requests are immutable, every {@code with} method returns a copy.
+ * <p>
+ * Encoded as: memory size, cell width in bits, memory type ordinal, step limit, timeout in milliseconds (0 for
+ * none), flags (1 for up-front compilation, 2 to disable tiered compilation), then the program text as UTF-8.
+ */
+public final class RunRequest {
+    private static final int JIT = 1;
+    private static final int NO_TIERED = 2;
+
+    private final String program;
+    private final MemoryType memoryType;
+    private final int memorySize;
+    private final CellWidth cellWidth;
+    private final long maxSteps;
+    private final Duration timeout;
+    private final boolean jitEnabled;
+    private final boolean tieredCompilation;
+
+    private RunRequest(String program, MemoryType memoryType, int memorySize, CellWidth cellWidth, long maxSteps,
+                       Duration timeout, boolean jitEnabled, boolean tieredCompilation) {
+        this.program = program;
+        this.memoryType = memoryType;
+        this.memorySize = memorySize;
+        this.cellWidth = cellWidth;
+        this.maxSteps = maxSteps;
+        this.timeout = timeout;
+        this.jitEnabled = jitEnabled;
+        this.tieredCompilation = tieredCompilation;
+    }
+
+    /**
+     * Creates a request to run a program with the defaults of the command line: the default memory of
+     * {@value Memory#DEFAULT_SIZE} 8 bit cells, no limits and tiered compilation
+     *
+     * @param program The program text
+     * @return The request
+     */
+    public static RunRequest of(String program) {
+        return new RunRequest(program, MemoryType.ARRAY, Memory.DEFAULT_SIZE, CellWidth.BITS_8, Long.MAX_VALUE, null,
+                false, true);
+    }
+
+    /**
+     * Run on another memory, see {@link Memory#create}
+     *
+     * @param memoryType Storage backend
+     * @param memorySize Number of cells
+     * @param cellWidth  Width of each cell
+     * @return A copy of this request with the memory
+     */
+    public RunRequest withMemory(MemoryType memoryType, int memorySize, CellWidth cellWidth) {
+        return new RunRequest(program, memoryType, memorySize, cellWidth, maxSteps, timeout, jitEnabled,
+                tieredCompilation);
+    }
+
+    /**
+     * Stop the run after a number of lines
+     *
+     * @param maxSteps Maximum number of lines to execute
+     * @return A copy of this request with the step limit
+     */
+    public RunRequest withMaxSteps(long maxSteps) {
+        return new RunRequest(program, memoryType, memorySize, cellWidth, maxSteps, timeout, jitEnabled,
+                tieredCompilation);
+    }
+
+    /**
+     * Stop the run after a wall-clock time
+     *
+     * @param timeout Maximum running time, at least a millisecond
+     * @return A copy of this request with the timeout
+     */
+    public RunRequest withTimeout(Duration timeout) {
+        return new RunRequest(program, memoryType, memorySize, cellWidth, maxSteps, timeout, jitEnabled,
+                tieredCompilation);
+    }
+
+    /**
+     * Choose how the program is compiled to bytecode, see
+     * {@link com.github.wildtooth.lang.interpreter.Interpreter#setJitEnabled}
+     *
+     * @param jitEnabled        true to compile the program up front
+     * @param tieredCompilation true to compile hot loops
+     * @return A copy of this request with the compilation settings
+     */
+    public RunRequest withCompilation(boolean jitEnabled, boolean tieredCompilation) {
+        return new RunRequest(program, memoryType, memorySize, cellWidth, maxSteps, timeout, jitEnabled,
+                tieredCompilation);
+    }
+
+    public String getProgram() {
+        return program;
+    }
+
+    public MemoryType getMemoryType() {
+        return memoryType;
+    }
+
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    public CellWidth getCellWidth() {
+        return cellWidth;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * Get the timeout of the run
+     *
+     * @return The timeout, or null if the run has no time limit
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public boolean isJitEnabled() {
+        return jitEnabled;
+    }
+
+    public boolean isTieredCompilation() {
+        return tieredCompilation;
+    }
+
+    byte[] encode() {
+        byte[] text = program.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 2 + 2 * Long.BYTES + 1 + text.length);
+        buffer.putInt(memorySize).put((byte) cellWidth.bits()).put((byte) memoryType.ordinal()).putLong(maxSteps)
+                .putLong(timeout != null ? Math.max(timeout.toMillis(), 1) : 0)
+                .put((byte) ((jitEnabled ? JIT : 0) | (tieredCompilation ? 0 : NO_TIERED))).put(text);
+        return buffer.array();
+    }
+
+    /**
+     * Decode a request
+     *
+     * @param payload The encoded request
+     * @return The request
+     * @throws IllegalArgumentException if the request is malformed or holds values no run can have
+     */
+    static RunRequest decode(ByteBuffer payload) {
+        try {
+            int memorySize = payload.getInt();
+            if (memorySize <= 0) {
+                throw new IllegalArgumentException("Memory size must be positive: " + memorySize);
+            }
+            CellWidth cellWidth = CellWidth.ofBits(Byte.toUnsignedInt(payload.get()));
+            int type = payload.get();
+            if (type < 0 || type >= MemoryType.values().length) {
+                throw new IllegalArgumentException("Unknown memory type: " + type);
+            }
+            long maxSteps = payload.getLong();
+            if (maxSteps < 0) {
+                throw new IllegalArgumentException("Step limit must not be negative: " + maxSteps);
+            }
+            long timeoutMillis = payload.getLong();
+            if (timeoutMillis < 0) {
+                throw new IllegalArgumentException("Timeout must not be negative: " + timeoutMillis);
+            }
+            int flags = payload.get();
+            if ((flags & ~(JIT | NO_TIERED)) != 0) {
+                throw new IllegalArgumentException("Unknown flags: " + flags);
+            }
+            String program = StandardCharsets.UTF_8.decode(payload).toString();
+            return new RunRequest(program, MemoryType.values()[type], memorySize, cellWidth, maxSteps,
+                    timeoutMillis > 0 ? Duration.ofMillis(timeoutMillis) : null, (flags & JIT) != 0,
+                    (flags & NO_TIERED) == 0);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated run request", e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.io.MemorySink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import com.github.wildtooth.lang.memory.Memory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes the snapshots of a run, reads them back and resumes the run from them
+ */
+class CheckpointLogTest {
+    private static final int MEMORY_SIZE = 9000;
+    private static final long INTERVAL = 97;
+
+    // Two nested counting loops touching three memory pages and printing once per outer iteration
+    private static final CompiledProgram PROGRAM = new CompiledProgram(
+            new byte[]{
+                    Opcode.SET, Opcode.MOVE_POINTER_TO, Opcode.SET, Opcode.MOVE_POINTER_TO, Opcode.ADD,
+                    Opcode.MOVE_POINTER_TO, Opcode.ADD, Opcode.MOVE_POINTER_TO, Opcode.ADD, Opcode.JUMP_IF_NOT_ZERO,
+                    Opcode.MOVE_POINTER_TO, Opcode.PRINT_VALUE, Opcode.MOVE_POINTER_TO, Opcode.ADD,
+                    Opcode.JUMP_IF_NOT_ZERO,
+            },
+            new int[]{100, 1, 50, 5000, 7, 8999, 1, 1, 255, 3, 5000, 0, 0, 255, 1});
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void snapshotsSurviveARoundTrip() throws IOException {
+        Run reference = Run.withCheckpoints(snapshot -> { });
+        assertTrue(reference.snapshots.size() > Checkpointer.FULL_SNAPSHOT_INTERVAL, "too few snapshots to chain");
+
+        List<ExecutionSnapshot> read = ExecutionSnapshot.readAll(ByteBuffer.wrap(serialize(reference.snapshots)));
+        assertEquals(reference.snapshots.size(), read.size());
+        for (int i = 0; i < read.size(); i++) {
+            ExecutionSnapshot expected = reference.snapshots.get(i);
+            ExecutionSnapshot actual = read.get(i);
+            assertEquals(expected.isFull(), actual.isFull(), "snapshot " + i);
+            assertEquals(expected.getSequence(), actual.getSequence(), "snapshot " + i);
+            assertEquals(expected.getLine(), actual.getLine(), "snapshot " + i);
+            assertEquals(expected.getSteps(), actual.getSteps(), "snapshot " + i);
+            assertArrayEquals(serialize(List.of(expected)), serialize(List.of(actual)), "snapshot " + i);
+        }
+
+        // Resuming from any snapshot ends where the uninterrupted run ended
+        for (int i = 0; i < read.size(); i += 7) {
+            reference.assertResumesFrom(i, read.subList(0, i + 1));
+        }
+    }
+
+    @Test
+    void logIgnoresATornTail() throws IOException {
+        Path path = directory.resolve("run.ck");
+        CheckpointLog log = new CheckpointLog(path);
+        Run reference = Run.withCheckpoints(log);
+
+        // The log holds the chain since the last full snapshot
+        int last = reference.snapshots.size() - 1;
+        int lastFull = last;
+        while (!reference.snapshots.get(lastFull).isFull()) {
+            lastFull--;
+        }
+        List<ExecutionSnapshot> chain = CheckpointLog.read(path);
+        assertEquals(last - lastFull + 1, chain.size());
+        reference.assertResumesFrom(last, chain);
+
+        // A process dying while appending leaves half a record behind
+        byte[] record = serialize(List.of(reference.snapshots.get(last)));
+        try (OutputStream outputStream = Files.newOutputStream(path, StandardOpenOption.APPEND)) {
+            outputStream.write(record, 0, record.length / 2);
+        }
+        List<ExecutionSnapshot> torn = CheckpointLog.read(path);
+        assertEquals(chain.size(), torn.size());
+        reference.assertResumesFrom(last, torn);
+
+        // Even a few bytes of a header are ignored
+        byte[] complete = serialize(chain);
+        byte[] header = Arrays.copyOf(complete, complete.length + 3);
+        System.arraycopy(complete, 0, header, complete.length, 3);
+        assertEquals(chain.size(), ExecutionSnapshot.readAll(ByteBuffer.wrap(header)).size());
+    }
+
+    @Test
+    void corruptRecordBeforeTheEndIsRejected() throws IOException {
+        Run reference = Run.withCheckpoints(snapshot -> { });
+        byte[] bytes = serialize(reference.snapshots.subList(0, 3));
+        bytes[20] ^= 1;
+        assertThrows(IllegalArgumentException.class, () -> ExecutionSnapshot.readAll(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    void brokenChainIsRejected() {
+        Run reference = Run.withCheckpoints(snapshot -> { });
+        List<ExecutionSnapshot> chain = new ArrayList<>(reference.snapshots.subList(0, 10));
+
+        List<ExecutionSnapshot> gap = new ArrayList<>(chain);
+        gap.remove(5);
+        IllegalArgumentException broken = assertThrows(IllegalArgumentException.class, () -> resume(PROGRAM, gap));
+        assertTrue(broken.getMessage().contains("chain is broken"), broken.getMessage());
+
+        List<ExecutionSnapshot> headless = chain.subList(1, chain.size());
+        assertThrows(IllegalArgumentException.class, () -> resume(PROGRAM, headless));
+
+        int[] operands = PROGRAM.operands().clone();
+        operands[4]++;
+        CompiledProgram other = new CompiledProgram(PROGRAM.opcodes(), operands);
+        IllegalArgumentException different = assertThrows(IllegalArgumentException.class,
+                () -> resume(other, chain));
+        assertTrue(different.getMessage().contains("different program"), different.getMessage());
+    }
+
+    @Test
+    void snapshotsResumeInAndOutsideDebugMode() {
+        // The second and third line can never run, so runs outside debug mode leave them out
+        String program = "add\njing\nadd\nadd\n";
+        for (boolean debugTaken : new boolean[]{false, true}) {
+            List<ExecutionSnapshot> snapshots = new ArrayList<>();
+            Interpreter taken = newInterpreter(program, debugTaken);
+            taken.setExecutionLimits(ExecutionLimits.none().withMaxSteps(100).withCheckpoints(10, snapshots::add));
+            assertEquals(ExecutionStatus.STEP_LIMIT_EXCEEDED, taken.execute().getStatus());
+
+            Interpreter resumed = newInterpreter(program, !debugTaken);
+            resumed.setExecutionLimits(ExecutionLimits.none().withMaxSteps(200));
+            ExecutionResult result = resumed.resume(snapshots);
+            assertEquals(ExecutionStatus.STEP_LIMIT_EXCEEDED, result.getStatus(), "taken in debug mode: " + debugTaken);
+            assertEquals(200, result.getSteps(), "taken in debug mode: " + debugTaken);
+        }
+    }
+
+    @Test
+    void runsStoppedByTheStepLimitResumeLikeUnfusedRuns() {
+        // A counter loop around runs of adds and pointer moves the optimizer fuses
+        CompiledProgram program = new CompiledProgram(
+                new byte[]{
+                        Opcode.SET, Opcode.MOVE_POINTER_FORWARD, Opcode.ADD, Opcode.ADD, Opcode.SUBTRACT,
+                        Opcode.MOVE_POINTER_FORWARD, Opcode.MOVE_POINTER_FORWARD, Opcode.SET, Opcode.ADD,
+                        Opcode.MOVE_POINTER_BACK, Opcode.MOVE_POINTER_BACK, Opcode.MOVE_POINTER_BACK, Opcode.SUBTRACT,
+                        Opcode.JUMP_IF_NOT_ZERO, Opcode.PRINT_VALUE,
+                },
+                new int[]{9, 0, 3, 4, 2, 0, 0, 7, 1, 0, 0, 0, 1, 1, 0});
+        CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+        Memory unlimitedMemory = new ByteArrayMemory(MEMORY_SIZE);
+        ExecutionResult unlimited = ProgramExecutor.execute(program, Run.newContext(unlimitedMemory, new MemorySink()));
+
+        for (long maxSteps = 1; maxSteps < unlimited.getSteps(); maxSteps++) {
+            String description = "stopped after " + maxSteps + " steps";
+            Memory unfusedMemory = new ByteArrayMemory(MEMORY_SIZE);
+            ExecutionResult unfused = ProgramExecutor.execute(program, Run.newContext(unfusedMemory, new MemorySink()),
+                    ExecutionLimits.none().withMaxSteps(maxSteps));
+
+            List<ExecutionSnapshot> snapshots = new ArrayList<>();
+            Memory stoppedMemory = new ByteArrayMemory(MEMORY_SIZE);
+            ExecutionResult stopped = ProgramExecutor.execute(optimized,
+                    Run.newContext(stoppedMemory, new MemorySink()),
+                    ExecutionLimits.none().withMaxSteps(maxSteps).withCheckpoints(5, snapshots::add));
+            assertEquals(unfused.getSteps(), stopped.getSteps(), description);
+            assertEquals(unfused.getLine(), stopped.getLine(), description);
+            ExecutionSnapshot last = snapshots.get(snapshots.size() - 1);
+            assertEquals(unfused.getSteps(), last.getSteps(), description);
+            assertEquals(unfused.getLine(), last.getLine(), description);
+            assertSameMemory(unfusedMemory, stoppedMemory, description);
+
+            Memory resumedMemory = new ByteArrayMemory(MEMORY_SIZE);
+            ExecutionResult resumed = ProgramExecutor.resume(optimized, Run.newContext(resumedMemory, new MemorySink()),
+                    ExecutionLimits.none(), snapshots);
+            assertEquals(ExecutionStatus.COMPLETED, resumed.getStatus(), description);
+            assertEquals(unlimited.getSteps(), resumed.getSteps(), description);
+            assertSameMemory(unlimitedMemory, resumedMemory, description);
+        }
+    }
+
+    private static void assertSameMemory(Memory expected, Memory actual, String description) {
+        assertEquals(expected.getPointer(), actual.getPointer(), description);
+        for (int address = 0; address < MEMORY_SIZE; address++) {
+            assertEquals(expected.getCell(address), actual.getCell(address), description + ", cell " + address);
+        }
+    }
+
+    private static Interpreter newInterpreter(String program, boolean debug) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setDebugMode(debug);
+        interpreter.setOutputSink(new MemorySink());
+        interpreter.setInput(Channels.newChannel(InputStream.nullInputStream()));
+        interpreter.loadInstructions(program);
+        return interpreter;
+    }
+
+    private static ExecutionResult resume(CompiledProgram program, List<ExecutionSnapshot> snapshots) {
+        return ProgramExecutor.resume(program, Run.newContext(new ByteArrayMemory(MEMORY_SIZE), new MemorySink()),
+                ExecutionLimits.none(), snapshots);
+    }
+
+    private static byte[] serialize(List<ExecutionSnapshot> snapshots) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (ExecutionSnapshot snapshot : snapshots) {
+            snapshot.writeTo(outputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * An uninterrupted run of the program, with the snapshots taken of it and how much output was flushed by then
+     */
+    private static final class Run {
+        private final List<ExecutionSnapshot> snapshots = new ArrayList<>();
+        private final List<Integer> flushed = new ArrayList<>();
+        private final MemorySink sink = new MemorySink();
+        private final Memory memory = new ByteArrayMemory(MEMORY_SIZE);
+        private ExecutionResult result;
+
+        static Run withCheckpoints(Consumer<ExecutionSnapshot> listener) {
+            Run run = new Run();
+            run.result = ProgramExecutor.execute(PROGRAM, newContext(run.memory, run.sink),
+                    ExecutionLimits.none().withCheckpoints(INTERVAL, snapshot -> {
+                        run.snapshots.add(snapshot);
+                        run.flushed.add(run.sink.size());
+                        listener.accept(snapshot);
+                    }));
+            assertTrue(run.result.isCompleted());
+            return run;
+        }
+
+        static ExecutionContext newContext(Memory memory, MemorySink sink) {
+            return new ExecutionContext(memory, sink, Channels.newChannel(InputStream.nullInputStream()));
+        }
+
+        /**
+         * Resume in a fresh context and check that the run ends as this one did. Output flushed before the last
+         * snapshot was taken is not produced again.
+         */
+        void assertResumesFrom(int index, List<ExecutionSnapshot> chain) {
+            Memory resumedMemory = new ByteArrayMemory(MEMORY_SIZE);
+            MemorySink resumedSink = new MemorySink();
+            ExecutionResult resumed = ProgramExecutor.resume(PROGRAM, newContext(resumedMemory, resumedSink),
+                    ExecutionLimits.none(), chain);
+            String description = "resumed from snapshot " + index;
+            assertEquals(result.getStatus(), resumed.getStatus(), description);
+            assertEquals(result.getSteps(), resumed.getSteps(), description);
+            assertEquals(memory.getPointer(), resumedMemory.getPointer(), description);
+            for (int address = 0; address < MEMORY_SIZE; address++) {
+                assertEquals(memory.getCell(address), resumedMemory.getCell(address), description);
+            }
+            byte[] output = sink.toByteArray();
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(output, flushed.get(index), output.length - flushed.get(index));
+            assertArrayEquals(expected.toByteArray(), resumedSink.toByteArray(), description);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.CountingLoop;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.io.MemorySink;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs counting loops in one go and line by line, under every step budget and snapshot interval up to the length of
+ * the run, and checks both against plain interpretation
+ */
+class CountingLoopTest {
+    private static final int MEMORY_SIZE = 16;
+
+    // An outer loop entering a counting loop three times. The loop counts 20 down and adds 3 to the next cell.
+    private static final CompiledProgram COUNTER_HEAD = new CompiledProgram(
+            new byte[]{
+                    Opcode.SET, Opcode.MOVE_POINTER_FORWARD, Opcode.SET, Opcode.SUBTRACT, Opcode.MOVE_POINTER_FORWARD,
+                    Opcode.ADD, Opcode.MOVE_POINTER_BACK, Opcode.JUMP_IF_NOT_ZERO, Opcode.MOVE_POINTER_BACK,
+                    Opcode.SUBTRACT, Opcode.JUMP_IF_NOT_ZERO, Opcode.PRINT_VALUE,
+            },
+            new int[]{3, 0, 20, 1, 0, 3, 0, 3, 0, 1, 1, 0});
+
+    // The same with a loop starting with a pointer move and two adds the optimizer fuses
+    private static final CompiledProgram MOVING_HEAD = new CompiledProgram(
+            new byte[]{
+                    Opcode.SET, Opcode.MOVE_POINTER_FORWARD, Opcode.SET, Opcode.MOVE_POINTER_FORWARD, Opcode.ADD,
+                    Opcode.ADD, Opcode.MOVE_POINTER_BACK, Opcode.SUBTRACT, Opcode.JUMP_IF_NOT_ZERO,
+                    Opcode.MOVE_POINTER_BACK, Opcode.SUBTRACT, Opcode.JUMP_IF_NOT_ZERO, Opcode.PRINT_VALUE,
+            },
+            new int[]{2, 0, 7, 0, 2, 3, 0, 1, 3, 0, 1, 1, 0});
+
+    @Test
+    void loopFitsWhileNoJumpBackReachesTheCheckpoint() {
+        assertTrue(CountingLoop.fits(1, 5, 0));
+        assertFalse(CountingLoop.fits(2, 5, 0));
+        for (long iterations = 2; iterations < 50; iterations++) {
+            // The last jump back is taken (iterations - 2) * length steps after the first one
+            long lastJumpBack = (iterations - 2) * 5;
+            assertFalse(CountingLoop.fits(iterations, 5, lastJumpBack), iterations + " iterations");
+            assertTrue(CountingLoop.fits(iterations, 5, lastJumpBack + 1), iterations + " iterations");
+        }
+    }
+
+    @Test
+    void boundedRunsMatchPlainInterpretation() {
+        for (CompiledProgram program : new CompiledProgram[]{COUNTER_HEAD, MOVING_HEAD}) {
+            CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+            assertEquals(1, optimized.countingLoops().length);
+
+            Run unlimited = Run.of(program, ExecutionLimits.none());
+            assertEquals(ExecutionStatus.COMPLETED, unlimited.result.getStatus());
+            unlimited.assertSame(Run.of(optimized, ExecutionLimits.none()), "unlimited");
+            // Budgets ending before, in and after every pass through the loop, which only fits the larger ones
+            for (long maxSteps = 0; maxSteps <= unlimited.result.getSteps() + 1; maxSteps++) {
+                ExecutionLimits limits = ExecutionLimits.none().withMaxSteps(maxSteps);
+                Run.of(program, limits).assertSame(Run.of(optimized, limits), maxSteps + " steps");
+            }
+        }
+    }
+
+    @Test
+    void snapshotsMatchPlainInterpretation() {
+        for (CompiledProgram program : new CompiledProgram[]{COUNTER_HEAD, MOVING_HEAD}) {
+            CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+            for (long interval = 1; interval <= 40; interval++) {
+                List<String> expected = new ArrayList<>();
+                List<String> actual = new ArrayList<>();
+                Run plain = Run.of(program, ExecutionLimits.none().withCheckpoints(interval,
+                        snapshot -> expected.add(snapshot.getLine() + " after " + snapshot.getSteps())));
+                Run rewritten = Run.of(optimized, ExecutionLimits.none().withCheckpoints(interval,
+                        snapshot -> actual.add(snapshot.getLine() + " after " + snapshot.getSteps())));
+                String description = "snapshots every " + interval + " steps";
+                assertEquals(expected, actual, description);
+                plain.assertSame(rewritten, description);
+            }
+        }
+    }
+
+    /**
+     * One run from fresh memory
+     */
+    private static final class Run {
+        private final ByteArrayMemory memory = new ByteArrayMemory(MEMORY_SIZE);
+        private final MemorySink sink = new MemorySink();
+        private ExecutionResult result;
+
+        static Run of(CompiledProgram program, ExecutionLimits limits) {
+            Run run = new Run();
+            run.result = ProgramExecutor.execute(program, new ExecutionContext(run.memory, run.sink,
+                    Channels.newChannel(InputStream.nullInputStream())), limits);
+            return run;
+        }
+
+        void assertSame(Run actual, String description) {
+            assertEquals(result.getStatus(), actual.result.getStatus(), description + ": status");
+            assertEquals(result.getSteps(), actual.result.getSteps(), description + ": steps");
+            assertEquals(result.getLine(), actual.result.getLine(), description + ": line");
+            assertArrayEquals(sink.toByteArray(), actual.sink.toByteArray(), description + ": output");
+            assertEquals(memory.getPointer(), actual.memory.getPointer(), description + ": pointer");
+            for (int address = 0; address < MEMORY_SIZE; address++) {
+                assertEquals(memory.getCell(address), actual.memory.getCell(address),
+                        description + ": cell " + address);
+            }
+        }
+    }
+}
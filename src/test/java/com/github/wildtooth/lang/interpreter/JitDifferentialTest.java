@@ -0,0 +1,280 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.ControlFlowGraph;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Runs the same programs as written, as debug mode runs them, and optimized, interpreted, compiled as a whole and
+ * compiled loop by loop, and checks that every run ends the same way with the same output and memory, also when a
+ * step budget ends it early
+ */
+class JitDifferentialTest {
+    private static final long MAX_STEPS = 200_000;
+    // Budgets ending in the first lines, in the first loop iterations and far into a run
+    private static final long[] STEP_BUDGETS = {0, 1, 2, 3, 5, 8, 13, 21, 34, 55, 89, 1000, MAX_STEPS};
+    private static final byte[] SIMPLE_OPCODES = {
+            Opcode.ADD, Opcode.SUBTRACT, Opcode.SET, Opcode.MOVE_POINTER_TO, Opcode.MOVE_POINTER_FORWARD,
+            Opcode.MOVE_POINTER_BACK, Opcode.PRINT_VALUE, Opcode.PRINT_ASCII, Opcode.PRINT_BYTE, Opcode.PRINT_VALUE_AT,
+            Opcode.PRINT_ASCII_AT, Opcode.READ_BYTE, Opcode.TEST_END_OF_INPUT,
+    };
+    private static final byte[] JUMP_OPCODES = {
+            Opcode.JUMP_TO_INSTRUCTION, Opcode.JUMP_IF_ZERO, Opcode.JUMP_IF_NOT_ZERO, Opcode.JUMP_BACK,
+            Opcode.JUMP_FORWARD,
+    };
+
+    @Test
+    void randomProgramsRunTheSameInEveryMode() {
+        Random random = new Random(42);
+        for (int i = 0; i < 400; i++) {
+            CompiledProgram program = randomProgram(random, 4 + random.nextInt(40));
+            byte[] input = new byte[random.nextInt(64)];
+            random.nextBytes(input);
+            assertSameInEveryMode(program, input, "random program " + i);
+        }
+    }
+
+    @Test
+    void nestedCountingLoopsRunTheSameInEveryMode() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            CompiledProgram program = nestedLoops(1 + random.nextInt(255), 1 + random.nextInt(255), random.nextInt(9));
+            assertSameInEveryMode(program, new byte[0], "nested loops " + i);
+        }
+    }
+
+    @Test
+    void bundledExampleRunsTheSameInEveryMode() throws Exception {
+        String expected = null;
+        for (int mode = 0; mode < 3; mode++) {
+            Interpreter interpreter = new Interpreter();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            interpreter.setOutputSink(output::write);
+            interpreter.setInput(Channels.newChannel(InputStream.nullInputStream()));
+            interpreter.setJitEnabled(mode == 1);
+            interpreter.setTieredCompilation(mode == 2);
+            try (InputStream in = Objects.requireNonNull(getClass().getResourceAsStream("/HelloWorld.ord"))) {
+                interpreter.loadInstructions(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+            assertEquals(ExecutionStatus.COMPLETED, interpreter.execute().getStatus());
+            String text = output.toString(StandardCharsets.UTF_8);
+            if (expected == null) {
+                expected = text;
+            }
+            assertEquals(expected, text, "mode " + mode);
+        }
+    }
+
+    @Test
+    void concurrentTieredRunsCompileEveryLoop() throws Exception {
+        CompiledProgram program = nestedLoops(200, 200, 3);
+        Run expected = interpret(program, new byte[0]);
+        for (int attempt = 0; attempt < 5; attempt++) {
+            JitProgram jitProgram = JitProgram.tiered(program);
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<Run>> runs = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    runs.add(pool.submit(() -> run(jitProgram, new byte[0])));
+                }
+                for (Future<Run> run : runs) {
+                    expected.assertSame(run.get(), "concurrent tiered run");
+                }
+            } finally {
+                pool.shutdown();
+            }
+            // The inner back edge is taken far more often than the threshold, so its loop has code to continue in
+            int innerEdge = firstLine(program, Opcode.JUMP_IF_NOT_ZERO);
+            assertNotNull(jitProgram.backEdge(innerEdge, program.jumpTarget(innerEdge)),
+                    "inner loop was never compiled");
+        }
+    }
+
+    private static int firstLine(CompiledProgram program, byte opcode) {
+        for (int line = 0; ; line++) {
+            if (program.opcodes()[line] == opcode) {
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Interpret a program as written, as debug mode does, and check that it runs the same in every mode as written,
+     * fused, and without its unreachable lines and fused, without a step limit and with budgets ending anywhere in
+     * the run
+     */
+    private static void assertSameInEveryMode(CompiledProgram program, byte[] input, String description) {
+        CompiledProgram fused = PeepholeOptimizer.optimize(program);
+        CompiledProgram optimized = optimize(program);
+        // Stripping unreachable lines numbers the lines after them differently
+        boolean sameLines = optimized.size() == program.size();
+        JitProgram compiled = JitProgram.compile(program);
+        JitProgram compiledFused = JitProgram.compile(fused);
+        JitProgram compiledOptimized = JitProgram.compile(optimized);
+        for (long maxSteps : STEP_BUDGETS) {
+            String budget = description + ", " + maxSteps + " steps";
+            Run expected = interpret(program, input, maxSteps);
+            assertSameInEveryMode(expected, program, compiled, true, input, maxSteps, budget);
+            assertSameInEveryMode(expected, fused, compiledFused, true, input, maxSteps, budget + ", fused");
+            assertSameInEveryMode(expected, optimized, compiledOptimized, sameLines, input, maxSteps,
+                    budget + ", optimized");
+        }
+    }
+
+    private static void assertSameInEveryMode(Run expected, CompiledProgram program, JitProgram compiled,
+                                              boolean sameLines, byte[] input, long maxSteps, String description) {
+        expected.assertSame(interpret(program, input, maxSteps), sameLines, description + ", interpreted");
+        if (compiled != null) {
+            expected.assertSame(run(compiled, input, maxSteps), sameLines, description + ", compiled");
+        }
+        expected.assertSame(run(JitProgram.tiered(program), input, maxSteps), sameLines, description + ", tiered");
+    }
+
+    private static Run interpret(CompiledProgram program, byte[] input) {
+        return interpret(program, input, MAX_STEPS);
+    }
+
+    private static Run interpret(CompiledProgram program, byte[] input, long maxSteps) {
+        Run run = new Run(input);
+        try {
+            run.result = ProgramExecutor.execute(program, run.context, ExecutionLimits.none().withMaxSteps(maxSteps));
+        } catch (RuntimeException e) {
+            run.failure = e.getClass();
+        }
+        return run;
+    }
+
+    private static Run run(JitProgram program, byte[] input) {
+        return run(program, input, MAX_STEPS);
+    }
+
+    private static Run run(JitProgram program, byte[] input, long maxSteps) {
+        Run run = new Run(input);
+        try {
+            run.result = program.execute(run.context, ExecutionLimits.none().withMaxSteps(maxSteps));
+        } catch (RuntimeException e) {
+            run.failure = e.getClass();
+        }
+        return run;
+    }
+
+    private static CompiledProgram optimize(CompiledProgram program) {
+        return PeepholeOptimizer.optimize(ControlFlowGraph.build(program).stripUnreachable());
+    }
+
+    private static CompiledProgram randomProgram(Random random, int length) {
+        byte[] opcodes = new byte[length];
+        int[] operands = new int[length];
+        for (int line = 0; line < length; line++) {
+            if (random.nextInt(4) == 0) {
+                opcodes[line] = JUMP_OPCODES[random.nextInt(JUMP_OPCODES.length)];
+                operands[line] = random.nextInt(3 * length) - length;
+            } else {
+                opcodes[line] = SIMPLE_OPCODES[random.nextInt(SIMPLE_OPCODES.length)];
+                operands[line] = random.nextInt(600) - 150;
+            }
+        }
+        return new CompiledProgram(opcodes, operands);
+    }
+
+    /**
+     * Two counting loops around a few lines of straight work, ending in a print of the counter cells
+     */
+    private static CompiledProgram nestedLoops(int outer, int inner, int work) {
+        List<byte[]> lines = new ArrayList<>();
+        List<Integer> operands = new ArrayList<>();
+        lines.add(new byte[]{Opcode.SET});
+        operands.add(outer);
+        int outerHead = lines.size();
+        lines.add(new byte[]{Opcode.MOVE_POINTER_FORWARD});
+        operands.add(1);
+        lines.add(new byte[]{Opcode.SET});
+        operands.add(inner);
+        int innerHead = lines.size();
+        for (int i = 0; i < work; i++) {
+            lines.add(new byte[]{Opcode.MOVE_POINTER_FORWARD});
+            operands.add(1 + i % 3);
+            lines.add(new byte[]{Opcode.ADD});
+            operands.add(3 * i + 1);
+            lines.add(new byte[]{Opcode.MOVE_POINTER_BACK});
+            operands.add(1 + i % 3);
+        }
+        lines.add(new byte[]{Opcode.ADD});
+        operands.add(255);
+        lines.add(new byte[]{Opcode.JUMP_IF_NOT_ZERO});
+        operands.add(innerHead);
+        lines.add(new byte[]{Opcode.MOVE_POINTER_BACK});
+        operands.add(1);
+        lines.add(new byte[]{Opcode.ADD});
+        operands.add(255);
+        lines.add(new byte[]{Opcode.JUMP_IF_NOT_ZERO});
+        operands.add(outerHead);
+        lines.add(new byte[]{Opcode.PRINT_VALUE_MEM_TABLE});
+        operands.add(0);
+
+        byte[] opcodes = new byte[lines.size()];
+        int[] operandArray = new int[lines.size()];
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodes[i] = lines.get(i)[0];
+            operandArray[i] = operands.get(i);
+        }
+        return new CompiledProgram(opcodes, operandArray);
+    }
+
+    /**
+     * One run with its own memory, input and captured output
+     */
+    private static final class Run {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final ByteArrayMemory memory = new ByteArrayMemory();
+        private final ExecutionContext context;
+        private ExecutionResult result;
+        private Class<?> failure;  // a jump to a negative line fails the run with an exception
+
+        Run(byte[] input) {
+            context = new ExecutionContext(memory, output::write, Channels.newChannel(new ByteArrayInputStream(input)));
+        }
+
+        void assertSame(Run actual, String description) {
+            assertSame(actual, true, description);
+        }
+
+        void assertSame(Run actual, boolean sameLines, String description) {
+            assertEquals(failure, actual.failure, description + ": failure");
+            if (failure == null) {
+                assertEquals(result.getStatus(), actual.result.getStatus(), description + ": status");
+                assertEquals(result.getSteps(), actual.result.getSteps(), description + ": steps");
+                if (sameLines) {
+                    assertEquals(result.getLine(), actual.result.getLine(), description + ": line");
+                }
+            }
+            assertArrayEquals(output.toByteArray(), actual.output.toByteArray(), description + ": output");
+            assertEquals(memory.getPointer(), actual.memory.getPointer(), description + ": pointer");
+            for (int address = 0; address < memory.size(); address++) {
+                assertEquals(memory.getCell(address), actual.memory.getCell(address),
+                        description + ": cell " + address);
+            }
+        }
+    }
+}
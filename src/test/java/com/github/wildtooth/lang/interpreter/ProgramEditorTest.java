@@ -0,0 +1,114 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.io.MemorySink;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Applies random edit sequences through a {@link ProgramEditor} and checks after every edit that the program is the
+ * one loading the edited text from scratch gives
+ */
+class ProgramEditorTest {
+    // One or two lines per instruction, with blank lines, a comment and a line that is not all words
+    private static final String[] LINES = {
+            "held", "anthrop", "audacity", "bluewood", "burgee", "CAMMOCK breth", "CRONE", "everyday appress",
+            "eugeny", "foreside", "FLISK", "goonda", "gondi", "jettison", "jibmen xvii xylylic", "kalam", "lathraea",
+            "lowigite", "mergers", "misdo", "nizams", "postils", "quintet", "SHORTEST", "stelic", "whered", "",
+            "   ", "# comment", "zzzq not words",
+    };
+    private static final String PREFIX = "anthrop\n";
+
+    @Test
+    void editsMatchReloadingTheEditedText() {
+        Random random = new Random(5);
+        for (int sequence = 0; sequence < 200; sequence++) {
+            boolean debug = sequence % 5 == 0;
+            boolean tiered = sequence % 2 == 0;
+            String prefix = sequence % 3 == 0 ? PREFIX : "";
+            List<String> lines = new ArrayList<>();
+            int lineCount = 1 + random.nextInt(40);
+            for (int i = 0; i < lineCount; i++) {
+                lines.add(randomLine(random));
+            }
+
+            Interpreter edited = newInterpreter(debug, tiered);
+            edited.loadInstructions(prefix);
+            ProgramEditor editor = edited.getEditor();
+            // Every line ends in a line break, so a blank last line still counts
+            String lineBreak = sequence % 4 == 0 ? "\r\n" : "\n";
+            editor.load(String.join(lineBreak, lines) + lineBreak);
+            for (int edit = 0; edit < 25; edit++) {
+                String description = "sequence " + sequence + ", edit " + edit;
+                String text = randomLine(random);
+                int operation = random.nextInt(3);
+                if (operation == 0 || lines.isEmpty()) {
+                    int line = random.nextInt(lines.size() + 1);
+                    lines.add(line, text);
+                    editor.insertLine(line, text);
+                } else if (operation == 1) {
+                    int line = random.nextInt(lines.size());
+                    lines.set(line, text);
+                    editor.replaceLine(line, text);
+                } else {
+                    int line = random.nextInt(lines.size());
+                    lines.remove(line);
+                    editor.deleteLine(line);
+                }
+
+                Interpreter reloaded = newInterpreter(debug, tiered);
+                reloaded.loadInstructions(prefix + String.join("\n", lines));
+                CompiledProgram expected = reloaded.getProgram();
+                CompiledProgram actual = edited.getProgram();
+                assertEquals(lines.size(), editor.getLineCount(), description + ": line count");
+                assertArrayEquals(expected.opcodes(), actual.opcodes(), description + ": opcodes");
+                assertArrayEquals(expected.operands(), actual.operands(), description + ": operands");
+                if (edit % 10 == 9 && !debug) {
+                    assertEquals(run(reloaded), run(edited), description + ": run");
+                }
+            }
+        }
+    }
+
+    private static String randomLine(Random random) {
+        return LINES[random.nextInt(LINES.length)];
+    }
+
+    private static Interpreter newInterpreter(boolean debug, boolean tiered) {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setDebugMode(debug);
+        interpreter.setTieredCompilation(tiered);
+        interpreter.setExecutionLimits(ExecutionLimits.none().withMaxSteps(20_000));
+        return interpreter;
+    }
+
+    /**
+     * Run a program from fresh memory
+     *
+     * @return How the run ended, and what it printed
+     */
+    private static String run(Interpreter interpreter) {
+        MemorySink sink = new MemorySink();
+        interpreter.setOutputSink(sink);
+        interpreter.setInput(Channels.newChannel(InputStream.nullInputStream()));
+        interpreter.reset();
+        String result;
+        try {
+            ExecutionResult executionResult = interpreter.execute();
+            result = executionResult.getStatus() + " after " + executionResult.getSteps() + " steps";
+        } catch (RuntimeException e) {
+            // A jump to a negative line fails the run
+            result = e.getClass().getName();
+        }
+        return result + ": " + sink.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.wildtooth.lang.interpreter;
+
+import com.github.wildtooth.lang.instruction.CompiledProgram;
+import com.github.wildtooth.lang.instruction.Opcode;
+import com.github.wildtooth.lang.instruction.PeepholeOptimizer;
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs programs under step budgets with and without fused instructions, interpreted, profiled and with generated
+ * code, and checks that every run stops after the same number of steps with the same memory, output and profile
+ */
+class StepLimitTest {
+    private static final int MEMORY_SIZE = 64;
+    // Mostly lines the optimizer fuses, so budgets often end inside a fused run
+    private static final byte[] FUSABLE_OPCODES = {
+            Opcode.ADD, Opcode.ADD, Opcode.SUBTRACT, Opcode.SET, Opcode.MOVE_POINTER_FORWARD,
+            Opcode.MOVE_POINTER_FORWARD, Opcode.MOVE_POINTER_BACK, Opcode.NOP,
+    };
+    private static final byte[] OTHER_OPCODES = {
+            Opcode.PRINT_VALUE, Opcode.PRINT_BYTE, Opcode.MOVE_POINTER_TO, Opcode.READ_BYTE,
+            Opcode.JUMP_IF_NOT_ZERO, Opcode.JUMP_IF_ZERO, Opcode.JUMP_BACK, Opcode.JUMP_TO_INSTRUCTION,
+    };
+
+    @Test
+    void budgetEndingInsideAFusedRunStopsOnTheLine() {
+        CompiledProgram program = new CompiledProgram(
+                new byte[]{Opcode.ADD, Opcode.ADD, Opcode.ADD, Opcode.PRINT_VALUE},
+                new int[]{5, 5, 5, 0});
+        CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+        assertEquals(Opcode.FUSED_ADD, optimized.opcodes()[0]);
+
+        Run run = Run.of(optimized, null, new byte[0], 2);
+        assertEquals(ExecutionStatus.STEP_LIMIT_EXCEEDED, run.result.getStatus());
+        assertEquals(2, run.result.getSteps());
+        assertEquals(2, run.result.getLine());
+        assertEquals(10, run.memory.getCell(0));
+    }
+
+    @Test
+    void boundedRunsMatchWithAndWithoutFusing() {
+        Random random = new Random(11);
+        for (int i = 0; i < 300; i++) {
+            CompiledProgram program = randomProgram(random, 4 + random.nextInt(30));
+            CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+            // Generated code hands the last stretch of a budget back to the interpreter
+            JitProgram compiled = JitProgram.compile(optimized);
+            byte[] input = new byte[random.nextInt(16)];
+            random.nextBytes(input);
+            for (long maxSteps = 0; maxSteps <= 50; maxSteps++) {
+                assertSameRuns(program, optimized, compiled, input, maxSteps, "program " + i);
+            }
+            assertSameRuns(program, optimized, compiled, input, 50 + random.nextInt(5000), "program " + i);
+        }
+    }
+
+    @Test
+    void profiledBoundedRunsMatchWithAndWithoutFusing() {
+        Random random = new Random(12);
+        for (int i = 0; i < 100; i++) {
+            CompiledProgram program = randomProgram(random, 4 + random.nextInt(30));
+            CompiledProgram optimized = PeepholeOptimizer.optimize(program);
+            byte[] input = new byte[random.nextInt(16)];
+            random.nextBytes(input);
+            for (long maxSteps = 0; maxSteps <= 50; maxSteps++) {
+                Run.profiled(program, input, maxSteps).assertSame(Run.profiled(optimized, input, maxSteps),
+                        "program " + i + ", " + maxSteps + " steps, profiled");
+            }
+        }
+    }
+
+    private static void assertSameRuns(CompiledProgram program, CompiledProgram optimized, JitProgram compiled,
+                                       byte[] input, long maxSteps, String description) {
+        description += ", " + maxSteps + " steps";
+        Run expected = Run.of(program, null, input, maxSteps);
+        expected.assertSame(Run.of(optimized, null, input, maxSteps), description);
+        if (compiled != null) {
+            expected.assertSame(Run.of(optimized, compiled, input, maxSteps), description + ", compiled");
+        }
+        expected.assertSame(Run.of(optimized, JitProgram.tiered(optimized), input, maxSteps),
+                description + ", tiered");
+    }
+
+    private static CompiledProgram randomProgram(Random random, int length) {
+        byte[] opcodes = new byte[length];
+        int[] operands = new int[length];
+        for (int line = 0; line < length; line++) {
+            if (random.nextInt(5) == 0) {
+                opcodes[line] = OTHER_OPCODES[random.nextInt(OTHER_OPCODES.length)];
+                // Jumps stay inside the program, so no run fails
+                operands[line] = opcodes[line] == Opcode.JUMP_BACK ? random.nextInt(line + 1)
+                        : random.nextInt(length + 1);
+            } else {
+                opcodes[line] = FUSABLE_OPCODES[random.nextInt(FUSABLE_OPCODES.length)];
+                operands[line] = random.nextInt(600) - 150;
+            }
+        }
+        return new CompiledProgram(opcodes, operands);
+    }
+
+    /**
+     * One bounded run with its own memory, input and captured output
+     */
+    private static final class Run {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final ByteArrayMemory memory = new ByteArrayMemory(MEMORY_SIZE);
+        private ExecutionResult result;
+        private ExecutionProfile profile;
+
+        /**
+         * Run a program, interpreted or with its generated code if a JIT program is given
+         */
+        static Run of(CompiledProgram program, JitProgram jitProgram, byte[] input, long maxSteps) {
+            Run run = new Run();
+            ExecutionContext context = new ExecutionContext(run.memory, run.output::write,
+                    Channels.newChannel(new ByteArrayInputStream(input)));
+            ExecutionLimits limits = ExecutionLimits.none().withMaxSteps(maxSteps);
+            run.result = jitProgram != null ? jitProgram.execute(context, limits)
+                    : ProgramExecutor.execute(program, context, limits);
+            return run;
+        }
+
+        static Run profiled(CompiledProgram program, byte[] input, long maxSteps) {
+            Run run = new Run();
+            ExecutionContext context = new ExecutionContext(run.memory, run.output::write,
+                    Channels.newChannel(new ByteArrayInputStream(input)));
+            run.profile = ProgramProfiler.profile(program, context, ExecutionLimits.none().withMaxSteps(maxSteps));
+            run.result = run.profile.getResult();
+            return run;
+        }
+
+        void assertSame(Run actual, String description) {
+            assertEquals(result.getStatus(), actual.result.getStatus(), description + ": status");
+            assertEquals(result.getSteps(), actual.result.getSteps(), description + ": steps");
+            assertEquals(result.getLine(), actual.result.getLine(), description + ": line");
+            assertArrayEquals(output.toByteArray(), actual.output.toByteArray(), description + ": output");
+            assertEquals(memory.getPointer(), actual.memory.getPointer(), description + ": pointer");
+            for (int address = 0; address < MEMORY_SIZE; address++) {
+                assertEquals(memory.getCell(address), actual.memory.getCell(address),
+                        description + ": cell " + address);
+            }
+            if (profile != null) {
+                int lines = profile.jumpCounts().length;
+                for (int line = 0; line < lines; line++) {
+                    assertEquals(profile.getLineCount(line), actual.profile.getLineCount(line),
+                            description + ": count of line " + line);
+                    assertEquals(profile.getJumpCount(line), actual.profile.getJumpCount(line),
+                            description + ": jumps on line " + line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.wildtooth.lang.io;
+
+import com.github.wildtooth.lang.memory.ByteArrayMemory;
+import com.github.wildtooth.lang.memory.Memory;
+import com.github.wildtooth.lang.memory.ShortArrayMemory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads input through an {@link InputHandler} and writes raw bytes through an {@link OutputHandler}, as the
+ * {@code i}, {@code t} and {@code o} instructions do
+ */
+class InputHandlerTest {
+
+    @Test
+    void endOfInputLeavesZeroAndSetsTheFlag() {
+        Memory memory = new ByteArrayMemory(4);
+        ScriptedChannel channel = new ScriptedChannel(new byte[]{'a', (byte) 0xE9}, null);
+        InputHandler input = new InputHandler(memory, channel);
+
+        input.testEndOfInput();
+        assertEquals(0, memory.getCurrentCell());
+        input.readByte();
+        assertEquals('a', memory.getCurrentCell());
+        input.readByte();
+        assertEquals(0xE9, memory.getCurrentCell() & 0xFF);
+        assertFalse(input.isEndOfInput());
+
+        memory.setCurrentCell(7);
+        input.readByte();
+        assertEquals(0, memory.getCurrentCell());
+        assertTrue(input.isEndOfInput());
+        input.testEndOfInput();
+        assertEquals(1, memory.getCurrentCell());
+
+        // Once the input has ended, the channel is not read again
+        int reads = channel.reads;
+        assertEquals(0, input.read());
+        assertEquals(reads, channel.reads);
+    }
+
+    @Test
+    void bytesAreReadUnsigned() {
+        Memory memory = new ShortArrayMemory(4);
+        InputHandler input = new InputHandler(memory,
+                Channels.newChannel(new ByteArrayInputStream(new byte[]{(byte) 0x80, (byte) 0xFF, 0})));
+        input.readByte();
+        assertEquals(0x80, memory.getCurrentCell());
+        input.readByte();
+        assertEquals(0xFF, memory.getCurrentCell());
+        input.readByte();
+        assertEquals(0, memory.getCurrentCell());
+        assertFalse(input.isEndOfInput(), "a zero byte is not the end of the input");
+    }
+
+    @Test
+    void resetDropsBufferedInputAndClearsTheFlag() {
+        ScriptedChannel channel = new ScriptedChannel(new byte[]{1, 2, 3}, null, new byte[]{4, 5}, null);
+        InputHandler input = new InputHandler(new ByteArrayMemory(4), channel);
+
+        assertEquals(1, input.read());
+        // 2 and 3 were buffered with 1 and are dropped, the next read goes to the channel
+        input.reset();
+        assertEquals(0, input.read());
+        assertTrue(input.isEndOfInput());
+
+        // A channel that has more input after its end, like a terminal, is read again after a reset
+        input.reset();
+        assertFalse(input.isEndOfInput());
+        assertEquals(4, input.read());
+        assertEquals(5, input.read());
+        assertEquals(0, input.read());
+        assertTrue(input.isEndOfInput());
+
+        // A new channel is read from its start
+        input.setChannel(Channels.newChannel(new ByteArrayInputStream(new byte[]{6})));
+        assertFalse(input.isEndOfInput());
+        assertEquals(6, input.read());
+        assertEquals(0, input.read());
+        assertTrue(input.isEndOfInput());
+    }
+
+    @Test
+    void readsCrossTheBufferBoundary() {
+        byte[] data = new byte[3 * 64 * 1024 + 17];
+        new Random(3).nextBytes(data);
+
+        // Whole reads as large as the buffer, and short reads that end anywhere in it
+        assertReadsBack(data, Channels.newChannel(new ByteArrayInputStream(data)));
+        ScriptedChannel shortReads = new ScriptedChannel();
+        Random random = new Random(4);
+        for (int offset = 0; offset < data.length; ) {
+            int length = Math.min(data.length - offset, 1 + random.nextInt(5000));
+            shortReads.chunks.add(Arrays.copyOfRange(data, offset, offset + length));
+            offset += length;
+        }
+        shortReads.chunks.add(ScriptedChannel.END);
+        assertReadsBack(data, shortReads);
+    }
+
+    @Test
+    void rawBytesAreWrittenAsTheyAre() {
+        Memory memory = new ShortArrayMemory(1);
+        MemorySink sink = new MemorySink();
+        OutputHandler output = new OutputHandler(memory, sink);
+        byte[] expected = new byte[256];
+        for (int value = 0; value < 256; value++) {
+            expected[value] = (byte) value;
+            // Only the low byte of wider cells is written
+            memory.setCurrentCell(value + 0x300);
+            output.printByte();
+        }
+        output.flush();
+        assertArrayEquals(expected, sink.toByteArray());
+    }
+
+    private static void assertReadsBack(byte[] data, ReadableByteChannel channel) {
+        InputHandler input = new InputHandler(new ByteArrayMemory(1), channel);
+        byte[] read = new byte[data.length];
+        for (int i = 0; i < read.length; i++) {
+            read[i] = (byte) input.read();
+            assertFalse(input.isEndOfInput(), "byte " + i);
+        }
+        assertArrayEquals(data, read);
+        assertEquals(0, input.read());
+        assertTrue(input.isEndOfInput());
+    }
+
+    /**
+     * A channel handing out the given chunks in order, one per read, where null stands for the end of the input.
+     * Past the last chunk, the input has ended.
+     */
+    private static final class ScriptedChannel implements ReadableByteChannel {
+        private static final byte[] END = new byte[0];
+
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private int reads;
+
+        ScriptedChannel(byte[]... chunks) {
+            for (byte[] chunk : chunks) {
+                this.chunks.add(chunk != null ? chunk : END);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            reads++;
+            byte[] chunk = chunks.poll();
+            if (chunk == null || chunk == END) {
+                return -1;
+            }
+            buffer.put(chunk);
+            return chunk.length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
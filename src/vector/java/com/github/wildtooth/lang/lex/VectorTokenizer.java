@@ -0,0 +1,54 @@
+package com.github.wildtooth.lang.lex;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Tokenizer classifying a block of 64 bytes with the Vector API. Separators come out of lane compares, letter values
+ * out of a lowercasing {@code or} and a masked subtract. Both are stored as {@code long}s, which in this JDK is faster
+ * than turning the compare masks into bits. Bytes left over at the end are read by the {@link ScalarTokenizer}.
+ * <p>
+ * Only built with {@code gradle -Pvector}, and only loaded through {@link Tokenizer#vector()}.
+ */
+final class VectorTokenizer implements Tokenizer {
+  static final Tokenizer INSTANCE = new VectorTokenizer();
+
+  private static final int BLOCK = ScalarTokenizer.BLOCK;
+  // A block fills the eight longs of scratch space, so a vector must not hold more than a block
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED.length() <= BLOCK
+      ? ByteVector.SPECIES_PREFERRED : ByteVector.SPECIES_512;
+  private static final ByteVector ZERO = ByteVector.zero(SPECIES);
+  private static final ByteVector HIGH_BIT = ByteVector.broadcast(SPECIES, (byte) 0x80);
+
+  private VectorTokenizer() {
+  }
+
+  @Override
+  public void tokenize(byte[] text, int from, int to, Tokens tokens) {
+    tokens.reset(from);
+    long[] letters = new long[Long.BYTES];
+    long[] separatorBytes = new long[Long.BYTES];
+    int i = from;
+    for (; i + BLOCK <= to; i += BLOCK) {
+      for (int lane = 0; lane < BLOCK; lane += SPECIES.length()) {
+        ByteVector bytes = ByteVector.fromArray(SPECIES, text, i + lane);
+        VectorMask<Byte> isSeparator = bytes.eq((byte) ' ').or(bytes.eq((byte) '\n')).or(bytes.eq((byte) '\r'));
+        ZERO.blend(HIGH_BIT, isSeparator).reinterpretAsLongs().intoArray(separatorBytes, lane / Long.BYTES);
+
+        // Signed compares, so bytes outside ASCII are never letters
+        ByteVector lower = bytes.or((byte) 0x20);
+        VectorMask<Byte> isLetter = lower.compare(VectorOperators.GE, (byte) 'a')
+            .and(lower.compare(VectorOperators.LE, (byte) 'z'));
+        ZERO.blend(lower.sub((byte) ('a' - 1)), isLetter).reinterpretAsLongs().intoArray(letters, lane / Long.BYTES);
+      }
+      long separators = 0;
+      for (int run = 0; run < Long.BYTES; run++) {
+        separators |= ScalarTokenizer.gatherHighBits(separatorBytes[run]) << (run * Long.BYTES);
+      }
+      tokens.accept(i, letters, separators);
+    }
+    ScalarTokenizer.finish(text, i, to, tokens, letters);
+  }
+}